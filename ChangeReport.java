@@ -0,0 +1,85 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The purpose of ChangeReport is to sum up one batch of road changes
+ * applied by TownGraphManager.applyChanges: how many roads were opened,
+ * closed and reweighted, how many records had nothing to change, which
+ * lines could not be read, and how long the batch took.
+ *
+ * @author Joshua Gizaw
+ */
+public class ChangeReport {
+    private final int added;
+    private final int removed;
+    private final int reweighted;
+    private final int skipped;
+    private final List<String> errors;
+    private final long elapsedNanos;
+
+    /**
+     * @param added the number of roads opened
+     * @param removed the number of roads closed
+     * @param reweighted the number of roads given a new weight
+     * @param skipped the number of records that matched nothing to change
+     * @param errors a message with the line number of each malformed record
+     * @param elapsedNanos the time taken to read and apply the batch
+     */
+    public ChangeReport(int added, int removed, int reweighted, int skipped, List<String> errors, long elapsedNanos) {
+        this.added = added;
+        this.removed = removed;
+        this.reweighted = reweighted;
+        this.skipped = skipped;
+        this.errors = Collections.unmodifiableList(errors);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the number of roads opened
+     */
+    public int getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the number of roads closed
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the number of roads given a new weight
+     */
+    public int getReweighted() {
+        return reweighted;
+    }
+
+    /**
+     * @return the number of records that matched nothing to change, such as
+     * opening a road between towns that are already joined
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return a message with the line number of each malformed record
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the time taken to read and apply the batch, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return added + " added, " + removed + " removed, " + reweighted + " reweighted, " + skipped + " skipped, "
+                + errors.size() + " malformed in " + String.format("%.1f", elapsedNanos / 1e6) + " ms";
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.Collection;
+
+/**
+ * The purpose of ConnectedComponents is to track which towns of a Graph can
+ * reach each other, so that a query between towns in different components
+ * can be answered without a search. It is a union-find over the towns:
+ * adding a town gives it a component of its own, and adding a road merges
+ * the components of its ends, smaller into larger. Removing a road can
+ * split a component, which union-find cannot undo, so Graph drops the
+ * structure then and builds a new one on the next query.
+ *
+ * The links are kept in TrieMaps, so a copy for the next version of a
+ * copy-on-write Graph costs O(1) and shares every link it does not change.
+ * Merging smaller components into larger ones keeps every chain of links
+ * logarithmic, so paths are not compressed: that would change links shared
+ * with copies on every lookup.
+ *
+ * @author Joshua Gizaw
+ */
+public class ConnectedComponents {
+    //An id for each town, in the order they were added
+    private final TrieMap<Town, Integer> slots;
+    //The next town toward the root of its component, for every town but the roots
+    private final TrieMap<Town, Town> parent;
+    //The number of towns in each component, by root
+    private final TrieMap<Town, Integer> size;
+    private int count;
+
+    /**
+     * Builds the components of a graph.
+     * @param towns the towns of the graph
+     * @param roads the roads of the graph, each joining two of the towns
+     */
+    public ConnectedComponents(Collection<Town> towns, Collection<Road> roads) {
+        slots = new TrieMap<Town, Integer>();
+        parent = new TrieMap<Town, Town>();
+        size = new TrieMap<Town, Integer>();
+        for (Town town : towns) add(town);
+        for (Road road : roads) union(road.getSource(), road.getDestination());
+    }
+
+    private ConnectedComponents(ConnectedComponents base) {
+        slots = base.slots.copy();
+        parent = base.parent.copy();
+        size = base.size.copy();
+        count = base.count;
+    }
+
+    /**
+     * @return a copy that can be changed without affecting this one
+     */
+    public ConnectedComponents copy() {
+        return new ConnectedComponents(this);
+    }
+
+    /**
+     * Gives a new town a component of its own.
+     * @param town the town, which must not have been added before
+     */
+    public void add(Town town) {
+        slots.put(town, slots.size());
+        size.put(town, 1);
+        count++;
+    }
+
+    /**
+     * Merges the components of the two ends of a new road.
+     * @param source one end of the road
+     * @param destination the other end
+     */
+    public void union(Town source, Town destination) {
+        Town a = root(source);
+        Town b = root(destination);
+        if (a.equals(b)) return;
+        int sizeA = size.get(a);
+        int sizeB = size.get(b);
+        if (sizeA < sizeB) {
+            Town swap = a;
+            a = b;
+            b = swap;
+        }
+        parent.put(b, a);
+        size.put(a, sizeA + sizeB);
+        size.remove(b);
+        count--;
+    }
+
+    /**
+     * Finds a town's component without changing the structure, so any
+     * number of threads may call it at once.
+     * @param town the town to look up
+     * @return an id shared by every town in the same component, or -1 if
+     * the town is not in the graph
+     */
+    public int find(Town town) {
+        if (town == null || !slots.containsKey(town)) return -1;
+        return slots.get(root(town));
+    }
+
+    /**
+     * @param town a town in the graph
+     * @return the number of towns in the town's component, or 0 if the town
+     * is not in the graph
+     */
+    public int sizeOf(Town town) {
+        if (town == null || !slots.containsKey(town)) return 0;
+        return size.get(root(town));
+    }
+
+    /**
+     * @return the number of components
+     */
+    public int count() {
+        return count;
+    }
+
+    private Town root(Town town) {
+        for (Town next = parent.get(town); next != null; next = parent.get(town)) town = next;
+        return town;
+    }
+}
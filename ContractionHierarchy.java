@@ -0,0 +1,411 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.IntStream;
+
+/**
+ * The purpose of ContractionHierarchy is to hold the preprocessing for
+ * contraction hierarchy queries over a GraphSnapshot. Towns are contracted
+ * one at a time from least to most important; whenever removing a town
+ * would break a shortest path between two of its neighbors, a shortcut road
+ * standing for the two-road detour is added. A query then only ever has to
+ * climb to more important towns, from both ends, so a long route settles a
+ * few hundred towns instead of most of the graph. Shortcuts remember the
+ * two roads they replace, so a path can be unpacked back into the original
+ * Road objects.
+ * 
+ * Roads are undirected, so the upward search graph also serves as the
+ * downward one: the backward search from the destination climbs the same
+ * upward arcs as the forward search.
+ * 
+ * @author Joshua Gizaw
+ */
+public class ContractionHierarchy {
+    /** How many towns a witness search may settle before giving up and adding the shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 64;
+    /** Lifts priorities above zero so they can be packed into a LongMinHeap. */
+    private static final int PRIORITY_OFFSET = 1 << 20;
+
+    private final GraphSnapshot graph;
+    private final int[] rank;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final int[] edgeRoad;
+    private final int[] edgeFirst;
+    private final int[] edgeSecond;
+    private final int[] edgeMiddle;
+    private final int shortcutCount;
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final int[] upWeights;
+    private final int[] upEdges;
+
+    private ContractionHierarchy(Builder built) {
+        graph = built.graph;
+        rank = built.rank;
+        int count = built.edgeCount;
+        edgeFrom = Arrays.copyOf(built.from, count);
+        edgeTo = Arrays.copyOf(built.to, count);
+        edgeRoad = Arrays.copyOf(built.road, count);
+        edgeFirst = Arrays.copyOf(built.first, count);
+        edgeSecond = Arrays.copyOf(built.second, count);
+        edgeMiddle = Arrays.copyOf(built.middle, count);
+        shortcutCount = built.shortcuts;
+
+        // Every edge becomes one arc leaving its less important end
+        int size = graph.size();
+        upOffsets = new int[size + 1];
+        for (int e = 0; e < count; e++) upOffsets[lower(e) + 1]++;
+        for (int i = 0; i < size; i++) upOffsets[i + 1] += upOffsets[i];
+        upTargets = new int[count];
+        upWeights = new int[count];
+        upEdges = new int[count];
+        int[] next = Arrays.copyOf(upOffsets, size);
+        for (int e = 0; e < count; e++) {
+            int arc = next[lower(e)]++;
+            upTargets[arc] = lower(e) == edgeFrom[e] ? edgeTo[e] : edgeFrom[e];
+            upWeights[arc] = built.weight[e];
+            upEdges[arc] = e;
+        }
+    }
+
+    private int lower(int edge) {
+        return rank[edgeFrom[edge]] < rank[edgeTo[edge]] ? edgeFrom[edge] : edgeTo[edge];
+    }
+
+    /**
+     * Contracts every town of the snapshot and builds the search graph.
+     * @param graph the snapshot to preprocess
+     * @param parallel true to compute the initial town ordering on all cores
+     * @return the contraction hierarchy for the snapshot
+     */
+    public static ContractionHierarchy build(GraphSnapshot graph, boolean parallel) {
+        Builder builder = new Builder(graph);
+        builder.contractAll(parallel);
+        return new ContractionHierarchy(builder);
+    }
+
+    /**
+     * @return the version of the graph the hierarchy was built for
+     */
+    public long getVersion() {
+        return graph.getVersion();
+    }
+
+    /**
+     * @return the snapshot the hierarchy was built for
+     */
+    public GraphSnapshot getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the number of shortcut roads added during contraction
+     */
+    public int shortcutCount() {
+        return shortcutCount;
+    }
+
+    /**
+     * @param node a dense town id
+     * @return the position at which the town was contracted; more important
+     * towns have higher ranks
+     */
+    public int rankOf(int node) {
+        return rank[node];
+    }
+
+    /**
+     * Finds the shortest path between two towns by searching upward from
+     * both ends, then unpacks any shortcuts on it into original roads.
+     * @param source the id of the starting town
+     * @param target the id of the ending town
+     * @param forward buffers for the search from the source
+     * @param backward buffers for the search from the target
+     * @return the shortest path, or null if target cannot be reached
+     */
+    public PathResult shortestPath(int source, int target, SearchBuffers forward, SearchBuffers backward) {
+        forward.reset();
+        backward.reset();
+        forward.reach(source, 0, -1, -1);
+        backward.reach(target, 0, -1, -1);
+        int best = Integer.MAX_VALUE;
+        int meet = -1;
+
+        while (true) {
+            boolean forwardLeft = !forward.heap().isEmpty() && LongMinHeap.distance(forward.heap().peek()) < best;
+            boolean backwardLeft = !backward.heap().isEmpty() && LongMinHeap.distance(backward.heap().peek()) < best;
+            if (!forwardLeft && !backwardLeft) break;
+            boolean growForward = forwardLeft && (!backwardLeft
+                    || LongMinHeap.distance(forward.heap().peek()) <= LongMinHeap.distance(backward.heap().peek()));
+            SearchBuffers side = growForward ? forward : backward;
+            SearchBuffers other = growForward ? backward : forward;
+
+            long entry = side.heap().poll();
+            int current = LongMinHeap.node(entry);
+            if (side.isSettled(current)) continue;
+            side.settle(current);
+            int dist = LongMinHeap.distance(entry);
+            int otherDist = other.distance(current);
+            if (otherDist != Integer.MAX_VALUE && (long) dist + otherDist < best) {
+                best = dist + otherDist;
+                meet = current;
+            }
+            for (int arc = upOffsets[current], end = upOffsets[current + 1]; arc < end; arc++) {
+                int next = upTargets[arc];
+                int candidate = dist + upWeights[arc];
+                if (candidate < side.distance(next)) side.reach(next, candidate, current, upEdges[arc]);
+            }
+        }
+        if (meet == -1) return null;
+
+        // Edges from the source up to the meeting town, then down to the target
+        ArrayList<Integer> edges = new ArrayList<>();
+        for (int v = meet; forward.parents()[v] != -1; v = forward.parents()[v]) edges.add(forward.parentRoads()[v]);
+        Collections.reverse(edges);
+        for (int v = meet; backward.parents()[v] != -1; v = backward.parents()[v]) edges.add(backward.parentRoads()[v]);
+        return unpack(source, edges, best);
+    }
+
+    /**
+     * Expands a chain of hierarchy edges starting at source into the roads
+     * and towns of the original graph.
+     */
+    private PathResult unpack(int source, ArrayList<Integer> edges, int totalWeight) {
+        ArrayList<Town> towns = new ArrayList<>();
+        ArrayList<Road> roads = new ArrayList<>();
+        towns.add(graph.townAt(source));
+        int at = source;
+        int[] stackEdge = new int[16];
+        int[] stackFrom = new int[16];
+        for (int edge : edges) {
+            int top = 0;
+            stackEdge[top] = edge;
+            stackFrom[top++] = at;
+            while (top > 0) {
+                int e = stackEdge[--top];
+                int from = stackFrom[top];
+                if (edgeRoad[e] >= 0) {
+                    at = edgeFrom[e] == from ? edgeTo[e] : edgeFrom[e];
+                    roads.add(graph.roadAt(edgeRoad[e]));
+                    towns.add(graph.townAt(at));
+                    continue;
+                }
+                if (top + 2 > stackEdge.length) {
+                    stackEdge = Arrays.copyOf(stackEdge, stackEdge.length * 2);
+                    stackFrom = Arrays.copyOf(stackFrom, stackFrom.length * 2);
+                }
+                int first = edgeFirst[e];
+                int second = edgeSecond[e];
+                if (edgeFrom[first] != from && edgeTo[first] != from) {
+                    first = edgeSecond[e];
+                    second = edgeFirst[e];
+                }
+                // Pushed in reverse so the half touching from is expanded first
+                stackEdge[top] = second;
+                stackFrom[top++] = edgeMiddle[e];
+                stackEdge[top] = first;
+                stackFrom[top++] = from;
+            }
+        }
+        return new PathResult(towns, roads, totalWeight);
+    }
+
+    /**
+     * Holds the mutable state used while towns are being contracted.
+     */
+    private static final class Builder {
+        final GraphSnapshot graph;
+        final int size;
+        int[] from, to, weight, road, first, second, middle;
+        int edgeCount;
+        int shortcuts;
+        final int[][] adjacent;
+        final int[] adjacentCount;
+        final boolean[] contracted;
+        final int[] contractedNeighbors;
+        final int[] rank;
+
+        Builder(GraphSnapshot graph) {
+            this.graph = graph;
+            size = graph.size();
+            int capacity = Math.max(16, graph.roadCount() * 2);
+            from = new int[capacity];
+            to = new int[capacity];
+            weight = new int[capacity];
+            road = new int[capacity];
+            first = new int[capacity];
+            second = new int[capacity];
+            middle = new int[capacity];
+            adjacent = new int[size][];
+            adjacentCount = new int[size];
+            contracted = new boolean[size];
+            contractedNeighbors = new int[size];
+            rank = new int[size];
+            for (int v = 0; v < size; v++) adjacent[v] = new int[Math.max(2, graph.endArc(v) - graph.firstArc(v))];
+            for (int v = 0; v < size; v++) {
+                for (int arc = graph.firstArc(v); arc < graph.endArc(v); arc++) {
+                    int u = graph.arcTarget(arc);
+                    if (v < u) addEdge(v, u, graph.arcWeight(arc), graph.arcRoad(arc), -1, -1, -1);
+                }
+            }
+        }
+
+        int addEdge(int a, int b, int w, int roadId, int firstEdge, int secondEdge, int via) {
+            if (edgeCount == from.length) {
+                int capacity = from.length * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                road = Arrays.copyOf(road, capacity);
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+                middle = Arrays.copyOf(middle, capacity);
+            }
+            int e = edgeCount++;
+            from[e] = a;
+            to[e] = b;
+            weight[e] = w;
+            road[e] = roadId;
+            first[e] = firstEdge;
+            second[e] = secondEdge;
+            middle[e] = via;
+            if (roadId == -1) shortcuts++;
+            link(a, e);
+            link(b, e);
+            return e;
+        }
+
+        private void link(int node, int edge) {
+            if (adjacentCount[node] == adjacent[node].length)
+                adjacent[node] = Arrays.copyOf(adjacent[node], adjacent[node].length * 2);
+            adjacent[node][adjacentCount[node]++] = edge;
+        }
+
+        /**
+         * Drops the edges between node and a town that was just contracted,
+         * since later witness searches and contractions never use them.
+         */
+        private void unlink(int node, int gone) {
+            int[] list = adjacent[node];
+            int count = adjacentCount[node];
+            for (int i = count - 1; i >= 0; i--) {
+                int e = list[i];
+                if (from[e] == gone || to[e] == gone) list[i] = list[--count];
+            }
+            adjacentCount[node] = count;
+        }
+
+        void contractAll(boolean parallel) {
+            ThreadLocal<SearchBuffers> buffers = ThreadLocal.withInitial(() -> new SearchBuffers(size));
+            int[] priority = new int[size];
+            IntStream nodes = IntStream.range(0, size);
+            if (parallel) nodes = nodes.parallel();
+            nodes.forEach(v -> priority[v] = priority(v, buffers.get()));
+
+            SearchBuffers search = buffers.get();
+            LongMinHeap queue = new LongMinHeap(size);
+            for (int v = 0; v < size; v++) queue.add(LongMinHeap.pack(priority[v] + PRIORITY_OFFSET, v));
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int v = LongMinHeap.node(queue.poll());
+                if (contracted[v]) continue;
+                // Priorities go stale as neighbors are contracted, so check again
+                int current = priority(v, search) + PRIORITY_OFFSET;
+                if (!queue.isEmpty() && current > LongMinHeap.distance(queue.peek())) {
+                    queue.add(LongMinHeap.pack(current, v));
+                    continue;
+                }
+                contract(v, search, true);
+                contracted[v] = true;
+                rank[v] = order++;
+                for (int i = 0; i < adjacentCount[v]; i++) {
+                    int e = adjacent[v][i];
+                    int u = from[e] == v ? to[e] : from[e];
+                    if (u == v || contracted[u]) continue;
+                    contractedNeighbors[u]++;
+                    unlink(u, v);
+                }
+                adjacent[v] = null;
+                adjacentCount[v] = 0;
+            }
+        }
+
+        /**
+         * Ranks towns that add few shortcuts, remove many roads and sit next
+         * to few already contracted towns as least important.
+         */
+        int priority(int v, SearchBuffers search) {
+            int shortcutsNeeded = contract(v, search, false);
+            int degree = 0;
+            for (int i = 0; i < adjacentCount[v]; i++) {
+                int e = adjacent[v][i];
+                if (!contracted[from[e] == v ? to[e] : from[e]]) degree++;
+            }
+            return Math.max(-PRIORITY_OFFSET + 1, Math.min(PRIORITY_OFFSET, shortcutsNeeded - degree + contractedNeighbors[v]));
+        }
+
+        /**
+         * Finds the shortcuts needed to remove v, adding them if apply is true.
+         * @return the number of shortcuts needed
+         */
+        int contract(int v, SearchBuffers search, boolean apply) {
+            // Keep only the lightest edge to each remaining neighbor
+            int count = 0;
+            int[] neighbors = new int[adjacentCount[v]];
+            int[] viaEdge = new int[adjacentCount[v]];
+            for (int i = 0; i < adjacentCount[v]; i++) {
+                int e = adjacent[v][i];
+                int u = from[e] == v ? to[e] : from[e];
+                if (contracted[u] || u == v) continue;
+                int j = 0;
+                while (j < count && neighbors[j] != u) j++;
+                if (j == count) {
+                    neighbors[count] = u;
+                    viaEdge[count++] = e;
+                } else if (weight[e] < weight[viaEdge[j]]) {
+                    viaEdge[j] = e;
+                }
+            }
+
+            int needed = 0;
+            for (int i = 0; i < count; i++) {
+                int limit = 0;
+                for (int j = i + 1; j < count; j++) limit = Math.max(limit, weight[viaEdge[i]] + weight[viaEdge[j]]);
+                witnessSearch(neighbors[i], v, limit, search);
+                for (int j = i + 1; j < count; j++) {
+                    int through = weight[viaEdge[i]] + weight[viaEdge[j]];
+                    if (search.distance(neighbors[j]) <= through) continue;
+                    needed++;
+                    if (apply) addEdge(neighbors[i], neighbors[j], through, -1, viaEdge[i], viaEdge[j], v);
+                }
+            }
+            return needed;
+        }
+
+        /**
+         * Dijkstra from start over towns not yet contracted, skipping the town
+         * being contracted, until limit is passed or enough towns are settled.
+         */
+        private void witnessSearch(int start, int skip, int limit, SearchBuffers search) {
+            search.reset();
+            search.reach(start, 0, -1, -1);
+            LongMinHeap heap = search.heap();
+            while (!heap.isEmpty() && search.settledCount() < WITNESS_SETTLE_LIMIT) {
+                long entry = heap.poll();
+                int current = LongMinHeap.node(entry);
+                int dist = LongMinHeap.distance(entry);
+                if (dist > limit) break;
+                if (search.isSettled(current)) continue;
+                search.settle(current);
+                for (int i = 0; i < adjacentCount[current]; i++) {
+                    int e = adjacent[current][i];
+                    int next = from[e] == current ? to[e] : from[e];
+                    if (next == skip || contracted[next]) continue;
+                    int candidate = dist + weight[e];
+                    if (candidate <= limit && candidate < search.distance(next)) search.reach(next, candidate, current, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * The purpose of DistanceMatrix is to hold the road distance between every
+ * pair of towns in one flat primitive matrix, row by source town. It is
+ * computed either by one Dijkstra search per source spread over a
+ * ForkJoinPool, or by a blocked Floyd-Warshall for dense graphs, and it can
+ * be written to (or computed straight into) a memory-mapped file.
+ * Unreachable pairs hold Integer.MAX_VALUE.
+ * 
+ * @author Joshua Gizaw
+ */
+public class DistanceMatrix {
+    /** How the matrix is computed. */
+    public enum Method {
+        /** Floyd-Warshall when the graph is dense, Dijkstra per source otherwise. */
+        AUTO,
+        /** One Dijkstra search per source town, in parallel. */
+        DIJKSTRA,
+        /** Blocked Floyd-Warshall, with the blocks of each round in parallel. */
+        FLOYD_WARSHALL
+    }
+
+    private static final int MAGIC = 0x444D4154;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int BLOCK = 64;
+    private static final int SOURCES_PER_TASK = 8;
+
+    private final String[] names;
+    private final int size;
+    private final int[] values;
+    private final IntBuffer mapped;
+    private HashMap<String, Integer> index;
+
+    private DistanceMatrix(String[] names, int[] values, IntBuffer mapped) {
+        this.names = names;
+        this.size = names.length;
+        this.values = values;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Computes the distance between every pair of towns in the snapshot.
+     * Row and column i belong to the town with snapshot id i.
+     * @param graph the snapshot to measure
+     * @param method how to compute the matrix
+     * @param file a file to compute the matrix into through a memory map, or
+     * null to keep it on the heap
+     * @return the distance matrix
+     * @throws IOException if the file cannot be written
+     */
+    public static DistanceMatrix compute(GraphSnapshot graph, Method method, File file) throws IOException {
+        int size = graph.size();
+        if ((long) size * size > Integer.MAX_VALUE / 4)
+            throw new IllegalArgumentException("Too many towns for an all-pairs matrix: " + size);
+        String[] names = new String[size];
+        for (int i = 0; i < size; i++) names[i] = graph.townAt(i).getName();
+        if (method == Method.AUTO)
+            method = (long) graph.roadCount() * 4 >= (long) size * size ? Method.FLOYD_WARSHALL : Method.DIJKSTRA;
+
+        if (method == Method.FLOYD_WARSHALL) {
+            int[] values = new int[size * size];
+            floydWarshall(graph, values);
+            DistanceMatrix matrix = new DistanceMatrix(names, values, null);
+            if (file != null) matrix.write(file);
+            return matrix;
+        }
+        if (file == null) {
+            int[] values = new int[size * size];
+            ForkJoinPool.commonPool().invoke(new RowTask(graph, values, null, 0, size));
+            return new DistanceMatrix(names, values, null);
+        }
+
+        // Rows go straight from the searches into the mapped file
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                FileChannel channel = raf.getChannel()) {
+            long matrixBytes = writeHeader(raf, size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, matrixBytes);
+            IntBuffer ints = buffer.asIntBuffer();
+            ForkJoinPool.commonPool().invoke(new RowTask(graph, null, ints, 0, size));
+            buffer.force();
+            writeNames(raf, size, names);
+            return new DistanceMatrix(names, null, ints);
+        }
+    }
+
+    private static long writeHeader(RandomAccessFile raf, int size) throws IOException {
+        raf.setLength(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(FORMAT_VERSION);
+        raf.writeInt(size);
+        raf.writeInt(0);
+        return 4L * size * size;
+    }
+
+    private static void writeNames(RandomAccessFile raf, int size, String[] names) throws IOException {
+        raf.seek(HEADER_BYTES + 4L * size * size);
+        for (String name : names) raf.writeUTF(name);
+    }
+
+    /**
+     * Maps a matrix written by compute or write without reading it onto the heap.
+     * @param file the file to map
+     * @return the mapped matrix
+     * @throws IOException if the file cannot be read or is not a distance matrix
+     */
+    public static DistanceMatrix open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            int magic = raf.readInt();
+            int format = raf.readInt();
+            int size = raf.readInt();
+            if (magic != MAGIC || format != FORMAT_VERSION) throw new IOException(file + " is not a distance matrix");
+            long matrixBytes = 4L * size * size;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, matrixBytes);
+            raf.seek(HEADER_BYTES + matrixBytes);
+            String[] names = new String[size];
+            for (int i = 0; i < size; i++) names[i] = raf.readUTF();
+            return new DistanceMatrix(names, null, buffer.asIntBuffer());
+        }
+    }
+
+    /**
+     * Writes the matrix through a memory map: a 16 byte header, the matrix
+     * row by row, then the town names.
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                FileChannel channel = raf.getChannel()) {
+            long matrixBytes = writeHeader(raf, size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, matrixBytes);
+            IntBuffer ints = buffer.asIntBuffer();
+            if (values != null) ints.put(values);
+            else ints.put(0, mapped, 0, size * size);
+            buffer.force();
+            writeNames(raf, size, names);
+        }
+    }
+
+    /**
+     * @return the number of towns in the matrix
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i a row or column index
+     * @return the name of the town with that index
+     */
+    public String nameAt(int i) {
+        return names[i];
+    }
+
+    /**
+     * @param from the row of the source town
+     * @param to the column of the destination town
+     * @return the road distance, or Integer.MAX_VALUE if there is no path
+     */
+    public int distance(int from, int to) {
+        int i = from * size + to;
+        return values != null ? values[i] : mapped.get(i);
+    }
+
+    /**
+     * @param from the name of the source town
+     * @param to the name of the destination town
+     * @return the road distance, Integer.MAX_VALUE if there is no path, or -1
+     * if either town is not in the matrix
+     */
+    public int distance(String from, String to) {
+        if (index == null) {
+            HashMap<String, Integer> built = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) built.put(names[i], i);
+            index = built;
+        }
+        Integer a = index.get(from);
+        Integer b = index.get(to);
+        if (a == null || b == null) return -1;
+        return distance(a, b);
+    }
+
+    /**
+     * Fills rows start to end - 1 with one Dijkstra search each, splitting
+     * the range in half until it is small enough for one thread. Rows are
+     * written into values, or into mapped if values is null.
+     */
+    private static class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final GraphSnapshot graph;
+        private final int[] values;
+        private final IntBuffer mapped;
+        private final int start;
+        private final int end;
+
+        RowTask(GraphSnapshot graph, int[] values, IntBuffer mapped, int start, int end) {
+            this.graph = graph;
+            this.values = values;
+            this.mapped = mapped;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > SOURCES_PER_TASK) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new RowTask(graph, values, mapped, start, middle),
+                        new RowTask(graph, values, mapped, middle, end));
+                return;
+            }
+            int size = graph.size();
+            SnapshotRouter router = new SnapshotRouter(graph);
+            int[] row = values == null ? new int[size] : null;
+            for (int source = start; source < end; source++) {
+                if (values != null) {
+                    router.distancesFrom(source, values, source * size);
+                } else {
+                    router.distancesFrom(source, row, 0);
+                    // Absolute puts leave the shared buffer's position alone
+                    mapped.put(source * size, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Floyd-Warshall over BLOCK by BLOCK tiles. Each round first relaxes the
+     * diagonal tile, then the tiles in its row and column, then every other
+     * tile; the tiles within the last two steps are independent and run in
+     * parallel.
+     */
+    private static void floydWarshall(GraphSnapshot graph, int[] d) {
+        int n = graph.size();
+        int infinity = Integer.MAX_VALUE / 2;
+        Arrays.fill(d, infinity);
+        for (int v = 0; v < n; v++) {
+            d[v * n + v] = 0;
+            for (int arc = graph.firstArc(v); arc < graph.endArc(v); arc++) {
+                int i = v * n + graph.arcTarget(arc);
+                d[i] = Math.min(d[i], graph.arcWeight(arc));
+            }
+        }
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (int k = 0; k < blocks; k++) {
+            final int kb = k;
+            relaxTile(d, n, kb, kb, kb);
+            pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(b -> {
+                if (b == kb) return;
+                relaxTile(d, n, kb, b, kb);
+                relaxTile(d, n, b, kb, kb);
+            })).join();
+            pool.submit(() -> IntStream.range(0, blocks * blocks).parallel().forEach(t -> {
+                int ib = t / blocks;
+                int jb = t % blocks;
+                if (ib != kb && jb != kb) relaxTile(d, n, ib, jb, kb);
+            })).join();
+        }
+        for (int i = 0; i < d.length; i++) if (d[i] >= infinity) d[i] = Integer.MAX_VALUE;
+    }
+
+    private static void relaxTile(int[] d, int n, int ib, int jb, int kb) {
+        int iEnd = Math.min(n, (ib + 1) * BLOCK);
+        int jEnd = Math.min(n, (jb + 1) * BLOCK);
+        int kEnd = Math.min(n, (kb + 1) * BLOCK);
+        for (int k = kb * BLOCK; k < kEnd; k++) {
+            int kRow = k * n;
+            for (int i = ib * BLOCK; i < iEnd; i++) {
+                int iRow = i * n;
+                int ik = d[iRow + k];
+                for (int j = jb * BLOCK; j < jEnd; j++) {
+                    int through = ik + d[kRow + j];
+                    if (through < d[iRow + j]) d[iRow + j] = through;
+                }
+            }
+        }
+    }
+}
@@ -1,504 +1,1039 @@
-/**
-* The purpose of Graph is to serve as
-* the main data structure to be used
-* in TownGraphManager, being able to
-* store vertices and edges, and even
-* find the shortest path between
-* vertices.
-*
-* @author Joshua Gizaw
-*/
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Stack;
-import java.util.Iterator;
-import java.util.PriorityQueue;
-import java.util.Queue;
-
-public class Graph implements GraphInterface<Town, Road>{
-private HashSet<Town> vertices;
-private HashSet<Road> edges;
-private ArrayList<String> shortestPath;
-
-public Graph(){
-vertices = new HashSet<Town>();
-edges = new HashSet<Road>();
-}
-
-/**
-* Returns an edge connecting source vertex to target vertex if such
-* vertices and such edge exist in this graph. Otherwise returns
-* null. 
-* If any of the specified vertices is null
-* returns null
-*
-*
-* @param sourceVertex source vertex of the edge.
-* @param destinationVertex target vertex of the edge.
-*
-* @return an edge connecting source vertex to target vertex.
-*/
-@Override
-public Road getEdge(Town sourceVertex, Town destinationVertex) {
-if(sourceVertex == null || destinationVertex == null) return null;
-
-else{
-Iterator<Road> iterator = edges.iterator();
-Road current;
-while(iterator.hasNext()) {
-current = iterator.next();
-if(current.contains(sourceVertex) && current.contains(destinationVertex))
-return current;
-}
-}
-return null;
-}
-
-/**
-* Creates a new edge in this graph, going from the source vertex to the
-* target vertex, and returns the created edge.
-*
-* The source and target vertices must already be contained in this
-* graph. If they are not found in graph IllegalArgumentException is
-* thrown.
-*
-*
-* @param sourceVertex source vertex of the edge.
-* @param destinationVertex target vertex of the edge.
-* @param weight weight of the edge
-* @param description description for edge
-*
-* @return The newly created edge if added to the graph, otherwise null.
-*
-* @throws IllegalArgumentException if source or target vertices are not
-* found in the graph.
-* @throws NullPointerException if any of the specified vertices is null.
-*/
-@Override
-public Road addEdge(Town sourceVertex, Town destinationVertex, int weight, String description)
-throws IllegalArgumentException, NullPointerException{
-
-
-if(sourceVertex == null || destinationVertex == null)
-throw new NullPointerException("Cannot add an edge that uses a null");
-
-if(!containsVertex(sourceVertex) || !containsVertex(destinationVertex))
-throw new IllegalArgumentException("One or both vertices is not contained in the graph");
-
-
-Road newRoad = new Road(sourceVertex, destinationVertex, weight, description);
-boolean result = edges.add(newRoad);
-
-sourceVertex.addNeighbor(destinationVertex);
-destinationVertex.addNeighbor(sourceVertex);
-if(!result) return null;
-return newRoad;
-}
-
-/**
-* Adds the specified vertex to this graph if not already present.
-*
-* @param v vertex to be added to this graph.
-*
-* @return true if this graph did not already contain the specified
-* vertex.
-*
-* @throws NullPointerException if the specified vertex is null.
-*/
-@Override
-public boolean addVertex(Town v) throws NullPointerException{
-
-if(v == null) throw new NullPointerException("Cannot add a null");
-else {
-if(vertices.contains(v)) return false;
-else {
-vertices.add(v);
-
-
-return true;
-}
-}
-}
-
-/**
-* Returns true if and only if this graph contains an edge going
-* from the source vertex to the target vertex.
-*
-* @param sourceVertex source vertex of the edge.
-* @param destinationVertex target vertex of the edge.
-*
-* @return true if this graph contains the specified edge.
-*/
-@Override
-public boolean containsEdge(Town sourceVertex, Town destinationVertex) {
-
-
-Road test = new Road(sourceVertex, destinationVertex, "for searching purposes");
-if(edges.contains(test)) return true;
-return false;
-}
-
-/**
-* Returns true if this graph contains the specified vertex. More
-* formally, returns true if and only if this graph contains a
-* vertex u such that u.equals(v). If the
-* specified vertex is null returns false.
-*
-* @param v vertex whose presence in this graph is to be tested.
-*
-* @return true if this graph contains the specified vertex.
-*/
-@Override
-public boolean containsVertex(Town v) {
-
-//Iterates through the vertex set to find the desired town
-Iterator<Town> iterator = vertices.iterator();
-Town current;
-while(iterator.hasNext()) {
-current = iterator.next();
-if(current.equals(v)) return true;
-}
-return false;
-}
-
-/**
-* Returns a set of the edges contained in this graph. The set is backed by
-* the graph, so changes to the graph are reflected in the set. 
-*
-*
-* @return a set of the edges contained in this graph.
-*/
-@Override
-public Set<Road> edgeSet() {
-return edges;
-}
-
-/**
-* Returns a set of all edges touching the specified vertex (also
-* referred to as adjacent vertices). If no edges are
-* touching the specified vertex returns an empty set.
-*
-* @param vertex the vertex for which a set of touching edges is to be
-* returned.
-*
-* @return a set of all edges touching the specified vertex.
-*
-* @throws IllegalArgumentException if vertex is not found in the graph.
-* @throws NullPointerException if vertex is null.
-*/
-@Override
-public Set<Road> edgesOf(Town vertex) throws NullPointerException, IllegalArgumentException{
-
-
-if(vertex == null) throw new NullPointerException("Cannot find a vertex that contains a null");
-if(!containsVertex(vertex)) throw new IllegalArgumentException("Vertex does not exist in the graph");
-
-
-HashSet<Road> result = new HashSet<Road>();
-Iterator<Road> iterator = edges.iterator();
-Road current;
-
-while(iterator.hasNext()) {
-current = iterator.next();
-if(current.contains(vertex)) result.add(current);
-}
-return result;
-}
-
-/**
-* Removes an edge going from source vertex to target vertex, if such
-* vertices and such edge exist in this graph.
-*
-* Returns the edge if removed
-* or null otherwise.
-*
-* @param sourceVertex source vertex of the edge.
-* @param destinationVertex target vertex of the edge.
-* @param weight weight of the edge
-* @param description description of the edge
-*
-* @return The removed edge, or null if no edge removed.
-*/
-@Override
-public Road removeEdge(Town sourceVertex, Town destinationVertex, int weight, String description) {
-Road removedRoad = new Road(sourceVertex, destinationVertex, weight, description);
-Iterator<Road> iterator = edges.iterator();
-Road current;
-
-
-while(iterator.hasNext()) {
-current = iterator.next();
-
-if(current.equals(removedRoad)) {
-
-if((weight > -1 && weight == current.getWeight()) || weight == -1) {
-
-if((description != null && description.equals(current.getName())) || description == null) {
-
-edges.remove(current);
-
-sourceVertex.removeNeighbor(destinationVertex);
-destinationVertex.removeNeighbor(sourceVertex);
-return current;
-}
-}
-}
-}
-return null;
-}
-
-/**
-* @param v vertex to be removed from this graph, if present.
-*
-* @return true if the graph contained the specified vertex;
-* false otherwise.
-*/
-@Override
-public boolean removeVertex(Town v) {
-HashSet<Road> edgesToBeRemoved = new HashSet<Road>();
-if(!vertices.contains(v)) return false;
-else {
-vertices.remove(v);
-Iterator<Road> iterator = edges.iterator();
-Road current;
-
-while(iterator.hasNext()) {
-current = iterator.next();
-if(current.contains(v)) edgesToBeRemoved.add(current);
-}
-for(Road r: edgesToBeRemoved) edges.remove(r);
-return true;
-}
-}
-
-/**
-* Returns a set of the vertices contained in this graph.
-*
-*
-* @return a set view of the vertices contained in this graph.
-*/
-@Override
-public Set<Town> vertexSet() {
-return vertices;
-}
-
-/**
-* Find the shortest path from the sourceVertex to the destinationVertex
-* call the dijkstraShortestPath with the sourceVertex
-* @param sourceVertex starting vertex
-* @param destinationVertex ending vertex
-* @return An arraylist of Strings that describe the path from sourceVertex
-* to destinationVertex
-*/
-@Override
-public ArrayList<String> shortestPath(Town sourceVertex, Town destinationVertex) {
-dijkstraShortestPath(sourceVertex);
-ArrayList<String> result = new ArrayList<String>();
-
-//Find the path from the source to the destination
-Stack<String> path = new Stack<String>();
-String currentNode = "";
-boolean pathExists = false;
-
-for(int i = 0; i < shortestPath.size(); i++) {
-if(shortestPath.get(i).contains("to " + destinationVertex.getName())) {
-path.push(shortestPath.get(i));
-currentNode = shortestPath.get(i).substring(0, shortestPath.get(i).indexOf(" via"));
-pathExists = true;
-break;
-}
-}
-if(!pathExists) return null;
-while(!currentNode.equals(sourceVertex.getName())) {
-for(int i = 0; i < shortestPath.size(); i++) {
-if(shortestPath.get(i).contains("to " + currentNode)) {
-path.push(shortestPath.get(i));
-currentNode = shortestPath.get(i).substring(0, shortestPath.get(i).indexOf(" via"));
-break;
-}
-}
-}
-
-while(!path.empty()) {
-result.add(path.pop());
-}
-
-return result;
-}
-
-/**
-* Dijkstra's Shortest Path Method. 
-* 
-* @param sourceVertex the vertex to find shortest path from
-*
-*/
-@Override
-public void dijkstraShortestPath(Town sourceVertex) {
-
-
-shortestPath = new ArrayList<String>();
-HashSet<Town> containedVertices = new HashSet<Town>();
-HashSet<Road> containedEdges = new HashSet<Road>();
-HashSet<Road> possibleEdges = new HashSet<Road>();
-HashSet<Road> currentEdges = new HashSet<Road>();
-HashSet<Town> toBeRemoved = new HashSet<Town>();
-Queue<Town> vertexQueue = new PriorityQueue<Town>();
-Town current;
-
-shortestPath.add(sourceVertex.getName() + " via NONE to " + sourceVertex.getName() + " 0 mi");
-containedVertices.add(sourceVertex);
-vertexQueue.add(sourceVertex);
-
-
-currentEdges = (HashSet<Road>) edgesOf(sourceVertex);
-for(Road r: currentEdges) {
-Town destination;
-if(r.getSource().equals(sourceVertex)) destination = r.getDestination();
-else destination = r.getSource();
-shortestPath.add(sourceVertex.getName() + " via " + r.getName() +
-" to " + destination.getName() + " " + r.getWeight() + " mi");
-}
-
-while((containedVertices.size() != vertices.size()) && vertexQueue.size() >= 0) {
-
-
-for(Town t: vertexQueue) {
-currentEdges = (HashSet<Road>) edgesOf(t);
-int minWeight = 999999999;
-Road minimum = null;
-
-
-for(Road r: currentEdges) {
-
-if((r.getWeight() < minWeight) && !containedEdges.contains(r)
-&& !(containedVertices.contains(r.getSource())
-&& containedVertices.contains(r.getDestination()))) {
-minimum = r;
-minWeight = r.getWeight();
-}
-}
-if(minimum != null) {
-if(minimum.getSource().equals(t)) possibleEdges.add(minimum);
-else possibleEdges.add(new Road(minimum.getDestination(), minimum.getSource(),
-minimum.getWeight(), minimum.getName()));
-}
-else toBeRemoved.add(t);
-}
-
-for(Town t: toBeRemoved) vertexQueue.remove(t);
-
-
-int min = 999999;
-Road minimum = null;
-
-for(Road r: possibleEdges) {
-if(r.getWeight() < min) {
-minimum = r;
-min = r.getWeight();
-}
-}
-
-if(minimum != null) {
-
-containedEdges.add(minimum);
-Town newNode = minimum.getDestination();
-containedVertices.add(newNode);
-vertexQueue.add(newNode);
-
-currentEdges = (HashSet<Road>) edgesOf(newNode);
-
-for(Road r: currentEdges) {
-
-String nextNodeName;
-if(r.getSource().equals(newNode))
-nextNodeName = r.getDestination().getName();
-else nextNodeName = r.getSource().getName();
-
-int notationIndex = -1;
-for(int i = 0; i < shortestPath.size(); i++) {
-if(shortestPath.get(i).contains("to " + nextNodeName)) {
-notationIndex = i;
-break;
-}
-}
-
-if(notationIndex == -1) {
-
-int newNodeWeight = -1;
-for(int i = 0; i < shortestPath.size(); i++) {
-if(shortestPath.get(i).contains("to " + newNode.getName())) {
-newNodeWeight = getTotalWeight(shortestPath.get(i), sourceVertex);
-break;
-}
-}
-
-shortestPath.add(newNode.getName() + " via " + r.getName() + " to " + nextNodeName + " "
-+ (r.getWeight()) + " mi");
-}
-else {
-
-int neighborWeight = getTotalWeight(shortestPath.get(notationIndex), sourceVertex);
-int newNodeWeight = -1;
-for(int i = 0; i < shortestPath.size(); i++) {
-if(shortestPath.get(i).contains("to " + newNode.getName())) {
-newNodeWeight = getTotalWeight(shortestPath.get(i), sourceVertex);
-break;
-}
-}
-
-if(newNodeWeight + r.getWeight() < neighborWeight) {
-shortestPath.remove(notationIndex);
-shortestPath.add(newNode.getName() + " via " + r.getName() +
-" to " + nextNodeName + " " + (r.getWeight()) + " mi");
-}
-}
-}
-}
-else break;
-possibleEdges.clear();
-toBeRemoved.clear();
-}
-}
-
-/**
-* Returns the weight value contained in the notation String provided.
-*
-* @param str
-* @return the weight value contained in the notation String provided
-*/
-private int getInteger(String str) {
-for(int i = str.indexOf("mi") -2; i > -1; i--) {
-if(str.charAt(i) == ' ') return Integer.parseInt(str.substring(i + 1, str.indexOf("mi") - 1));
-}
-return -1;
-}
-
-/**
-* @param str - the notation of the last step before reaching the destination.
-* @param sourceVertex
-* @return the total cost of traversal for the shortest path from the source vertex
-* to the destination
-*/
-private int getTotalWeight(String str, Town sourceVertex) {
-String currentNode = str.substring(0, str.indexOf(" via"));
-Stack <String> path = new Stack<String>();
-int weight = 0;
-path.push(str);
-
-while(!currentNode.equals(sourceVertex.getName())) {
-for(int i = 0; i < shortestPath.size(); i++) {
-if(shortestPath.get(i).contains("to " + currentNode)) {
-path.push(shortestPath.get(i));
-currentNode = shortestPath.get(i).substring(0, shortestPath.get(i).indexOf(" via"));
-break;
-}
-}
-}
-while(!path.empty())
-weight += getInteger(path.pop());
-return weight;
-}
-
+/**
+* The purpose of Graph is to serve as
+* the main data structure to be used
+* in TownGraphManager, being able to
+* store vertices and edges, and even
+* find the shortest path between
+* vertices.
+*
+* @author Joshua Gizaw
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class Graph implements GraphInterface<Town, Road>{
+//Each town maps to the set of roads touching it. The maps are TrieMaps so a
+//copy shares them with this graph and only copies the parts either one changes
+private TrieMap<Town, HashSet<Road>> adjacency;
+//Roads are equal when they join the same pair of towns, so this doubles as a town-pair index
+private TrieMap<Road, Road> edges;
+//The stored instance of each town, by name
+private TrieMap<String, Town> townsByName;
+//Bumped on every change, or once per batch, so a stale snapshot can be detected
+private long version;
+private GraphSnapshot snapshot;
+//Each thread searches with its own router so concurrent readers never share buffers
+private final ThreadLocal<SnapshotRouter> routers = new ThreadLocal<SnapshotRouter>();
+private volatile ShortestPathTree lastTree;
+private SearchMode searchMode = SearchMode.BIDIRECTIONAL;
+//Set from a background thread when landmarks are rebuilt, hence volatile
+private volatile LandmarkIndex landmarks;
+private volatile ContractionHierarchy hierarchy;
+private boolean validateHierarchy;
+private ShortestPathTreeCache treeCache;
+//Built on the first connectivity query and kept up to date as towns and
+//roads are added; dropped when any are removed, since that can split a component
+private volatile ConnectedComponents components;
+//Nesting depth of beginBatch calls; while above zero, changes set batchChanged
+//instead of bumping the version
+private int batchDepth;
+private boolean batchChanged;
+//Null until the graph is copied. After that, only the adjacency sets and towns
+//in here may be changed in place; the rest are shared with the copy and are
+//cloned before their first change
+private Set<Object> owned;
+
+public Graph(){
+adjacency = new TrieMap<Town, HashSet<Road>>();
+edges = new TrieMap<Road, Road>();
+townsByName = new TrieMap<String, Town>();
+}
+
+/**
+* Returns an edge connecting source vertex to target vertex if such
+* vertices and such edge exist in this graph. Otherwise returns
+* null. 
+* If any of the specified vertices is null
+* returns null
+*
+*
+* @param sourceVertex source vertex of the edge.
+* @param destinationVertex target vertex of the edge.
+*
+* @return an edge connecting source vertex to target vertex.
+*/
+@Override
+public Road getEdge(Town sourceVertex, Town destinationVertex) {
+if(sourceVertex == null || destinationVertex == null) return null;
+
+return edges.get(new Road(sourceVertex, destinationVertex, "for searching purposes"));
+}
+
+/**
+* Creates a new edge in this graph, going from the source vertex to the
+* target vertex, and returns the created edge. The edge and the neighbor
+* links are made on the towns stored in this graph, not the arguments.
+*
+* The source and target vertices must already be contained in this
+* graph. If they are not found in graph IllegalArgumentException is
+* thrown.
+*
+*
+* @param sourceVertex source vertex of the edge.
+* @param destinationVertex target vertex of the edge.
+* @param weight weight of the edge
+* @param description description for edge
+*
+* @return The newly created edge if added to the graph, otherwise null.
+*
+* @throws IllegalArgumentException if source or target vertices are not
+* found in the graph.
+* @throws NullPointerException if any of the specified vertices is null.
+*/
+@Override
+public Road addEdge(Town sourceVertex, Town destinationVertex, int weight, String description)
+throws IllegalArgumentException, NullPointerException{
+
+
+if(sourceVertex == null || destinationVertex == null)
+throw new NullPointerException("Cannot add an edge that uses a null");
+
+if(!containsVertex(sourceVertex) || !containsVertex(destinationVertex))
+throw new IllegalArgumentException("One or both vertices is not contained in the graph");
+
+Town source = writableTown(sourceVertex);
+Town destination = writableTown(destinationVertex);
+Road newRoad = new Road(source, destination, weight, description);
+boolean result = !edges.containsKey(newRoad);
+if(result) {
+edges.put(newRoad, newRoad);
+writableRoads(source).add(newRoad);
+writableRoads(destination).add(newRoad);
+if(components != null) components.union(source, destination);
+changed();
+}
+
+source.addNeighbor(destination);
+destination.addNeighbor(source);
+if(!result) return null;
+return newRoad;
+}
+
+/**
+* Adds the specified vertex to this graph if not already present.
+*
+* @param v vertex to be added to this graph.
+*
+* @return true if this graph did not already contain the specified
+* vertex.
+*
+* @throws NullPointerException if the specified vertex is null.
+*/
+@Override
+public boolean addVertex(Town v) throws NullPointerException{
+
+if(v == null) throw new NullPointerException("Cannot add a null");
+else {
+if(adjacency.containsKey(v)) return false;
+else {
+HashSet<Road> roads = new HashSet<Road>();
+adjacency.put(v, roads);
+townsByName.put(v.getName(), v);
+if(owned != null) {
+owned.add(roads);
+owned.add(v);
+}
+if(components != null) components.add(v);
+changed();
+
+
+return true;
+}
+}
+}
+
+/**
+* Returns true if and only if this graph contains an edge going
+* from the source vertex to the target vertex.
+*
+* @param sourceVertex source vertex of the edge.
+* @param destinationVertex target vertex of the edge.
+*
+* @return true if this graph contains the specified edge.
+*/
+@Override
+public boolean containsEdge(Town sourceVertex, Town destinationVertex) {
+
+
+Road test = new Road(sourceVertex, destinationVertex, "for searching purposes");
+if(edges.containsKey(test)) return true;
+return false;
+}
+
+/**
+* Returns true if this graph contains the specified vertex. More
+* formally, returns true if and only if this graph contains a
+* vertex u such that u.equals(v). If the
+* specified vertex is null returns false.
+*
+* @param v vertex whose presence in this graph is to be tested.
+*
+* @return true if this graph contains the specified vertex.
+*/
+@Override
+public boolean containsVertex(Town v) {
+if(v == null) return false;
+return adjacency.containsKey(v);
+}
+
+/**
+* Returns a set of the edges contained in this graph. The set is backed by
+* the graph, so changes to the graph are reflected in the set. 
+* The set is read-only; use addEdge and removeEdge to change it.
+*
+*
+* @return a set of the edges contained in this graph.
+*/
+@Override
+public Set<Road> edgeSet() {
+return Collections.unmodifiableSet(edges.keySet());
+}
+
+/**
+* Returns a set of all edges touching the specified vertex (also
+* referred to as adjacent vertices). If no edges are
+* touching the specified vertex returns an empty set.
+*
+* @param vertex the vertex for which a set of touching edges is to be
+* returned.
+*
+* @return a set of all edges touching the specified vertex.
+*
+* @throws IllegalArgumentException if vertex is not found in the graph.
+* @throws NullPointerException if vertex is null.
+*/
+@Override
+public Set<Road> edgesOf(Town vertex) throws NullPointerException, IllegalArgumentException{
+
+
+if(vertex == null) throw new NullPointerException("Cannot find a vertex that contains a null");
+if(!containsVertex(vertex)) throw new IllegalArgumentException("Vertex does not exist in the graph");
+
+return new HashSet<Road>(adjacency.get(vertex));
+}
+
+/**
+* Removes an edge going from source vertex to target vertex, if such
+* vertices and such edge exist in this graph.
+*
+* Returns the edge if removed
+* or null otherwise.
+*
+* @param sourceVertex source vertex of the edge.
+* @param destinationVertex target vertex of the edge.
+* @param weight weight of the edge
+* @param description description of the edge
+*
+* @return The removed edge, or null if no edge removed.
+*/
+@Override
+public Road removeEdge(Town sourceVertex, Town destinationVertex, int weight, String description) {
+if(sourceVertex == null || destinationVertex == null) return null;
+Road current = edges.get(new Road(sourceVertex, destinationVertex, weight, description));
+if(current == null) return null;
+
+if((weight > -1 && weight == current.getWeight()) || weight == -1) {
+
+if((description != null && description.equals(current.getName())) || description == null) {
+
+edges.remove(current);
+writableRoads(current.getSource()).remove(current);
+writableRoads(current.getDestination()).remove(current);
+components = null;
+changed();
+
+Town source = writableTown(current.getSource());
+Town destination = writableTown(current.getDestination());
+source.removeNeighbor(destination);
+destination.removeNeighbor(source);
+return current;
+}
+}
+return null;
+}
+
+/**
+* @param v vertex to be removed from this graph, if present.
+*
+* @return true if the graph contained the specified vertex;
+* false otherwise.
+*/
+@Override
+public boolean removeVertex(Town v) {
+if(v == null || !adjacency.containsKey(v)) return false;
+else {
+//Only the roads touching v need to be unlinked from the other end
+HashSet<Road> edgesToBeRemoved = adjacency.remove(v);
+townsByName.remove(v.getName());
+for(Road r: edgesToBeRemoved) {
+edges.remove(r);
+Town other = r.getSource().equals(v) ? r.getDestination() : r.getSource();
+if(!other.equals(v)) {
+writableRoads(other).remove(r);
+writableTown(other).removeNeighbor(v);
+}
+}
+components = null;
+changed();
+return true;
+}
+}
+
+/**
+* Changes the weight of the road between two towns, keeping its name. The
+* stored road is replaced rather than changed in place, since a copy of
+* this graph may share it. Outside a batch, the current snapshot is
+* patched instead of rebuilt, and the cached shortest path trees are
+* repaired for the new weight instead of dropped, so only towns whose
+* distance can change are searched again. Landmark tables and the
+* contraction hierarchy still go stale, as with any other change.
+*
+* @param sourceVertex source vertex of the edge.
+* @param destinationVertex target vertex of the edge.
+* @param weight the new weight
+*
+* @return the road with its new weight, or null if the towns are not joined.
+*
+* @throws IllegalArgumentException if weight is negative.
+*/
+public Road updateWeight(Town sourceVertex, Town destinationVertex, int weight) {
+if(weight < 0) throw new IllegalArgumentException("Road weight cannot be negative");
+Road current = getEdge(sourceVertex, destinationVertex);
+if(current == null || current.getWeight() == weight) return current;
+
+Town source = townsByName.get(current.getSource().getName());
+Town destination = townsByName.get(current.getDestination().getName());
+Road updated = new Road(source, destination, weight, current.getName());
+//Equal keys are not replaced by put or add, so the old road is removed first
+edges.remove(current);
+edges.put(updated, updated);
+writableRoads(source).remove(current);
+writableRoads(source).add(updated);
+writableRoads(destination).remove(current);
+writableRoads(destination).add(updated);
+long previous = version;
+changed();
+if(batchDepth == 0) patchSnapshot(previous, updated, current.getWeight());
+return updated;
+}
+
+/**
+* Moves the snapshot and cached trees from the previous version to the
+* current one after a road's weight changed, if they were up to date.
+*/
+private synchronized void patchSnapshot(long previous, Road updated, int oldWeight) {
+if(snapshot == null || snapshot.getVersion() != previous) return;
+GraphSnapshot before = snapshot;
+int road = before.roadBetween(before.idOf(updated.getSource()), before.idOf(updated.getDestination()));
+GraphSnapshot patched = before.withWeight(road, updated, version);
+snapshot = patched;
+if(treeCache != null) treeCache.repair(before, patched, tree -> tree.repair(patched, road, oldWeight));
+}
+
+/**
+* Returns an id for the connected component of a town: two towns have
+* the same id exactly when a path joins them. Ids stay the same while
+* towns and roads are only added, but may change when any are removed.
+*
+* @param v the town to look up
+*
+* @return the id of the town's component, or -1 if v is not in the graph
+*/
+public int componentOf(Town v) {
+return connectivity().find(v);
+}
+
+/**
+* Returns true if a path joins two towns, without searching. Towns and
+* roads added since the last query are merged in as they are added; after
+* a removal the components are worked out again on the next query.
+*
+* @param a a town
+* @param b another town
+*
+* @return true if both towns are in the graph and a path joins them
+*/
+public boolean isConnected(Town a, Town b) {
+ConnectedComponents built = connectivity();
+int component = built.find(a);
+return component != -1 && component == built.find(b);
+}
+
+/**
+* @return the number of connected components, counting each town without
+* roads as a component of its own
+*/
+public int componentCount() {
+return connectivity().count();
+}
+
+/**
+* Lists the towns of each connected component, for finding towns or
+* groups of towns that are cut off from the rest of the graph.
+*
+* @return the components, largest first
+*/
+public List<Set<Town>> components() {
+ConnectedComponents built = connectivity();
+HashMap<Integer, Set<Town>> byComponent = new HashMap<Integer, Set<Town>>();
+for(Town town: adjacency.keySet())
+byComponent.computeIfAbsent(built.find(town), k -> new HashSet<Town>(built.sizeOf(town) * 4 / 3 + 1)).add(town);
+ArrayList<Set<Town>> result = new ArrayList<Set<Town>>(byComponent.values());
+result.sort((x, y) -> y.size() - x.size());
+return result;
+}
+
+/**
+* Returns the union-find over the towns, building it if it was never
+* built or was dropped by a removal.
+*/
+private ConnectedComponents connectivity() {
+ConnectedComponents built = components;
+if(built == null) {
+synchronized(this) {
+built = components;
+if(built == null) {
+built = new ConnectedComponents(adjacency.keySet(), edges.keySet());
+components = built;
+}
+}
+}
+return built;
+}
+
+/**
+* Returns the town stored in this graph under the given name.
+*
+* @param name the name of the town
+*
+* @return the stored town, or null if no town has that name
+*/
+public Town getTown(String name) {
+return townsByName.get(name);
+}
+
+/**
+* Sets the location of a town in this graph, used by A* searches.
+*
+* @param v the town to locate
+* @param x the x coordinate (or longitude) of the town
+* @param y the y coordinate (or latitude) of the town
+*
+* @throws IllegalArgumentException if v is not found in the graph.
+* @throws NullPointerException if v is null.
+*/
+public void setCoordinates(Town v, double x, double y) {
+if(v == null) throw new NullPointerException("Cannot locate a null");
+Town stored = townsByName.get(v.getName());
+if(stored == null) throw new IllegalArgumentException("Vertex does not exist in the graph");
+writableTown(stored).setCoordinates(x, y);
+changed();
+}
+
+/**
+* Starts a batch of changes. Until the matching endBatch, changes do not
+* bump the version, so the snapshot, cached trees and preprocessing are
+* invalidated once for the whole batch rather than once per change.
+* Searches made during a batch may not see its changes. Batches may nest;
+* only the outermost endBatch bumps the version.
+*/
+public void beginBatch() {
+batchDepth++;
+}
+
+/**
+* Ends a batch started by beginBatch, bumping the version once if anything
+* changed during it.
+*
+* @throws IllegalStateException if no batch was started.
+*/
+public void endBatch() {
+if(batchDepth == 0) throw new IllegalStateException("No batch to end");
+batchDepth--;
+if(batchDepth == 0 && batchChanged) {
+batchChanged = false;
+version++;
+}
+}
+
+/**
+* Records a change, bumping the version unless a batch is open.
+*/
+private void changed() {
+if(batchDepth > 0) batchChanged = true;
+else version++;
+}
+
+/**
+* Returns the stored instance of a town for changing, first replacing it
+* with a private copy if it is shared with a copy of this graph. Roads made
+* before the graph was copied keep the earlier instance, which is equal by
+* name.
+* @param v a town in this graph
+* @return the stored instance of v, owned by this graph
+*/
+private Town writableTown(Town v) {
+Town stored = townsByName.get(v.getName());
+if(owned == null || owned.contains(stored)) return stored;
+Town copy = new Town(stored);
+adjacency.put(copy, adjacency.remove(stored));
+townsByName.put(copy.getName(), copy);
+owned.add(copy);
+return copy;
+}
+
+/**
+* Adds all the towns and roads of a parsed road file in one pass. Towns
+* are matched to the stored ones through the table's ids rather than by
+* name per road, each new town's road set is sized from its degree up
+* front, and the version is bumped once, if anything was added or moved.
+* As with addEdge, a road whose towns are already joined is skipped, and
+* towns the file locates take the last coordinates it gives.
+* @param table the parsed road file
+* @return the number of roads added
+*/
+public int addAll(RoadTable table) {
+int[] degree = new int[table.townCount()];
+for(int i = 0; i < table.roadCount(); i++) {
+degree[table.roadSource(i)]++;
+degree[table.roadDestination(i)]++;
+}
+
+Town[] towns = new Town[table.townCount()];
+boolean grew = false;
+for(int id = 0; id < towns.length; id++) {
+String name = table.townName(id);
+Town town = townsByName.get(name);
+if(town == null) {
+town = new Town(name);
+HashSet<Road> roads = new HashSet<Road>(degree[id] * 4 / 3 + 1);
+adjacency.put(town, roads);
+townsByName.put(name, town);
+if(owned != null) {
+owned.add(roads);
+owned.add(town);
+}
+if(components != null) components.add(town);
+grew = true;
+}
+else if(degree[id] > 0 || table.hasCoordinates(id)) town = writableTown(town);
+if(table.hasCoordinates(id) && (town.getX() != table.townX(id) || town.getY() != table.townY(id))) {
+town.setCoordinates(table.townX(id), table.townY(id));
+grew = true;
+}
+towns[id] = town;
+}
+
+int added = 0;
+for(int i = 0; i < table.roadCount(); i++) {
+Town source = towns[table.roadSource(i)];
+Town destination = towns[table.roadDestination(i)];
+Road road = new Road(source, destination, table.roadWeight(i), table.roadName(i));
+if(edges.putIfAbsent(road, road) == null) {
+writableRoads(source).add(road);
+writableRoads(destination).add(road);
+if(components != null) components.union(source, destination);
+added++;
+}
+source.addNeighbor(destination);
+destination.addNeighbor(source);
+}
+if(grew || added > 0) changed();
+return added;
+}
+
+/**
+* Returns the roads of a town for changing, first cloning the set if it is
+* shared with a copy of this graph.
+* @param v a town in this graph
+* @return the roads of v, owned by this graph
+*/
+private HashSet<Road> writableRoads(Town v) {
+HashSet<Road> roads = adjacency.get(v);
+if(owned == null || owned.contains(roads)) return roads;
+roads = new HashSet<Road>(roads);
+adjacency.put(v, roads);
+owned.add(roads);
+return roads;
+}
+
+/**
+* Returns a copy of this graph that can be changed without affecting this
+* one, and the other way around. The copy shares the maps, towns, roads and
+* per-town road sets of this graph, and each side clones a set or town the
+* first time it changes it, and the path of a map entry the first time it
+* changes that, so the copy costs O(1) and each change afterward costs
+* about as much as it would without the copy. The snapshot and
+* preprocessing carry over until the copy is first changed, and the tree
+* cache is shared: its trees are tied to the snapshot they were computed
+* over, so each side only ever gets its own, and a new road weight on
+* either side repairs them rather than dropping them.
+* @return a copy of this graph at the same version
+*/
+public synchronized Graph copy() {
+Graph next = new Graph();
+next.adjacency = adjacency.copy();
+next.edges = edges.copy();
+next.townsByName = townsByName.copy();
+next.version = version;
+next.snapshot = snapshot;
+next.searchMode = searchMode;
+next.landmarks = landmarks;
+next.hierarchy = hierarchy;
+next.validateHierarchy = validateHierarchy;
+ConnectedComponents built = components;
+if(built != null) next.components = built.copy();
+next.treeCache = treeCache;
+next.owned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+owned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+return next;
+}
+
+/**
+* Returns a set of the vertices contained in this graph.
+* The set is a read-only view backed by the graph.
+*
+*
+* @return a set view of the vertices contained in this graph.
+*/
+@Override
+public Set<Town> vertexSet() {
+return Collections.unmodifiableSet(adjacency.keySet());
+}
+
+/**
+* Find the shortest path from the sourceVertex to the destinationVertex
+* call the dijkstraShortestPath with the sourceVertex
+* @param sourceVertex starting vertex
+* @param destinationVertex ending vertex
+* @return An arraylist of Strings that describe the path from sourceVertex
+* to destinationVertex, or null if there is no such path
+*/
+@Override
+public ArrayList<String> shortestPath(Town sourceVertex, Town destinationVertex) {
+PathResult path = findPath(sourceVertex, destinationVertex);
+if(path == null) return null;
+return path.toStringList();
+}
+
+/**
+* Find the shortest path from the sourceVertex to the destinationVertex
+* as a PathResult holding the towns and roads in travel order.
+* The search runs over the current snapshot using the default search mode.
+* @param sourceVertex starting vertex
+* @param destinationVertex ending vertex
+* @return the shortest path, or null if destinationVertex cannot be reached
+*
+* @throws IllegalArgumentException if sourceVertex is not found in the graph.
+* @throws NullPointerException if sourceVertex is null.
+*/
+public PathResult findPath(Town sourceVertex, Town destinationVertex) {
+return findPath(sourceVertex, destinationVertex, searchMode);
+}
+
+/**
+* Find the shortest path from the sourceVertex to the destinationVertex
+* with the given search algorithm.
+* @param sourceVertex starting vertex
+* @param destinationVertex ending vertex
+* @param mode the search algorithm to use
+* @return the shortest path, or null if destinationVertex cannot be reached
+*
+* @throws IllegalArgumentException if sourceVertex is not found in the graph.
+* @throws NullPointerException if sourceVertex or mode is null.
+*/
+public PathResult findPath(Town sourceVertex, Town destinationVertex, SearchMode mode) {
+if(mode == null) throw new NullPointerException("Search mode cannot be null");
+if(sourceVertex == null) throw new NullPointerException("Cannot search from a null");
+if(!containsVertex(sourceVertex)) throw new IllegalArgumentException("Vertex does not exist in the graph");
+//Towns in different components are answered without building a snapshot or searching
+if(!isConnected(sourceVertex, destinationVertex)) return null;
+GraphSnapshot frozen = snapshot();
+int source = frozen.idOf(sourceVertex);
+int target = frozen.idOf(destinationVertex);
+if(treeCache != null) return cachedTree(frozen, source).pathTo(target);
+SnapshotRouter router = router(frozen);
+router.setLandmarks(landmarks);
+router.setHierarchy(hierarchy);
+router.setValidating(validateHierarchy);
+return router.shortestPath(source, target, mode);
+}
+
+/**
+* Finds the shortest paths for a batch of (source, destination) pairs.
+* Pairs are grouped by source so each distinct source is searched once,
+* stopping when all of its destinations are settled, and the groups are
+* spread over all cores.
+* @param queries the (source, destination) pairs
+* @return the path for each pair in input order, null where there is no
+* path or a town is not in the graph
+*/
+public List<PathResult> findPaths(List<? extends Map.Entry<Town, Town>> queries) {
+GraphSnapshot frozen = snapshot();
+int count = queries.size();
+int[] sources = new int[count];
+int[] targets = new int[count];
+HashMap<Integer, ArrayList<Integer>> bySource = new HashMap<Integer, ArrayList<Integer>>();
+for(int i = 0; i < count; i++) {
+sources[i] = frozen.idOf(queries.get(i).getKey());
+targets[i] = frozen.idOf(queries.get(i).getValue());
+if(sources[i] != -1 && targets[i] != -1 && isConnected(queries.get(i).getKey(), queries.get(i).getValue()))
+bySource.computeIfAbsent(sources[i], k -> new ArrayList<Integer>()).add(i);
+}
+
+PathResult[] results = new PathResult[count];
+ShortestPathTreeCache cache = treeCache;
+//Each group writes only its own slots of results, so no locking is needed
+new ArrayList<ArrayList<Integer>>(bySource.values()).parallelStream().forEach(group -> {
+int source = sources[group.get(0)];
+ShortestPathTree tree = cache == null ? null : cache.get(source, frozen);
+if(tree != null) {
+for(int i: group) results[i] = tree.pathTo(targets[i]);
+return;
+}
+int[] wanted = new int[group.size()];
+for(int j = 0; j < wanted.length; j++) wanted[j] = targets[group.get(j)];
+PathResult[] paths = router(frozen).shortestPaths(source, wanted);
+for(int j = 0; j < wanted.length; j++) results[group.get(j)] = paths[j];
+});
+return Arrays.asList(results);
+}
+
+/**
+* Dijkstra's Shortest Path Method. 
+* Computes the full shortest path tree of sourceVertex over the current
+* snapshot; the tree can be read back with getLastShortestPathTree.
+* 
+* @param sourceVertex the vertex to find shortest path from
+*
+* @throws IllegalArgumentException if sourceVertex is not found in the graph.
+* @throws NullPointerException if sourceVertex is null.
+*/
+@Override
+public void dijkstraShortestPath(Town sourceVertex) {
+lastTree = shortestPathTree(sourceVertex);
+}
+
+/**
+* @return the tree computed by the last dijkstraShortestPath call, or null
+*/
+public ShortestPathTree getLastShortestPathTree() {
+return lastTree;
+}
+
+/**
+* Computes the distance from sourceVertex to every town in the graph.
+* @param sourceVertex the vertex to find shortest paths from
+* @return the shortest path tree of sourceVertex
+*
+* @throws IllegalArgumentException if sourceVertex is not found in the graph.
+* @throws NullPointerException if sourceVertex is null.
+*/
+public ShortestPathTree shortestPathTree(Town sourceVertex) {
+if(sourceVertex == null) throw new NullPointerException("Cannot search from a null");
+GraphSnapshot frozen = snapshot();
+int source = frozen.idOf(sourceVertex);
+if(source == -1) throw new IllegalArgumentException("Vertex does not exist in the graph");
+if(treeCache != null) return cachedTree(frozen, source);
+return router(frozen).shortestPathTree(source);
+}
+
+/**
+* Lists the towns within a road distance of sourceVertex, closest first,
+* starting with sourceVertex itself at distance 0. The stream is lazy: the
+* search behind it settles one more town for each element taken, and never
+* goes past maxWeight, so its cost depends on the size of the neighborhood
+* rather than the size of the graph. It runs over the current snapshot, so
+* later changes to the graph do not affect it.
+* @param sourceVertex the town to measure from
+* @param maxWeight the largest distance to include
+* @return the towns and their distances, in distance order
+*
+* @throws IllegalArgumentException if sourceVertex is not found in the graph.
+* @throws NullPointerException if sourceVertex is null.
+*/
+public Stream<TownDistance> townsWithin(Town sourceVertex, int maxWeight) {
+if(sourceVertex == null) throw new NullPointerException("Cannot search from a null");
+GraphSnapshot frozen = snapshot();
+int source = frozen.idOf(sourceVertex);
+if(source == -1) throw new IllegalArgumentException("Vertex does not exist in the graph");
+RangeSearch search = new RangeSearch(frozen, source, maxWeight);
+return StreamSupport.stream(Spliterators.spliteratorUnknownSize(search,
+Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+}
+
+/**
+* Finds the k towns closest to sourceVertex that pass a test, such as
+* towns with a depot. The search stops as soon as the kth matching town is
+* settled, and reuses the calling thread's search buffers, so repeated
+* calls allocate only their results. sourceVertex itself counts if it
+* passes the test.
+* @param sourceVertex the town to measure from
+* @param k the largest number of towns to return
+* @param predicate the test a town must pass to be counted
+* @return the matching towns and their distances, closest first; fewer
+* than k if not enough matching towns can be reached
+*
+* @throws IllegalArgumentException if sourceVertex is not found in the graph.
+* @throws NullPointerException if sourceVertex or predicate is null.
+*/
+public List<TownDistance> nearestTowns(Town sourceVertex, int k, Predicate<Town> predicate) {
+if(sourceVertex == null) throw new NullPointerException("Cannot search from a null");
+if(predicate == null) throw new NullPointerException("Predicate cannot be null");
+GraphSnapshot frozen = snapshot();
+int source = frozen.idOf(sourceVertex);
+if(source == -1) throw new IllegalArgumentException("Vertex does not exist in the graph");
+return router(frozen).nearest(source, k, predicate);
+}
+
+/**
+* Finds up to k loopless paths from sourceVertex to destinationVertex,
+* shortest first, as alternatives to the one findPath returns. The search
+* starts from the shortest path tree of destinationVertex, which comes from
+* the tree cache when it is enabled, and reuses it to bound every later
+* search.
+* @param sourceVertex starting vertex
+* @param destinationVertex ending vertex
+* @param k the largest number of paths to return
+* @return the paths in order of total weight, empty if destinationVertex
+* cannot be reached
+*
+* @throws IllegalArgumentException if sourceVertex is not found in the graph.
+* @throws NullPointerException if sourceVertex is null.
+*/
+public List<PathResult> kShortestPaths(Town sourceVertex, Town destinationVertex, int k) {
+if(sourceVertex == null) throw new NullPointerException("Cannot search from a null");
+if(!containsVertex(sourceVertex)) throw new IllegalArgumentException("Vertex does not exist in the graph");
+if(k <= 0 || !isConnected(sourceVertex, destinationVertex)) return new ArrayList<PathResult>();
+//The tree of the destination gives every town's distance to it
+ShortestPathTree toTarget = shortestPathTree(destinationVertex);
+GraphSnapshot frozen = toTarget.getGraph();
+return new KShortestPaths(frozen, toTarget, frozen.idOf(sourceVertex)).find(k, true);
+}
+
+/**
+* Returns the tree of a source from the cache, computing and storing it
+* on a miss.
+* @param frozen the snapshot the source id belongs to
+* @param source the dense id of the source in the snapshot
+* @return the shortest path tree of the source
+*/
+private ShortestPathTree cachedTree(GraphSnapshot frozen, int source) {
+ShortestPathTree tree = treeCache.get(source, frozen);
+if(tree == null) {
+tree = router(frozen).shortestPathTree(source);
+treeCache.put(tree);
+}
+return tree;
+}
+
+/**
+* Turns on caching of whole shortest path trees by source town. While the
+* cache is on, findPath answers every query by walking the source's tree,
+* so repeated queries from the same towns skip the search entirely.
+* Changing a road's weight with updateWeight repairs the cached trees;
+* any other change to the graph empties the cache.
+* @param capacity the largest number of trees to keep, or 0 to turn caching off
+*/
+public void setTreeCacheCapacity(int capacity) {
+treeCache = capacity > 0 ? new ShortestPathTreeCache(capacity) : null;
+}
+
+/**
+* @return the shortest path tree cache, or null if caching is off
+*/
+public ShortestPathTreeCache getTreeCache() {
+return treeCache;
+}
+
+/**
+* Computes the road distance between every pair of towns, choosing
+* Floyd-Warshall for dense graphs and parallel Dijkstra otherwise. Row and
+* column i belong to the town with id i in the current snapshot.
+* @return the all-pairs distance matrix
+*/
+public DistanceMatrix allPairsDistances() {
+try {
+return allPairsDistances(DistanceMatrix.Method.AUTO, null);
+}
+catch(IOException e) {
+//Only writing to a file can fail
+throw new IllegalStateException(e);
+}
+}
+
+/**
+* Computes the road distance between every pair of towns.
+* @param method how to compute the matrix
+* @param file a file to compute the matrix into through a memory map, or
+* null to keep it on the heap
+* @return the all-pairs distance matrix
+* @throws IOException if the file cannot be written
+*/
+public DistanceMatrix allPairsDistances(DistanceMatrix.Method method, File file) throws IOException {
+return DistanceMatrix.compute(snapshot(), method, file);
+}
+
+/**
+* Returns a frozen compressed sparse row copy of this graph for fast
+* read-only searches. The snapshot is built on first use and reused until
+* the graph changes.
+* @return a snapshot of the current state of the graph
+*/
+public synchronized GraphSnapshot snapshot() {
+if(snapshot == null || snapshot.getVersion() != version) {
+snapshot = new GraphSnapshot(adjacency.keySet(), edges.keySet(), version);
+}
+return snapshot;
+}
+
+/**
+* Returns the calling thread's router over the given snapshot, replacing
+* it when the snapshot has moved on.
+* @param frozen the snapshot to search
+* @return a router owned by the calling thread
+*/
+private SnapshotRouter router(GraphSnapshot frozen) {
+SnapshotRouter router = routers.get();
+if(router == null || router.getGraph() != frozen) {
+router = new SnapshotRouter(frozen);
+routers.set(router);
+}
+return router;
+}
+
+/**
+* @return the number of towns settled by the calling thread's last search,
+* for comparing search modes
+*/
+public int getLastSettledCount() {
+SnapshotRouter router = routers.get();
+return router == null ? 0 : router.lastSettledCount();
+}
+
+/**
+* @return the search mode used by findPath and shortestPath
+*/
+public SearchMode getSearchMode() {
+return searchMode;
+}
+
+/**
+* Sets the search mode used by findPath and shortestPath.
+* @param mode the new default search mode
+* @throws NullPointerException if mode is null.
+*/
+public void setSearchMode(SearchMode mode) {
+if(mode == null) throw new NullPointerException("Search mode cannot be null");
+searchMode = mode;
+}
+
+/**
+* Picks landmark towns and computes their distance tables for ALT
+* searches over the current graph.
+* @param count the number of landmarks to pick
+* @return the new landmark tables, which are also installed on this graph
+*/
+public LandmarkIndex buildLandmarks(int count) {
+LandmarkIndex built = LandmarkIndex.build(snapshot(), count);
+installLandmarks(built);
+return built;
+}
+
+/**
+* Installs landmark tables built elsewhere, such as on a background thread.
+* Tables for an older version of the graph are still kept, but ALT searches
+* ignore them until tables for the current version are installed.
+* @param index the landmark tables, or null to drop them
+*/
+public void installLandmarks(LandmarkIndex index) {
+landmarks = index;
+}
+
+/**
+* @return the installed landmark tables, or null if there are none
+*/
+public LandmarkIndex getLandmarks() {
+return landmarks;
+}
+
+/**
+* @return true if landmark tables are installed for the current graph
+*/
+public boolean hasCurrentLandmarks() {
+LandmarkIndex index = landmarks;
+return index != null && index.getVersion() == version;
+}
+
+/**
+* Builds a contraction hierarchy for the current graph, used by
+* CONTRACTION_HIERARCHY searches.
+* @param parallel true to compute the initial town ordering on all cores
+* @return the new hierarchy, which is also installed on this graph
+*/
+public ContractionHierarchy buildHierarchy(boolean parallel) {
+ContractionHierarchy built = ContractionHierarchy.build(snapshot(), parallel);
+installHierarchy(built);
+return built;
+}
+
+/**
+* Installs a contraction hierarchy built elsewhere. A hierarchy for an
+* older version of the graph is ignored by searches.
+* @param built the hierarchy, or null to drop it
+*/
+public void installHierarchy(ContractionHierarchy built) {
+hierarchy = built;
+}
+
+/**
+* @return true if a contraction hierarchy is installed for the current graph
+*/
+public boolean hasCurrentHierarchy() {
+ContractionHierarchy built = hierarchy;
+return built != null && built.getVersion() == version;
+}
+
+/**
+* Turns validation mode on or off. In validation mode every contraction
+* hierarchy answer is cross-checked against plain Dijkstra, and an
+* IllegalStateException is thrown if they disagree.
+* @param validate true to cross-check hierarchy answers
+*/
+public void setValidateHierarchy(boolean validate) {
+validateHierarchy = validate;
+}
+
+/**
+* @return a number that changes every time a town or road is added or removed
+*/
+public long getVersion() {
+return version;
+}
+
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The purpose of GraphBatch is to collect town and road edits so that
+ * TownGraphManager.apply can make them all at once. The edits are applied
+ * in the order they were added, under one write lock and with one version
+ * bump, so queries see all of them or none, and the snapshot, cached trees
+ * and preprocessing of the graph are invalidated once for the whole batch.
+ *
+ * @author Joshua Gizaw
+ */
+public class GraphBatch {
+
+    /**
+     * The kinds of edit a batch can hold.
+     */
+    public enum Op {
+        ADD_TOWN, LOCATE_TOWN, DELETE_TOWN, ADD_ROAD, DELETE_ROAD, SET_WEIGHT
+    }
+
+    private final List<Edit> edits = new ArrayList<>();
+
+    /**
+     * Adds a town, if the graph does not have it yet.
+     * @param name the town's name
+     * @return this batch
+     */
+    public GraphBatch addTown(String name) {
+        return add(new Edit(Op.ADD_TOWN, requireName(name), null, null, -1, Double.NaN, Double.NaN));
+    }
+
+    /**
+     * Adds a town with a location, or moves the town if the graph has it.
+     * @param name the town's name
+     * @param x the x coordinate (or longitude) of the town
+     * @param y the y coordinate (or latitude) of the town
+     * @return this batch
+     */
+    public GraphBatch addTown(String name, double x, double y) {
+        return add(new Edit(Op.LOCATE_TOWN, requireName(name), null, null, -1, x, y));
+    }
+
+    /**
+     * Deletes a town and its roads.
+     * @param name the town's name
+     * @return this batch
+     */
+    public GraphBatch deleteTown(String name) {
+        return add(new Edit(Op.DELETE_TOWN, requireName(name), null, null, -1, Double.NaN, Double.NaN));
+    }
+
+    /**
+     * Adds a road, adding its towns if needed. Nothing changes if the towns
+     * are already joined.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param weight weight of the road
+     * @param roadName name of road
+     * @return this batch
+     */
+    public GraphBatch addRoad(String town1, String town2, int weight, String roadName) {
+        return add(new Edit(Op.ADD_ROAD, requireName(town1), requireName(town2), roadName, requireWeight(weight),
+                Double.NaN, Double.NaN));
+    }
+
+    /**
+     * Deletes the road of the given name between two towns.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param roadName name of road
+     * @return this batch
+     */
+    public GraphBatch deleteRoad(String town1, String town2, String roadName) {
+        return add(new Edit(Op.DELETE_ROAD, requireName(town1), requireName(town2), roadName, -1,
+                Double.NaN, Double.NaN));
+    }
+
+    /**
+     * Gives the road of the given name between two towns a new weight.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param roadName name of road
+     * @param weight the new weight
+     * @return this batch
+     */
+    public GraphBatch setWeight(String town1, String town2, String roadName, int weight) {
+        return add(new Edit(Op.SET_WEIGHT, requireName(town1), requireName(town2), roadName, requireWeight(weight),
+                Double.NaN, Double.NaN));
+    }
+
+    /**
+     * @return the number of edits in the batch
+     */
+    public int size() {
+        return edits.size();
+    }
+
+    /**
+     * @return the edits in the order they were added
+     */
+    List<Edit> edits() {
+        return Collections.unmodifiableList(edits);
+    }
+
+    private GraphBatch add(Edit edit) {
+        edits.add(edit);
+        return this;
+    }
+
+    private static String requireName(String name) {
+        if (name == null) throw new NullPointerException("Town name cannot be null");
+        return name;
+    }
+
+    private static int requireWeight(int weight) {
+        if (weight < 0) throw new IllegalArgumentException("Road weight cannot be negative");
+        return weight;
+    }
+
+    /**
+     * One edit of a batch. Fields an op does not use are null, -1 or NaN.
+     */
+    static class Edit {
+        final Op op;
+        final String town;
+        final String other;
+        final String road;
+        final int weight;
+        final double x;
+        final double y;
+
+        Edit(Op op, String town, String other, String road, int weight, double x, double y) {
+            this.op = op;
+            this.town = town;
+            this.other = other;
+            this.road = road;
+            this.weight = weight;
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * The purpose of GraphFile is to save a graph in a compact binary form that
+ * loads with bulk array reads instead of parsing a road file. After a fixed
+ * header, the file holds these sections in order:
+ * the town names, sorted, as an offset table and UTF-8 bytes;
+ * the road names in the same form;
+ * the town coordinates, if any town has them;
+ * the source, destination and weight of each road;
+ * and the adjacency of each town in compressed sparse row form, so the
+ * file can also be searched in place.
+ * An optional CRC32 of everything after the header catches damaged files.
+ *
+ * @author Joshua Gizaw
+ */
+public class GraphFile {
+    private static final int MAGIC = 0x47524148;
+    private static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int CHECKSUM = 1;
+    static final int COORDINATES = 2;
+    //Sections are copied through a buffer of this size
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private GraphFile() {
+    }
+
+    /**
+     * Writes a snapshot of a graph.
+     * @param graph the snapshot to write
+     * @param file the file to write
+     * @param checksum true to store a CRC32 of the contents, checked on load
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(GraphSnapshot graph, File file, boolean checksum) throws IOException {
+        int n = graph.size();
+        int m = graph.roadCount();
+        //Towns are stored by name so a mapped file can find them by binary search
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparing((Integer i) -> graph.townAt(i).getName()));
+        int[] rank = new int[n];
+        for (int i = 0; i < n; i++) rank[order[i]] = i;
+
+        boolean located = false;
+        String[] townNames = new String[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            Town town = graph.townAt(order[i]);
+            townNames[i] = town.getName();
+            x[i] = town.getX();
+            y[i] = town.getY();
+            located |= town.hasCoordinates();
+        }
+
+        String[] roadNames = new String[m];
+        int[] sources = new int[m];
+        int[] destinations = new int[m];
+        int[] weights = new int[m];
+        for (int r = 0; r < m; r++) {
+            Road road = graph.roadAt(r);
+            roadNames[r] = road.getName();
+            sources[r] = rank[graph.idOf(road.getSource())];
+            destinations[r] = rank[graph.idOf(road.getDestination())];
+            weights[r] = road.getWeight();
+        }
+
+        int[] firstArc = new int[n + 1];
+        for (int i = 0; i < n; i++) firstArc[i + 1] = firstArc[i] + graph.endArc(order[i]) - graph.firstArc(order[i]);
+        int arcs = firstArc[n];
+        int[] arcTargets = new int[arcs];
+        int[] arcWeights = new int[arcs];
+        int[] arcRoads = new int[arcs];
+        for (int i = 0; i < n; i++) {
+            int out = firstArc[i];
+            for (int arc = graph.firstArc(order[i]); arc < graph.endArc(order[i]); arc++, out++) {
+                arcTargets[out] = rank[graph.arcTarget(arc)];
+                arcWeights[out] = graph.arcWeight(arc);
+                arcRoads[out] = graph.arcRoad(arc);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel, HEADER_BYTES, checksum);
+            out.strings(townNames);
+            out.strings(roadNames);
+            if (located) {
+                out.doubles(x);
+                out.doubles(y);
+            }
+            out.ints(sources);
+            out.ints(destinations);
+            out.ints(weights);
+            out.ints(firstArc);
+            out.ints(arcTargets);
+            out.ints(arcWeights);
+            out.ints(arcRoads);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt((checksum ? CHECKSUM : 0) | (located ? COORDINATES : 0));
+            header.putInt(n).putInt(m).putInt(arcs).putLong(checksum ? out.crc.getValue() : 0);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads the towns and roads of a graph file. The adjacency section is
+     * checked against the checksum but not kept, since Graph builds its own.
+     * @param file the file to read
+     * @return the towns and roads, ready for Graph.addAll
+     * @throws IOException if the file cannot be read, is not a graph file,
+     * or fails its checksum
+     */
+    public static RoadTable read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = header(channel, file);
+            int flags = header.getInt(8);
+            int n = header.getInt(12);
+            int m = header.getInt(16);
+            int arcs = header.getInt(20);
+            boolean checksum = (flags & CHECKSUM) != 0;
+
+            Input in = new Input(channel, HEADER_BYTES, checksum);
+            String[] townNames = in.strings(n);
+            String[] roadNames = in.strings(m);
+            double[] x = new double[n];
+            double[] y = new double[n];
+            if ((flags & COORDINATES) != 0) {
+                in.doubles(x);
+                in.doubles(y);
+            } else {
+                Arrays.fill(x, Double.NaN);
+                Arrays.fill(y, Double.NaN);
+            }
+            int[] sources = in.ints(m);
+            int[] destinations = in.ints(m);
+            int[] weights = in.ints(m);
+            if (checksum) {
+                in.skipInts(n + 1 + 3L * arcs);
+                if (in.crc.getValue() != header.getLong(24)) throw new IOException(file + " failed its checksum");
+            }
+            return new RoadTable(townNames, x, y, roadNames, weights, sources, destinations, new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Reads and checks the header of a graph file.
+     * @return the header bytes
+     * @throws IOException if the file is not a graph file of this format
+     */
+    static ByteBuffer header(FileChannel channel, File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining())
+            if (channel.read(header, header.position()) < 0) throw new IOException(file + " is not a graph file");
+        if (header.getInt(0) != MAGIC) throw new IOException(file + " is not a graph file");
+        if (header.getInt(4) != FORMAT_VERSION)
+            throw new IOException(file + " is graph file format " + header.getInt(4) + ", expected " + FORMAT_VERSION);
+        return header;
+    }
+
+    /**
+     * Writes primitive arrays to a channel through one reused buffer.
+     */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CRC32 crc;
+        private long position;
+
+        Output(FileChannel channel, long position, boolean checksum) {
+            this.channel = channel;
+            this.position = position;
+            crc = checksum ? new CRC32() : null;
+        }
+
+        void strings(String[] values) throws IOException {
+            byte[][] bytes = new byte[values.length][];
+            int[] offsets = new int[values.length + 1];
+            for (int i = 0; i < values.length; i++) {
+                bytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                long end = (long) offsets[i] + bytes[i].length;
+                if (end > Integer.MAX_VALUE) throw new IOException("Names take more than 2 GB");
+                offsets[i + 1] = (int) end;
+            }
+            ints(offsets);
+            for (byte[] b : bytes) {
+                for (int done = 0; done < b.length; ) {
+                    if (!buffer.hasRemaining()) drain();
+                    int length = Math.min(buffer.remaining(), b.length - done);
+                    buffer.put(b, done, length);
+                    done += length;
+                }
+            }
+        }
+
+        void ints(int[] values) throws IOException {
+            for (int done = 0; done < values.length; ) {
+                if (buffer.remaining() < 4) drain();
+                int length = Math.min(buffer.remaining() / 4, values.length - done);
+                buffer.asIntBuffer().put(values, done, length);
+                buffer.position(buffer.position() + 4 * length);
+                done += length;
+            }
+        }
+
+        void doubles(double[] values) throws IOException {
+            for (int done = 0; done < values.length; ) {
+                if (buffer.remaining() < 8) drain();
+                int length = Math.min(buffer.remaining() / 8, values.length - done);
+                buffer.asDoubleBuffer().put(values, done, length);
+                buffer.position(buffer.position() + 8 * length);
+                done += length;
+            }
+        }
+
+        void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            if (crc != null) {
+                crc.update(buffer);
+                buffer.flip();
+            }
+            while (buffer.hasRemaining()) position += channel.write(buffer, position);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads primitive arrays from a channel through one reused buffer.
+     */
+    private static class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CRC32 crc;
+        private long position;
+
+        Input(FileChannel channel, long position, boolean checksum) {
+            this.channel = channel;
+            this.position = position;
+            crc = checksum ? new CRC32() : null;
+            buffer.limit(0);
+        }
+
+        String[] strings(int count) throws IOException {
+            int[] offsets = ints(count + 1);
+            byte[] bytes = new byte[offsets[count]];
+            for (int done = 0; done < bytes.length; ) {
+                if (!buffer.hasRemaining()) fill();
+                int length = Math.min(buffer.remaining(), bytes.length - done);
+                buffer.get(bytes, done, length);
+                done += length;
+            }
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++)
+                values[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+            return values;
+        }
+
+        int[] ints(int count) throws IOException {
+            int[] values = new int[count];
+            for (int done = 0; done < count; ) {
+                if (buffer.remaining() < 4) fill();
+                int length = Math.min(buffer.remaining() / 4, count - done);
+                buffer.asIntBuffer().get(values, done, length);
+                buffer.position(buffer.position() + 4 * length);
+                done += length;
+            }
+            return values;
+        }
+
+        void doubles(double[] values) throws IOException {
+            for (int done = 0; done < values.length; ) {
+                if (buffer.remaining() < 8) fill();
+                int length = Math.min(buffer.remaining() / 8, values.length - done);
+                buffer.asDoubleBuffer().get(values, done, length);
+                buffer.position(buffer.position() + 8 * length);
+                done += length;
+            }
+        }
+
+        void skipInts(long count) throws IOException {
+            for (long left = 4 * count; left > 0; ) {
+                if (!buffer.hasRemaining()) fill();
+                int length = (int) Math.min(buffer.remaining(), left);
+                buffer.position(buffer.position() + length);
+                left -= length;
+            }
+        }
+
+        /**
+         * Moves any unread bytes to the front of the buffer and reads more.
+         */
+        private void fill() throws IOException {
+            buffer.compact();
+            int start = buffer.position();
+            int read = channel.read(buffer, position);
+            if (read <= 0) throw new IOException("Graph file ends early");
+            position += read;
+            if (crc != null) {
+                ByteBuffer added = buffer.duplicate();
+                added.flip();
+                added.position(start);
+                crc.update(added);
+            }
+            buffer.flip();
+        }
+    }
+}
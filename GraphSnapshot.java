@@ -0,0 +1,321 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * The purpose of GraphSnapshot is to serve as a frozen, read-only copy of
+ * a Graph packed into compressed sparse row form. Every Town is given a
+ * dense int id, and the roads touching town i are the arcs from
+ * offsets[i] up to offsets[i + 1], with the neighbor, weight and road id of
+ * each arc stored in parallel int arrays. Searches over a snapshot never
+ * touch a HashSet or a Road object until a path is handed back.
+ * 
+ * @author Joshua Gizaw
+ */
+public class GraphSnapshot {
+    private final long version;
+    private final Town[] towns;
+    private final HashMap<Town, Integer> ids;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] weights;
+    private final int[] roadIds;
+    private final Road[] roads;
+    private final String[] roadNames;
+    private final double[] xs;
+    private final double[] ys;
+    private final double heuristicScale;
+
+    /**
+     * Packs the given towns and roads. Every road must join two of the towns.
+     * @param townSet the towns of the graph
+     * @param roadSet the roads of the graph
+     * @param version the version of the graph the snapshot was taken at
+     */
+    public GraphSnapshot(Collection<Town> townSet, Collection<Road> roadSet, long version) {
+        this.version = version;
+        int size = townSet.size();
+        towns = new Town[size];
+        ids = new HashMap<>(size * 2);
+        int id = 0;
+        boolean located = size > 0;
+        for (Town t : townSet) {
+            towns[id] = t;
+            ids.put(t, id++);
+            located &= t.hasCoordinates();
+        }
+
+        roads = roadSet.toArray(new Road[0]);
+        roadNames = new String[roads.length];
+        int[] sources = new int[roads.length];
+        int[] destinations = new int[roads.length];
+        offsets = new int[size + 1];
+        for (int r = 0; r < roads.length; r++) {
+            roadNames[r] = roads[r].getName();
+            sources[r] = ids.get(roads[r].getSource());
+            destinations[r] = ids.get(roads[r].getDestination());
+            offsets[sources[r] + 1]++;
+            offsets[destinations[r] + 1]++;
+        }
+        for (int i = 0; i < size; i++) offsets[i + 1] += offsets[i];
+
+        // Each road is stored once from each end
+        targets = new int[offsets[size]];
+        weights = new int[offsets[size]];
+        roadIds = new int[offsets[size]];
+        int[] next = new int[size];
+        System.arraycopy(offsets, 0, next, 0, size);
+        for (int r = 0; r < roads.length; r++) {
+            int weight = roads[r].getWeight();
+            int arc = next[sources[r]]++;
+            targets[arc] = destinations[r];
+            weights[arc] = weight;
+            roadIds[arc] = r;
+            arc = next[destinations[r]]++;
+            targets[arc] = sources[r];
+            weights[arc] = weight;
+            roadIds[arc] = r;
+        }
+
+        if (located) {
+            xs = new double[size];
+            ys = new double[size];
+            for (int i = 0; i < size; i++) {
+                xs[i] = towns[i].getX();
+                ys[i] = towns[i].getY();
+            }
+            // The largest factor that never makes a road shorter than the
+            // straight line between its ends keeps the heuristic admissible
+            double scale = Double.POSITIVE_INFINITY;
+            for (int r = 0; r < roads.length; r++) {
+                double line = Math.hypot(xs[sources[r]] - xs[destinations[r]], ys[sources[r]] - ys[destinations[r]]);
+                if (line > 0) scale = Math.min(scale, roads[r].getWeight() / line);
+            }
+            // Shaved slightly so floating point rounding cannot overshoot a road
+            heuristicScale = Double.isInfinite(scale) ? 0 : Math.max(scale, 0) * (1 - 1e-9);
+        } else {
+            xs = null;
+            ys = null;
+            heuristicScale = 0;
+        }
+    }
+
+    /**
+     * Copies a snapshot with one road given a new weight, sharing every
+     * array but the weights and roads.
+     */
+    private GraphSnapshot(GraphSnapshot base, int road, Road updated, long version) {
+        this.version = version;
+        towns = base.towns;
+        ids = base.ids;
+        offsets = base.offsets;
+        targets = base.targets;
+        roadIds = base.roadIds;
+        roadNames = base.roadNames;
+        xs = base.xs;
+        ys = base.ys;
+        roads = base.roads.clone();
+        roads[road] = updated;
+        weights = base.weights.clone();
+        int source = ids.get(updated.getSource());
+        int destination = ids.get(updated.getDestination());
+        for (int arc = offsets[source]; arc < offsets[source + 1]; arc++)
+            if (roadIds[arc] == road) weights[arc] = updated.getWeight();
+        for (int arc = offsets[destination]; arc < offsets[destination + 1]; arc++)
+            if (roadIds[arc] == road) weights[arc] = updated.getWeight();
+        // A shorter road may lower the scale; a longer one leaves the old scale admissible
+        double line = xs == null ? 0 : Math.hypot(xs[source] - xs[destination], ys[source] - ys[destination]);
+        heuristicScale = line > 0 ? Math.min(base.heuristicScale, updated.getWeight() / line * (1 - 1e-9))
+                : base.heuristicScale;
+    }
+
+    /**
+     * Returns a copy of this snapshot in which one road has a new weight,
+     * with the same town and road ids. Only the weight and road arrays are
+     * copied, which is much cheaper than packing the graph again.
+     * @param road the id of the road
+     * @param updated the road with its new weight, joining the same towns
+     * @param version the version of the graph the copy is for
+     * @return the updated snapshot
+     */
+    public GraphSnapshot withWeight(int road, Road updated, long version) {
+        return new GraphSnapshot(this, road, updated, version);
+    }
+
+    /**
+     * @return the version of the graph this snapshot was taken at
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of towns in the snapshot
+     */
+    public int size() {
+        return towns.length;
+    }
+
+    /**
+     * @return the number of roads in the snapshot
+     */
+    public int roadCount() {
+        return roads.length;
+    }
+
+    /**
+     * @param town the town to look up
+     * @return the dense id of the town, or -1 if it is not in the snapshot
+     */
+    public int idOf(Town town) {
+        if (town == null) return -1;
+        Integer id = ids.get(town);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id a dense town id
+     * @return the Town with that id
+     */
+    public Town townAt(int id) {
+        return towns[id];
+    }
+
+    /**
+     * @param roadId a road id taken from arcRoad
+     * @return the Road with that id
+     */
+    public Road roadAt(int roadId) {
+        return roads[roadId];
+    }
+
+    /**
+     * @param source a dense town id
+     * @param destination a dense town id
+     * @return the id of the road joining the towns, or -1 if there is none
+     */
+    public int roadBetween(int source, int destination) {
+        for (int arc = offsets[source]; arc < offsets[source + 1]; arc++)
+            if (targets[arc] == destination) return roadIds[arc];
+        return -1;
+    }
+
+    /**
+     * @param roadId a road id taken from arcRoad
+     * @return the name of the Road with that id
+     */
+    public String roadName(int roadId) {
+        return roadNames[roadId];
+    }
+
+    /**
+     * @param node a dense town id
+     * @return the index of the first arc leaving the town
+     */
+    public int firstArc(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * @param node a dense town id
+     * @return one past the index of the last arc leaving the town
+     */
+    public int endArc(int node) {
+        return offsets[node + 1];
+    }
+
+    /**
+     * @param arc an arc index
+     * @return the id of the town the arc leads to
+     */
+    public int arcTarget(int arc) {
+        return targets[arc];
+    }
+
+    /**
+     * @param arc an arc index
+     * @return the weight of the road behind the arc
+     */
+    public int arcWeight(int arc) {
+        return weights[arc];
+    }
+
+    /**
+     * @param arc an arc index
+     * @return the id of the road behind the arc
+     */
+    public int arcRoad(int arc) {
+        return roadIds[arc];
+    }
+
+    /**
+     * A hash of the towns and roads that does not depend on the order ids
+     * were assigned in, used to check that saved preprocessing still matches
+     * the graph it is loaded for.
+     * @return the fingerprint of this snapshot
+     */
+    public long fingerprint() {
+        long hash = towns.length * 0x9E3779B97F4A7C15L;
+        for (Town t : towns) hash += mix(t.getName().hashCode());
+        for (Road r : roads) {
+            int ends = r.getSource().getName().hashCode() ^ r.getDestination().getName().hashCode();
+            hash += mix(((long) ends << 32) ^ r.getWeight() ^ ((long) r.getName().hashCode() << 7));
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * @return true if every town in the snapshot has coordinates
+     */
+    public boolean hasCoordinates() {
+        return xs != null;
+    }
+
+    /**
+     * A lower bound on the road distance between two towns, based on the
+     * straight line between them. Road weights are not assumed to be in the
+     * same units as the coordinates; instead the line is scaled by the
+     * smallest weight-to-length ratio of any road, so the bound is never
+     * larger than the true distance and never drops by more than a road's
+     * weight across that road.
+     * @param from a dense town id
+     * @param to a dense town id
+     * @return the lower bound, or 0 if the snapshot has no coordinates
+     */
+    public int straightLineBound(int from, int to) {
+        if (xs == null) return 0;
+        return (int) Math.floor(heuristicScale * Math.hypot(xs[from] - xs[to], ys[from] - ys[to]));
+    }
+
+    /**
+     * Builds the path that ends at target by following parent links back to
+     * a town whose parent is -1.
+     * @param target the last town on the path
+     * @param parent the previous town on the path for each town
+     * @param parentRoad the road used to reach each town from its parent
+     * @param totalWeight the distance of target from the start of the path
+     * @return the path in travel order
+     */
+    public PathResult buildPath(int target, int[] parent, int[] parentRoad, int totalWeight) {
+        ArrayList<Town> pathTowns = new ArrayList<>();
+        ArrayList<Road> pathRoads = new ArrayList<>();
+        int current = target;
+        pathTowns.add(towns[current]);
+        while (parent[current] != -1) {
+            pathRoads.add(roads[parentRoad[current]]);
+            current = parent[current];
+            pathTowns.add(towns[current]);
+        }
+        Collections.reverse(pathTowns);
+        Collections.reverse(pathRoads);
+        return new PathResult(pathTowns, pathRoads, totalWeight);
+    }
+}
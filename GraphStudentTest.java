@@ -1,202 +1,716 @@
-import static org.junit.Assert.*;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.Set;
-
-import org.junit.After;
-import org.junit.Before;
-import org.junit.Test;
-
-public class GraphStudentTest {
-    private GraphInterface<Town, Road> graph;
-    private Town[] towns;
-
-    @Before
-    public void setUp() throws Exception {
-        graph = new Graph();
-        towns = new Town[12];
-        
-        for (int i = 1; i < 12; i++) {
-            towns[i] = new Town("Town_" + i);
-            graph.addVertex(towns[i]);
-        }
-        
-        graph.addEdge(towns[1], towns[2], 2, "Road_1");
-        graph.addEdge(towns[1], towns[3], 4, "Road_2");
-        graph.addEdge(towns[1], towns[5], 6, "Road_3");
-        graph.addEdge(towns[3], towns[7], 1, "Road_4");
-        graph.addEdge(towns[3], towns[8], 2, "Road_5");
-        graph.addEdge(towns[4], towns[8], 3, "Road_6");
-        graph.addEdge(towns[6], towns[9], 3, "Road_7");
-        graph.addEdge(towns[9], towns[10], 4, "Road_8");
-        graph.addEdge(towns[8], towns[10], 2, "Road_9");
-        graph.addEdge(towns[5], towns[10], 5, "Road_10");
-        graph.addEdge(towns[10], towns[11], 3, "Road_11");
-        graph.addEdge(towns[2], towns[11], 6, "Road_12");
-    }
-
-    @After
-    public void tearDown() throws Exception {
-        graph = null;
-    }
-
-    @Test
-    public void testGetEdge() {
-        assertEquals(new Road(towns[2], towns[11], 6, "Road_12"), graph.getEdge(towns[2], towns[11]));
-        assertEquals(new Road(towns[3], towns[7], 1, "Road_4"), graph.getEdge(towns[3], towns[7]));
-    }
-
-    @Test
-    public void testAddEdge() {
-        assertFalse(graph.containsEdge(towns[3], towns[5]));
-        graph.addEdge(towns[3], towns[5], 1, "Road_13");
-        assertTrue(graph.containsEdge(towns[3], towns[5]));
-    }
-
-    @Test
-    public void testAddVertex() {
-        Town newTown = new Town("Town_12");
-        assertFalse(graph.containsVertex(newTown));
-        graph.addVertex(newTown);
-        assertTrue(graph.containsVertex(newTown));
-    }
-
-    @Test
-    public void testContainsEdge() {
-        assertTrue(graph.containsEdge(towns[2], towns[11]));
-        assertFalse(graph.containsEdge(towns[3], towns[5]));
-    }
-
-    @Test
-    public void testContainsVertex() {
-        assertTrue(graph.containsVertex(new Town("Town_2")));
-        assertFalse(graph.containsVertex(new Town("Town_12")));
-    }
-
-    @Test
-    public void testEdgeSet() {
-        Set<Road> roads = graph.edgeSet();
-        ArrayList<String> roadArrayList = new ArrayList<>();
-        for (Road road : roads)
-            roadArrayList.add(road.getName());
-        Collections.sort(roadArrayList);
-        assertEquals("Road_1", roadArrayList.get(0));
-        assertEquals("Road_10", roadArrayList.get(1));
-        assertEquals("Road_11", roadArrayList.get(2));
-        assertEquals("Road_12", roadArrayList.get(3));
-        assertEquals("Road_2", roadArrayList.get(4));
-        assertEquals("Road_8", roadArrayList.get(10));
-    }
-
-    @Test
-    public void testEdgesOf() {
-        Set<Road> roads = graph.edgesOf(towns[1]);
-        ArrayList<String> roadArrayList = new ArrayList<>();
-        for (Road road : roads)
-            roadArrayList.add(road.getName());
-        Collections.sort(roadArrayList);
-        assertEquals("Road_1", roadArrayList.get(0));
-        assertEquals("Road_2", roadArrayList.get(1));
-        assertEquals("Road_3", roadArrayList.get(2));
-    }
-
-    @Test
-    public void testRemoveEdge() {
-        assertTrue(graph.containsEdge(towns[2], towns[11]));
-        graph.removeEdge(towns[2], towns[11], 6, "Road_12");
-        assertFalse(graph.containsEdge(towns[2], towns[11]));
-    }
-
-    @Test
-    public void testRemoveVertex() {
-        assertTrue(graph.containsVertex(towns[2]));
-        graph.removeVertex(towns[2]);
-        assertFalse(graph.containsVertex(towns[2]));
-    }
-
-    @Test
-    public void testVertexSet() {
-        Set<Town> vertexes = graph.vertexSet();
-        assertTrue(vertexes.contains(towns[1]));
-        assertTrue(vertexes.contains(towns[10]));
-        assertTrue(vertexes.contains(towns[11]));
-        assertTrue(vertexes.contains(towns[2]));
-        assertTrue(vertexes.contains(towns[3]));
-    }
-
-    @Test
-    public void testTown_1ToTown_11() {
-        String beginTown = "Town_1", endTown = "Town_11";
-        Town beginIndex = null, endIndex = null;
-        Set<Town> townsSet = graph.vertexSet();
-        Iterator<Town> iterator = townsSet.iterator();
-        while (iterator.hasNext()) {
-            Town town = iterator.next();
-            if (town.getName().equals(beginTown))
-                beginIndex = town;
-            if (town.getName().equals(endTown))
-                endIndex = town;
-        }
-        if (beginIndex != null && endIndex != null) {
-            ArrayList<String> path = graph.shortestPath(beginIndex, endIndex);
-            assertNotNull(path);
-            assertTrue(path.size() > 0);
-            assertEquals("Town_1 via Road_1 to Town_2 2 mi", path.get(0).trim());
-            assertEquals("Town_2 via Road_12 to Town_11 6 mi", path.get(1).trim());
-        } else {
-            fail("Town names are not valid");
-        }
-    }
-
-    @Test
-    public void testTown_1ToTown_10() {
-        String beginTown = "Town_1", endTown = "Town_10";
-        Town beginIndex = null, endIndex = null;
-        Set<Town> townsSet = graph.vertexSet();
-        Iterator<Town> iterator = townsSet.iterator();
-        while (iterator.hasNext()) {
-            Town town = iterator.next();
-            if (town.getName().equals(beginTown))
-                beginIndex = town;
-            if (town.getName().equals(endTown))
-                endIndex = town;
-        }
-        if (beginIndex != null && endIndex != null) {
-            ArrayList<String> path = graph.shortestPath(beginIndex, endIndex);
-            assertNotNull(path);
-            assertTrue(path.size() > 0);
-            assertEquals("Town_1 via Road_2 to Town_3 4 mi", path.get(0).trim());
-            assertEquals("Town_3 via Road_5 to Town_8 2 mi", path.get(1).trim());
-            assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(2).trim());
-        } else {
-            fail("Town names are not valid");
-        }
-    }
-
-    @Test
-    public void testTown_4ToTown_11() {
-        String beginTown = "Town_4", endTown = "Town_11";
-        Town beginIndex = null, endIndex = null;
-        Set<Town> townsSet = graph.vertexSet();
-        Iterator<Town> iterator = townsSet.iterator();
-        while (iterator.hasNext()) {
-            Town town = iterator.next();
-            if (town.getName().equals(beginTown))
-                beginIndex = town;
-            if (town.getName().equals(endTown))
-                endIndex = town;
-        }
-        if (beginIndex != null && endIndex != null) {
-            ArrayList<String> path = graph.shortestPath(beginIndex, endIndex);
-            assertNotNull(path);
-            assertTrue(path.size() > 0);
-            assertEquals("Town_4 via Road_6 to Town_8 3 mi", path.get(0).trim());
-            assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(1).trim());
-            assertEquals("Town_10 via Road_11 to Town_11 3 mi", path.get(2).trim());
-        } else {
-            fail("Town names are not valid");
-        }
-    }
-}
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphStudentTest {
+    private GraphInterface<Town, Road> graph;
+    private Town[] towns;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new Graph();
+        towns = new Town[12];
+        
+        for (int i = 1; i < 12; i++) {
+            towns[i] = new Town("Town_" + i);
+            graph.addVertex(towns[i]);
+        }
+        
+        graph.addEdge(towns[1], towns[2], 2, "Road_1");
+        graph.addEdge(towns[1], towns[3], 4, "Road_2");
+        graph.addEdge(towns[1], towns[5], 6, "Road_3");
+        graph.addEdge(towns[3], towns[7], 1, "Road_4");
+        graph.addEdge(towns[3], towns[8], 2, "Road_5");
+        graph.addEdge(towns[4], towns[8], 3, "Road_6");
+        graph.addEdge(towns[6], towns[9], 3, "Road_7");
+        graph.addEdge(towns[9], towns[10], 4, "Road_8");
+        graph.addEdge(towns[8], towns[10], 2, "Road_9");
+        graph.addEdge(towns[5], towns[10], 5, "Road_10");
+        graph.addEdge(towns[10], towns[11], 3, "Road_11");
+        graph.addEdge(towns[2], towns[11], 6, "Road_12");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        graph = null;
+    }
+
+    @Test
+    public void testGetEdge() {
+        assertEquals(new Road(towns[2], towns[11], 6, "Road_12"), graph.getEdge(towns[2], towns[11]));
+        assertEquals(new Road(towns[3], towns[7], 1, "Road_4"), graph.getEdge(towns[3], towns[7]));
+    }
+
+    @Test
+    public void testAddEdge() {
+        assertFalse(graph.containsEdge(towns[3], towns[5]));
+        graph.addEdge(towns[3], towns[5], 1, "Road_13");
+        assertTrue(graph.containsEdge(towns[3], towns[5]));
+    }
+
+    @Test
+    public void testAddVertex() {
+        Town newTown = new Town("Town_12");
+        assertFalse(graph.containsVertex(newTown));
+        graph.addVertex(newTown);
+        assertTrue(graph.containsVertex(newTown));
+    }
+
+    @Test
+    public void testContainsEdge() {
+        assertTrue(graph.containsEdge(towns[2], towns[11]));
+        assertFalse(graph.containsEdge(towns[3], towns[5]));
+    }
+
+    @Test
+    public void testContainsVertex() {
+        assertTrue(graph.containsVertex(new Town("Town_2")));
+        assertFalse(graph.containsVertex(new Town("Town_12")));
+    }
+
+    @Test
+    public void testEdgeSet() {
+        Set<Road> roads = graph.edgeSet();
+        ArrayList<String> roadArrayList = new ArrayList<>();
+        for (Road road : roads)
+            roadArrayList.add(road.getName());
+        Collections.sort(roadArrayList);
+        assertEquals("Road_1", roadArrayList.get(0));
+        assertEquals("Road_10", roadArrayList.get(1));
+        assertEquals("Road_11", roadArrayList.get(2));
+        assertEquals("Road_12", roadArrayList.get(3));
+        assertEquals("Road_2", roadArrayList.get(4));
+        assertEquals("Road_8", roadArrayList.get(10));
+    }
+
+    @Test
+    public void testEdgesOf() {
+        Set<Road> roads = graph.edgesOf(towns[1]);
+        ArrayList<String> roadArrayList = new ArrayList<>();
+        for (Road road : roads)
+            roadArrayList.add(road.getName());
+        Collections.sort(roadArrayList);
+        assertEquals("Road_1", roadArrayList.get(0));
+        assertEquals("Road_2", roadArrayList.get(1));
+        assertEquals("Road_3", roadArrayList.get(2));
+    }
+
+    @Test
+    public void testRemoveEdge() {
+        assertTrue(graph.containsEdge(towns[2], towns[11]));
+        graph.removeEdge(towns[2], towns[11], 6, "Road_12");
+        assertFalse(graph.containsEdge(towns[2], towns[11]));
+    }
+
+    @Test
+    public void testRemoveVertex() {
+        assertTrue(graph.containsVertex(towns[2]));
+        graph.removeVertex(towns[2]);
+        assertFalse(graph.containsVertex(towns[2]));
+    }
+
+    @Test
+    public void testRemoveVertexRemovesRoads() {
+        graph.removeVertex(towns[10]);
+        assertFalse(graph.containsEdge(towns[8], towns[10]));
+        assertNull(graph.getEdge(towns[10], towns[11]));
+        assertEquals(1, graph.edgesOf(towns[11]).size());
+        assertEquals(8, graph.edgeSet().size());
+    }
+
+    @Test
+    public void testVertexSet() {
+        Set<Town> vertexes = graph.vertexSet();
+        assertTrue(vertexes.contains(towns[1]));
+        assertTrue(vertexes.contains(towns[10]));
+        assertTrue(vertexes.contains(towns[11]));
+        assertTrue(vertexes.contains(towns[2]));
+        assertTrue(vertexes.contains(towns[3]));
+    }
+
+    @Test
+    public void testFindPath() {
+        PathResult path = ((Graph) graph).findPath(towns[1], towns[6]);
+        assertEquals(15, path.getTotalWeight());
+        assertEquals(5, path.getRoads().size());
+        assertEquals(towns[1], path.getSource());
+        assertEquals(towns[6], path.getDestination());
+        assertEquals("Road_7", path.getRoads().get(4).getName());
+        assertNull(((Graph) graph).findPath(towns[1], new Town("Town_12")));
+    }
+
+    @Test
+    public void testSnapshot() {
+        Graph g = (Graph) graph;
+        GraphSnapshot frozen = g.snapshot();
+        assertSame(frozen, g.snapshot());
+        assertEquals(11, frozen.size());
+        assertEquals(12, frozen.roadCount());
+        int town3 = frozen.idOf(towns[3]);
+        assertEquals(3, frozen.endArc(town3) - frozen.firstArc(town3));
+        assertEquals(-1, frozen.idOf(new Town("Town_12")));
+
+        g.addEdge(towns[3], towns[5], 1, "Road_13");
+        assertNotSame(frozen, g.snapshot());
+        assertEquals(13, g.snapshot().roadCount());
+        assertEquals(12, frozen.roadCount());
+    }
+
+    @Test
+    public void testBidirectionalMatchesDijkstra() {
+        Graph g = new Graph();
+        Town[] grid = randomGraph(g, 42, 60, 150, 0, 20);
+        //An unreachable town in place of T0 covers the case with no path
+        grid[0] = new Town("Island");
+        g.addVertex(grid[0]);
+        for (int i = 0; i < grid.length; i += 7) {
+            for (int j = 0; j < grid.length; j += 5) {
+                PathResult plain = g.findPath(grid[i], grid[j], SearchMode.DIJKSTRA);
+                PathResult both = g.findPath(grid[i], grid[j], SearchMode.BIDIRECTIONAL);
+                if (plain == null) {
+                    assertNull(both);
+                } else {
+                    assertEquals(plain.getTotalWeight(), both.getTotalWeight());
+                    assertEquals(grid[j], both.getDestination());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAStarMatchesDijkstra() {
+        Graph g = new Graph();
+        Town[][] grid = new Town[20][20];
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 20; j++) {
+                grid[i][j] = new Town("G" + i + "_" + j, i * 10, j * 10);
+                g.addVertex(grid[i][j]);
+                if (i > 0) g.addEdge(grid[i - 1][j], grid[i][j], 10 + random.nextInt(5), "H" + i + "_" + j);
+                if (j > 0) g.addEdge(grid[i][j - 1], grid[i][j], 10 + random.nextInt(5), "V" + i + "_" + j);
+            }
+        }
+        PathResult plain = g.findPath(grid[0][0], grid[19][19], SearchMode.DIJKSTRA);
+        int plainSettled = g.getLastSettledCount();
+        PathResult guided = g.findPath(grid[0][0], grid[19][19], SearchMode.ASTAR);
+        assertEquals(plain.getTotalWeight(), guided.getTotalWeight());
+        assertTrue(g.getLastSettledCount() < plainSettled);
+
+        // One town without coordinates turns A* back into plain Dijkstra
+        g.addVertex(new Town("Nowhere"));
+        assertEquals(plain.getTotalWeight(), g.findPath(grid[0][0], grid[19][19], SearchMode.ASTAR).getTotalWeight());
+        assertEquals(plainSettled, g.getLastSettledCount());
+    }
+
+    @Test
+    public void testLandmarksMatchDijkstra() {
+        Graph g = new Graph();
+        Town[] line = randomGraph(g, 3, 200, 300, 0, 99);
+        g.buildLandmarks(4);
+        assertTrue(g.hasCurrentLandmarks());
+        for (int i = 0; i < line.length; i += 13) {
+            PathResult plain = g.findPath(line[i], line[199 - i], SearchMode.DIJKSTRA);
+            PathResult alt = g.findPath(line[i], line[199 - i], SearchMode.ALT);
+            assertEquals(plain.getTotalWeight(), alt.getTotalWeight());
+        }
+
+        g.addVertex(new Town("Island"));
+        assertFalse(g.hasCurrentLandmarks());
+        assertEquals(g.findPath(line[0], line[199], SearchMode.DIJKSTRA).getTotalWeight(),
+                g.findPath(line[0], line[199], SearchMode.ALT).getTotalWeight());
+    }
+
+    @Test
+    public void testContractionHierarchy() {
+        Graph g = new Graph();
+        //Many zero-weight roads, so towns are contracted with no cost through them
+        Town[] towns = randomGraph(g, 11, 300, 700, 0, 4);
+        g.addVertex(new Town("Island"));
+        g.buildHierarchy(true);
+        g.setValidateHierarchy(true);
+        for (int i = 0; i < towns.length; i += 11) {
+            for (int j = 5; j < towns.length; j += 17) {
+                PathResult path = g.findPath(towns[i], towns[j], SearchMode.CONTRACTION_HIERARCHY);
+                assertEquals(g.findPath(towns[i], towns[j], SearchMode.DIJKSTRA).getTotalWeight(), path.getTotalWeight());
+                assertEquals(towns[i], path.getSource());
+                assertEquals(towns[j], path.getDestination());
+                for (int k = 0; k < path.getRoads().size(); k++) {
+                    assertTrue(path.getRoads().get(k).contains(path.getTowns().get(k)));
+                    assertTrue(path.getRoads().get(k).contains(path.getTowns().get(k + 1)));
+                }
+            }
+        }
+        assertNull(g.findPath(towns[0], new Town("Island"), SearchMode.CONTRACTION_HIERARCHY));
+    }
+
+    @Test
+    public void testAllPairsDistances() throws Exception {
+        Graph g = (Graph) graph;
+        g.addVertex(new Town("Town_12"));
+        DistanceMatrix floyd = g.allPairsDistances(DistanceMatrix.Method.FLOYD_WARSHALL, null);
+        DistanceMatrix dijkstra = g.allPairsDistances(DistanceMatrix.Method.DIJKSTRA, null);
+        File file = File.createTempFile("distances", ".bin");
+        file.deleteOnExit();
+        g.allPairsDistances(DistanceMatrix.Method.DIJKSTRA, file);
+        DistanceMatrix mapped = DistanceMatrix.open(file);
+
+        assertEquals(12, floyd.size());
+        for (int i = 0; i < floyd.size(); i++) {
+            for (int j = 0; j < floyd.size(); j++) {
+                assertEquals(dijkstra.distance(i, j), floyd.distance(i, j));
+                assertEquals(dijkstra.distance(i, j), mapped.distance(i, j));
+            }
+        }
+        assertEquals(15, mapped.distance("Town_1", "Town_6"));
+        assertEquals(Integer.MAX_VALUE, g.allPairsDistances().distance("Town_1", "Town_12"));
+        assertEquals(-1, floyd.distance("Town_1", "Town_13"));
+    }
+
+    @Test
+    public void testShortestPathSimilarNames() {
+        Town suffix = new Town("own_1");
+        graph.addVertex(suffix);
+        graph.addEdge(towns[4], suffix, 1, "Road_13");
+        ArrayList<String> path = graph.shortestPath(towns[4], suffix);
+        assertEquals(1, path.size());
+        assertEquals("Town_4 via Road_13 to own_1 1 mi", path.get(0));
+    }
+
+    @Test
+    public void testTown_1ToTown_11() {
+        String beginTown = "Town_1", endTown = "Town_11";
+        Town beginIndex = null, endIndex = null;
+        Set<Town> townsSet = graph.vertexSet();
+        Iterator<Town> iterator = townsSet.iterator();
+        while (iterator.hasNext()) {
+            Town town = iterator.next();
+            if (town.getName().equals(beginTown))
+                beginIndex = town;
+            if (town.getName().equals(endTown))
+                endIndex = town;
+        }
+        if (beginIndex != null && endIndex != null) {
+            ArrayList<String> path = graph.shortestPath(beginIndex, endIndex);
+            assertNotNull(path);
+            assertTrue(path.size() > 0);
+            assertEquals("Town_1 via Road_1 to Town_2 2 mi", path.get(0).trim());
+            assertEquals("Town_2 via Road_12 to Town_11 6 mi", path.get(1).trim());
+        } else {
+            fail("Town names are not valid");
+        }
+    }
+
+    @Test
+    public void testTown_1ToTown_10() {
+        String beginTown = "Town_1", endTown = "Town_10";
+        Town beginIndex = null, endIndex = null;
+        Set<Town> townsSet = graph.vertexSet();
+        Iterator<Town> iterator = townsSet.iterator();
+        while (iterator.hasNext()) {
+            Town town = iterator.next();
+            if (town.getName().equals(beginTown))
+                beginIndex = town;
+            if (town.getName().equals(endTown))
+                endIndex = town;
+        }
+        if (beginIndex != null && endIndex != null) {
+            ArrayList<String> path = graph.shortestPath(beginIndex, endIndex);
+            assertNotNull(path);
+            assertTrue(path.size() > 0);
+            assertEquals("Town_1 via Road_2 to Town_3 4 mi", path.get(0).trim());
+            assertEquals("Town_3 via Road_5 to Town_8 2 mi", path.get(1).trim());
+            assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(2).trim());
+        } else {
+            fail("Town names are not valid");
+        }
+    }
+
+    @Test
+    public void testTown_4ToTown_11() {
+        String beginTown = "Town_4", endTown = "Town_11";
+        Town beginIndex = null, endIndex = null;
+        Set<Town> townsSet = graph.vertexSet();
+        Iterator<Town> iterator = townsSet.iterator();
+        while (iterator.hasNext()) {
+            Town town = iterator.next();
+            if (town.getName().equals(beginTown))
+                beginIndex = town;
+            if (town.getName().equals(endTown))
+                endIndex = town;
+        }
+        if (beginIndex != null && endIndex != null) {
+            ArrayList<String> path = graph.shortestPath(beginIndex, endIndex);
+            assertNotNull(path);
+            assertTrue(path.size() > 0);
+            assertEquals("Town_4 via Road_6 to Town_8 3 mi", path.get(0).trim());
+            assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(1).trim());
+            assertEquals("Town_10 via Road_11 to Town_11 3 mi", path.get(2).trim());
+        } else {
+            fail("Town names are not valid");
+        }
+    }
+
+    @Test
+    public void testUpdateWeightRepairsCachedTrees() {
+        Graph g = new Graph();
+        Town[] grid = randomGraph(g, 11, 200, 500, 0, 20);
+        ArrayList<Road> roads = new ArrayList<Road>(g.edgeSet());
+        Random random = new Random(12);
+        g.setTreeCacheCapacity(8);
+        for (int i = 0; i < 8; i++) g.shortestPathTree(grid[i * 25]);
+
+        int changes = 0;
+        for (int step = 0; step < 300; step++) {
+            Road road = roads.get(random.nextInt(roads.size()));
+            int weight = random.nextInt(3) == 0 ? random.nextInt(3) : random.nextInt(60);
+            if (g.getEdge(road.getSource(), road.getDestination()).getWeight() != weight) changes++;
+            Road updated = g.updateWeight(road.getSource(), road.getDestination(), weight);
+            assertEquals(weight, updated.getWeight());
+            assertEquals(weight, g.getEdge(road.getSource(), road.getDestination()).getWeight());
+            GraphSnapshot frozen = g.snapshot();
+            for (int i = 0; i < 8; i++) {
+                ShortestPathTree repaired = g.shortestPathTree(grid[i * 25]);
+                ShortestPathTree fresh = new SnapshotRouter(frozen).shortestPathTree(frozen.idOf(grid[i * 25]));
+                for (int node = 0; node < frozen.size(); node++) {
+                    assertEquals(fresh.distanceTo(node), repaired.distanceTo(node));
+                    if (repaired.reaches(node))
+                        assertEquals(fresh.distanceTo(node), repaired.pathTo(node).getTotalWeight());
+                }
+            }
+        }
+        assertEquals(8, g.getTreeCache().getMisses());
+        assertEquals(0, g.getTreeCache().getInvalidations());
+        assertEquals(8 * changes, g.getTreeCache().getRepairs());
+        assertNull(g.updateWeight(grid[0], new Town("Nowhere"), 3));
+    }
+
+    @Test
+    public void testTownsWithin() {
+        Graph g = new Graph();
+        Town[] grid = randomGraph(g, 23, 150, 400, 0, 20);
+        for (int source = 0; source < grid.length; source += 30) {
+            ShortestPathTree tree = g.shortestPathTree(grid[source]);
+            GraphSnapshot frozen = g.snapshot();
+            Set<Town> expected = new HashSet<Town>();
+            for (int node = 0; node < frozen.size(); node++)
+                if (tree.distanceTo(node) <= 25) expected.add(frozen.townAt(node));
+            Set<Town> found = new HashSet<Town>();
+            int last = 0;
+            for (Iterator<TownDistance> it = g.townsWithin(grid[source], 25).iterator(); it.hasNext(); ) {
+                TownDistance near = it.next();
+                assertTrue(near.getDistance() >= last);
+                assertEquals(tree.distanceTo(frozen.idOf(near.getTown())), near.getDistance());
+                last = near.getDistance();
+                found.add(near.getTown());
+            }
+            assertEquals(expected, found);
+        }
+        assertEquals(grid[0], g.townsWithin(grid[0], 0).findFirst().get().getTown());
+        assertEquals(0, g.townsWithin(grid[0], -1).count());
+        assertEquals(3, g.townsWithin(grid[0], Integer.MAX_VALUE).limit(3).count());
+    }
+
+    @Test
+    public void testNearestTowns() {
+        Graph g = new Graph();
+        Town[] grid = randomGraph(g, 31, 300, 900, 0, 20);
+        Set<Town> depots = new HashSet<Town>();
+        for (int i = 0; i < grid.length; i += 17) depots.add(grid[i]);
+
+        for (int source = 0; source < grid.length; source += 50) {
+            List<TownDistance> nearest = g.nearestTowns(grid[source], 5, depots::contains);
+            assertEquals(5, nearest.size());
+            int settled = g.getLastSettledCount();
+            Iterator<TownDistance> all = g.townsWithin(grid[source], Integer.MAX_VALUE)
+                    .filter(t -> depots.contains(t.getTown())).iterator();
+            for (TownDistance near : nearest) assertEquals(all.next().getDistance(), near.getDistance());
+            g.shortestPathTree(grid[source]);
+            assertTrue(settled < g.getLastSettledCount());
+        }
+        assertEquals(depots.size(), g.nearestTowns(grid[0], 1000, depots::contains).size());
+        assertTrue(g.nearestTowns(grid[0], 0, depots::contains).isEmpty());
+        assertEquals(grid[0], g.nearestTowns(grid[0], 1, t -> true).get(0).getTown());
+    }
+
+    @Test
+    public void testKShortestPaths() {
+        Graph g = new Graph();
+        Town[] grid = randomGraph(g, 47, 12, 26, 0, 9);
+        for (int target = 1; target < grid.length; target += 3) {
+            List<Integer> expected = new ArrayList<Integer>();
+            allPaths(g, grid[0], grid[target], new HashSet<Town>(), 0, expected);
+            Collections.sort(expected);
+            List<PathResult> paths = g.kShortestPaths(grid[0], grid[target], 10);
+            assertEquals(Math.min(10, expected.size()), paths.size());
+            Set<List<Road>> distinct = new HashSet<List<Road>>();
+            for (int i = 0; i < paths.size(); i++) {
+                PathResult path = paths.get(i);
+                assertEquals((int) expected.get(i), path.getTotalWeight());
+                assertEquals(path.getTowns().size(), new HashSet<Town>(path.getTowns()).size());
+                assertEquals(grid[target], path.getDestination());
+                assertTrue(distinct.add(path.getRoads()));
+            }
+        }
+        assertEquals(1, g.kShortestPaths(grid[0], grid[0], 3).size());
+        assertTrue(g.kShortestPaths(grid[0], grid[1], 0).isEmpty());
+    }
+
+    /**
+     * Fills g with towns "T0", "T1", ... and roads "R0", "R1", ... of random
+     * weight. The first roads join each town to an earlier one, so the
+     * towns are connected once there are at least towns - 1 roads; the rest
+     * join random pairs.
+     * @param seed the seed of the random choices
+     * @param towns the number of towns
+     * @param roads the number of roads to try; a road between towns already
+     * joined is not added
+     * @param minWeight the least road weight, 0 to include zero-weight roads
+     * @param maxWeight the greatest road weight
+     * @return the towns, by number
+     */
+    private static Town[] randomGraph(Graph g, long seed, int towns, int roads, int minWeight, int maxWeight) {
+        Random random = new Random(seed);
+        Town[] grid = new Town[towns];
+        for (int i = 0; i < towns; i++) {
+            grid[i] = new Town("T" + i);
+            g.addVertex(grid[i]);
+        }
+        for (int i = 0; i < roads; i++) {
+            int a, b;
+            if (i < towns - 1) {
+                a = random.nextInt(i + 1);
+                b = i + 1;
+            } else {
+                a = random.nextInt(towns);
+                b = random.nextInt(towns);
+            }
+            if (a != b) g.addEdge(grid[a], grid[b], minWeight + random.nextInt(maxWeight - minWeight + 1), "R" + i);
+        }
+        return grid;
+    }
+
+    /**
+     * Collects the weight of every loopless path from town to target.
+     */
+    private static void allPaths(Graph g, Town town, Town target, Set<Town> visited, int weight, List<Integer> out) {
+        if (town.equals(target)) {
+            out.add(weight);
+            return;
+        }
+        visited.add(town);
+        for (Road road : g.edgesOf(town)) {
+            Town next = road.getSource().equals(town) ? road.getDestination() : road.getSource();
+            if (!visited.contains(next)) allPaths(g, next, target, visited, weight + road.getWeight(), out);
+        }
+        visited.remove(town);
+    }
+
+    @Test
+    public void testConnectedComponents() {
+        Graph g = (Graph) graph;
+        assertEquals(1, g.componentCount());
+        assertTrue(g.isConnected(towns[4], towns[6]));
+        Town lone = new Town("Town_12");
+        g.addVertex(lone);
+        assertEquals(2, g.componentCount());
+        assertFalse(g.isConnected(towns[1], lone));
+        assertNull(g.findPath(towns[1], lone));
+
+        //Cutting Road_7 and Road_8 leaves Town_6 and Town_9 on their own
+        g.removeEdge(towns[6], towns[9], -1, "Road_7");
+        g.removeEdge(towns[9], towns[10], -1, "Road_8");
+        assertEquals(4, g.componentCount());
+        assertEquals(9, g.components().get(0).size());
+        assertNotEquals(g.componentOf(towns[6]), g.componentOf(towns[9]));
+        g.addEdge(towns[9], lone, 1, "Road_13");
+        assertTrue(g.isConnected(towns[9], lone));
+        assertEquals(3, g.componentCount());
+
+        //A copy keeps its own components
+        Graph copy = g.copy();
+        copy.addEdge(lone, towns[1], 1, "Road_14");
+        assertTrue(copy.isConnected(towns[9], towns[1]));
+        assertFalse(g.isConnected(towns[9], towns[1]));
+        assertEquals(-1, g.componentOf(new Town("Nowhere")));
+
+        Graph sparse = new Graph();
+        Town[] grid = randomGraph(sparse, 5, 80, 0, 1, 1);
+        Random random = new Random(5);
+        for (int step = 0; step < 200; step++) {
+            Town a = grid[random.nextInt(grid.length)], b = grid[random.nextInt(grid.length)];
+            if (random.nextInt(3) == 0) sparse.removeEdge(a, b, -1, null);
+            else if (!a.equals(b)) sparse.addEdge(a, b, 1, "R" + step);
+            Town c = grid[random.nextInt(grid.length)];
+            assertEquals(sparse.findPath(a, c, SearchMode.DIJKSTRA) != null, sparse.isConnected(a, c));
+        }
+    }
+
+    @Test
+    public void testBatchBumpsVersionOnce() {
+        Graph batched = (Graph) graph;
+        long version = batched.getVersion();
+        GraphSnapshot before = batched.snapshot();
+        batched.beginBatch();
+        batched.beginBatch();
+        batched.addEdge(towns[3], towns[5], 1, "Road_13");
+        batched.removeEdge(towns[1], towns[2], -1, "Road_1");
+        batched.endBatch();
+        assertEquals(version, batched.getVersion());
+        batched.addVertex(new Town("Town_12"));
+        batched.endBatch();
+        assertEquals(version + 1, batched.getVersion());
+        assertNotSame(before, batched.snapshot());
+        assertEquals(12, batched.snapshot().size());
+
+        batched.beginBatch();
+        batched.endBatch();
+        assertEquals(version + 1, batched.getVersion());
+        try {
+            batched.endBatch();
+            fail("Ending a batch that was not started should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testImportOfNothingNewKeepsVersion() {
+        Graph imported = (Graph) graph;
+        RoadTable table = new RoadTable(new String[] { "Town_1", "Town_2", "Town_12" },
+                new double[] { Double.NaN, Double.NaN, 4 }, new double[] { Double.NaN, Double.NaN, 5 },
+                new String[] { "Road_1", "Road_13" }, new int[] { 2, 6 }, new int[] { 0, 1 }, new int[] { 1, 2 },
+                new ArrayList<String>());
+        long version = imported.getVersion();
+        assertEquals(1, imported.addAll(table));
+        assertEquals(version + 1, imported.getVersion());
+        GraphSnapshot before = imported.snapshot();
+        assertEquals(0, imported.addAll(table));
+        assertEquals(version + 1, imported.getVersion());
+        assertSame(before, imported.snapshot());
+    }
+
+    @Test
+    public void testCopy() {
+        Graph original = (Graph) graph;
+        original.setCoordinates(towns[1], 0, 0);
+        Graph copy = original.copy();
+        assertEquals(original.getVersion(), copy.getVersion());
+        assertEquals(original.shortestPath(towns[1], towns[11]), copy.shortestPath(towns[1], towns[11]));
+
+        copy.addVertex(new Town("Town_12"));
+        copy.addEdge(towns[1], towns[11], 1, "Road_13");
+        copy.removeEdge(towns[1], towns[2], 2, "Road_1");
+        copy.setCoordinates(towns[1], 5, 5);
+        original.removeVertex(towns[10]);
+
+        assertFalse(original.containsVertex(new Town("Town_12")));
+        assertFalse(original.containsEdge(towns[1], towns[11]));
+        assertTrue(original.containsEdge(towns[1], towns[2]));
+        assertEquals(0, original.getTown("Town_1").getX(), 0);
+        assertEquals(3, original.edgesOf(towns[1]).size());
+
+        assertTrue(copy.containsVertex(towns[10]));
+        assertTrue(copy.containsEdge(towns[10], towns[11]));
+        assertFalse(copy.containsEdge(towns[1], towns[2]));
+        assertEquals(5, copy.getTown("Town_1").getX(), 0);
+        assertEquals(3, copy.edgesOf(towns[1]).size());
+        assertEquals(1, copy.findPath(towns[1], towns[11]).getTotalWeight());
+    }
+
+    @Test
+    public void testCopiesShareStructure() {
+        Graph g = new Graph();
+        Town[] grid = randomGraph(g, 19, 100, 250, 0, 20);
+        g.setTreeCacheCapacity(4);
+        g.shortestPathTree(grid[0]);
+        //A chain of versions, each one edit past the one before, as copy-on-write makes them
+        ArrayList<Graph> versions = new ArrayList<Graph>();
+        ArrayList<Integer> roadCounts = new ArrayList<Integer>();
+        Random random = new Random(20);
+        for (int step = 0; step < 60; step++) {
+            versions.add(g);
+            roadCounts.add(g.edgeSet().size());
+            g = g.copy();
+            Town a = grid[random.nextInt(grid.length)], b = grid[random.nextInt(grid.length)];
+            if (step % 3 == 0) g.removeEdge(a, b, -1, null);
+            else if (!a.equals(b)) g.addEdge(a, b, random.nextInt(20), "S" + step);
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            Graph version = versions.get(i);
+            assertEquals((int) roadCounts.get(i), version.edgeSet().size());
+            int ends = 0;
+            for (Town town : version.vertexSet()) ends += version.edgesOf(town).size();
+            assertEquals(2 * roadCounts.get(i), ends);
+            assertEquals(version.findPath(grid[0], grid[50], SearchMode.DIJKSTRA) != null, version.isConnected(grid[0], grid[50]));
+        }
+
+        //The tree cache carries over to copies and is repaired for their weight changes
+        Graph last = versions.get(versions.size() - 1);
+        ShortestPathTreeCache cache = last.getTreeCache();
+        last.shortestPathTree(grid[0]);
+        long misses = cache.getMisses();
+        long invalidations = cache.getInvalidations();
+        Graph next = last.copy();
+        assertSame(cache, next.getTreeCache());
+        next.shortestPathTree(grid[0]);
+        assertEquals(misses, cache.getMisses());
+        Road road = next.edgesOf(grid[0]).iterator().next();
+        next.updateWeight(road.getSource(), road.getDestination(), road.getWeight() + 5);
+        next.shortestPathTree(grid[0]);
+        assertEquals(misses, cache.getMisses());
+        assertEquals(1, cache.getRepairs());
+        //The older version misses rather than getting a tree over the newer one
+        assertSame(last.snapshot(), last.shortestPathTree(grid[0]).getGraph());
+        assertEquals(misses + 1, cache.getMisses());
+        assertEquals(invalidations, cache.getInvalidations());
+    }
+
+    @Test
+    public void testMappedGraphStore() throws Exception {
+        Graph original = (Graph) graph;
+        original.setCoordinates(towns[3], 1.5, -2);
+        File file = File.createTempFile("graph", ".bin");
+        file.deleteOnExit();
+        GraphFile.write(original.snapshot(), file, true);
+        MappedGraphStore store = MappedGraphStore.open(file);
+
+        assertEquals(11, store.townCount());
+        assertEquals(original.vertexSet(), new HashSet<Town>(store.vertexSet()));
+        assertEquals(original.edgeSet(), new HashSet<Road>(store.edgeSet()));
+        assertEquals(-2, store.getTown("Town_3").getY(), 0);
+        assertNull(store.getTown("Town_12"));
+        assertFalse(store.containsVertex(new Town("Town_12")));
+        assertTrue(store.containsEdge(towns[2], towns[1]));
+        assertEquals("Road_12", store.getEdge(towns[11], towns[2]).getName());
+        assertNull(store.getEdge(towns[1], towns[11]));
+        for (int i = 1; i < 12; i++) {
+            assertEquals(original.edgesOf(towns[i]), store.edgesOf(towns[i]));
+            for (int j = 1; j < 12; j++)
+                assertEquals(original.shortestPath(towns[i], towns[j]), store.shortestPath(towns[i], towns[j]));
+        }
+        assertNull(store.findPath(towns[1], new Town("Town_12")));
+        store.dijkstraShortestPath(towns[1]);
+        Map<Town, Integer> distances = store.getLastDistances();
+        assertEquals(11, distances.size());
+        assertEquals(Integer.valueOf(0), distances.get(towns[1]));
+        for (int j = 2; j < 12; j++)
+            assertEquals(Integer.valueOf(original.findPath(towns[1], towns[j]).getTotalWeight()), distances.get(towns[j]));
+        try {
+            store.addVertex(new Town("Town_12"));
+            fail("A mapped store is read-only");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The purpose of KShortestPaths is to find the k shortest loopless paths
+ * between two towns with Yen's algorithm, to offer alternative routes.
+ * Each new path branches off an accepted one at a spur town: it keeps the
+ * accepted path up to the spur, then takes the shortest way on to the
+ * destination that avoids the root's towns and every road already used to
+ * leave the spur along the same root.
+ *
+ * Every search is guided by one shortest path tree rooted at the
+ * destination, which also yields the first path. Its distances are exact
+ * in the whole graph and can only grow once towns and roads are avoided,
+ * so they serve as an A* heuristic for the spur searches and as a lower
+ * bound for pruning: a spur whose root cost plus bound cannot beat the
+ * candidates already queued is skipped, and spur searches stop once they
+ * pass that cost. The spurs of one path are independent, so they are
+ * searched in parallel.
+ * 
+ * @author Joshua Gizaw
+ */
+public class KShortestPaths {
+    private static final ThreadLocal<SparseSearchBuffers> BUFFERS = ThreadLocal.withInitial(SparseSearchBuffers::new);
+    private static final Comparator<Route> BY_COST =
+            Comparator.comparingInt((Route r) -> r.cost).thenComparingInt(r -> r.roads.length);
+
+    private final GraphSnapshot graph;
+    private final ShortestPathTree toTarget;
+    private final int source;
+    private final int target;
+
+    /**
+     * @param graph the snapshot to search
+     * @param toTarget the shortest path tree of the destination over graph
+     * @param source the id of the starting town
+     */
+    public KShortestPaths(GraphSnapshot graph, ShortestPathTree toTarget, int source) {
+        this.graph = graph;
+        this.toTarget = toTarget;
+        this.source = source;
+        this.target = toTarget.getSource();
+    }
+
+    /**
+     * Finds up to k paths, shortest first.
+     * @param k the largest number of paths to return
+     * @param parallel true to search the spurs of each path on all cores
+     * @return the paths in order of total weight; fewer than k if no more
+     * loopless paths exist, and empty if the destination cannot be reached
+     */
+    public List<PathResult> find(int k, boolean parallel) {
+        List<PathResult> result = new ArrayList<>();
+        if (k <= 0 || !toTarget.reaches(source)) return result;
+        List<Route> accepted = new ArrayList<>();
+        accepted.add(basePath());
+        PriorityQueue<Route> candidates = new PriorityQueue<>(BY_COST);
+        Set<Route> seen = new HashSet<>(accepted);
+        while (accepted.size() < k) {
+            Route previous = accepted.get(accepted.size() - 1);
+            long bound = bound(candidates, k - accepted.size());
+            IntStream spurs = IntStream.range(0, previous.roads.length);
+            if (parallel) spurs = spurs.parallel();
+            List<Route> found = spurs.mapToObj(i -> spur(previous, i, accepted, bound))
+                    .filter(Objects::nonNull).collect(Collectors.toList());
+            for (Route route : found)
+                if (seen.add(route)) candidates.add(route);
+            Route next = candidates.poll();
+            if (next == null) break;
+            accepted.add(next);
+        }
+        for (Route route : accepted) result.add(route.toPath());
+        return result;
+    }
+
+    /**
+     * @return the shortest path, read off the destination's tree
+     */
+    private Route basePath() {
+        int length = 0;
+        for (int node = source; node != target; node = toTarget.parentOf(node)) length++;
+        int[] nodes = new int[length + 1];
+        int[] roads = new int[length];
+        nodes[0] = source;
+        for (int i = 0; i < length; i++) {
+            roads[i] = toTarget.parentRoadOf(nodes[i]);
+            nodes[i + 1] = toTarget.parentOf(nodes[i]);
+        }
+        return new Route(nodes, roads);
+    }
+
+    /**
+     * @return the cost a new candidate must not exceed to be among the
+     * paths still needed, or Long.MAX_VALUE if too few are queued
+     */
+    private static long bound(PriorityQueue<Route> candidates, int needed) {
+        if (candidates.size() < needed) return Long.MAX_VALUE;
+        int[] costs = new int[candidates.size()];
+        int i = 0;
+        for (Route route : candidates) costs[i++] = route.cost;
+        Arrays.sort(costs);
+        return costs[needed - 1];
+    }
+
+    /**
+     * Finds the shortest path that follows previous up to its town i and
+     * then leaves it.
+     * @return the path, or null if there is none or it cannot be short enough
+     */
+    private Route spur(Route previous, int i, List<Route> accepted, long bound) {
+        int spur = previous.nodes[i];
+        int rootCost = previous.prefix[i];
+        int lower = toTarget.distanceTo(spur);
+        if (lower == Integer.MAX_VALUE || (long) rootCost + lower > bound) return null;
+
+        int[] blockedRoads = accepted.stream()
+                .filter(p -> p.roads.length > i && Arrays.equals(p.nodes, 0, i + 1, previous.nodes, 0, i + 1))
+                .mapToInt(p -> p.roads[i]).sorted().toArray();
+        int[] blockedTowns = Arrays.copyOf(previous.nodes, i);
+        Arrays.sort(blockedTowns);
+        long limit = bound == Long.MAX_VALUE ? Long.MAX_VALUE : bound - rootCost;
+
+        SparseSearchBuffers state = BUFFERS.get();
+        state.clear();
+        state.reach(spur, 0, -1, -1);
+        state.heap().add(LongMinHeap.pack(lower, spur));
+        while (!state.heap().isEmpty()) {
+            long entry = state.heap().poll();
+            int key = LongMinHeap.distance(entry);
+            if (key > limit) return null;
+            int node = LongMinHeap.node(entry);
+            int slot = state.find(node);
+            int distance = state.distance(slot);
+            if (state.isSettled(slot) || key > (long) distance + toTarget.distanceTo(node)) continue;
+            state.settle(slot);
+            if (node == target) return join(previous, i, state);
+            for (int arc = graph.firstArc(node); arc < graph.endArc(node); arc++) {
+                if (node == spur && Arrays.binarySearch(blockedRoads, graph.arcRoad(arc)) >= 0) continue;
+                int next = graph.arcTarget(arc);
+                int estimate = toTarget.distanceTo(next);
+                if (estimate == Integer.MAX_VALUE || Arrays.binarySearch(blockedTowns, next) >= 0) continue;
+                int through = distance + graph.arcWeight(arc);
+                if (state.reach(next, through, node, arc)) state.heap().add(LongMinHeap.pack(through + estimate, next));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Joins the root of previous up to town i with the spur path the search
+     * in state found to the destination.
+     */
+    private Route join(Route previous, int i, SparseSearchBuffers state) {
+        int length = 0;
+        for (int slot = state.find(target); state.parent(slot) != -1; slot = state.find(state.parent(slot))) length++;
+        int[] nodes = Arrays.copyOf(previous.nodes, i + 1 + length);
+        int[] roads = Arrays.copyOf(previous.roads, i + length);
+        int node = target;
+        for (int j = length; j > 0; j--) {
+            int slot = state.find(node);
+            nodes[i + j] = node;
+            roads[i + j - 1] = graph.arcRoad(state.parentArc(slot));
+            node = state.parent(slot);
+        }
+        return new Route(nodes, roads);
+    }
+
+    /**
+     * A path as town and road ids, with the cost of each prefix. Two routes
+     * are equal when they take the same roads, which from one source means
+     * the same towns too.
+     */
+    private class Route {
+        final int[] nodes;
+        final int[] roads;
+        final int[] prefix;
+        final int cost;
+
+        Route(int[] nodes, int[] roads) {
+            this.nodes = nodes;
+            this.roads = roads;
+            prefix = new int[nodes.length];
+            for (int i = 0; i < roads.length; i++) prefix[i + 1] = prefix[i] + graph.roadAt(roads[i]).getWeight();
+            cost = prefix[roads.length];
+        }
+
+        PathResult toPath() {
+            List<Town> towns = new ArrayList<>(nodes.length);
+            List<Road> path = new ArrayList<>(roads.length);
+            for (int node : nodes) towns.add(graph.townAt(node));
+            for (int road : roads) path.add(graph.roadAt(road));
+            return new PathResult(towns, path, cost);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Route && Arrays.equals(roads, ((Route) o).roads);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(roads);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The purpose of LandmarkIndex is to hold the preprocessing for ALT
+ * (A*, landmarks and the triangle inequality) searches. A few landmark
+ * towns are picked far apart from each other and the distance from each
+ * landmark to every town is stored in a primitive table. For any towns v
+ * and t and landmark L, |d(L, t) - d(L, v)| is a lower bound on d(v, t),
+ * which aims the search without needing coordinates. Roads are undirected,
+ * so one table per landmark serves as both the "to" and "from" table.
+ * 
+ * @author Joshua Gizaw
+ */
+public class LandmarkIndex {
+    private final long version;
+    private final int[] landmarks;
+    private final int[][] distances;
+
+    private LandmarkIndex(long version, int[] landmarks, int[][] distances) {
+        this.version = version;
+        this.landmarks = landmarks;
+        this.distances = distances;
+    }
+
+    /**
+     * Picks landmarks and computes their distance tables. Each landmark after
+     * the first is the town farthest from the landmarks chosen so far, and a
+     * town no chosen landmark can reach counts as farthest of all, so every
+     * component of the graph gets a landmark while any are left to give.
+     * @param graph the snapshot to preprocess
+     * @param count the number of landmarks to pick
+     * @return the landmark index for the snapshot
+     */
+    public static LandmarkIndex build(GraphSnapshot graph, int count) {
+        int size = graph.size();
+        count = Math.max(0, Math.min(count, size));
+        int[] chosen = new int[count];
+        int[][] tables = new int[count][];
+        SnapshotRouter router = new SnapshotRouter(graph);
+
+        // Start from the town farthest from town 0 rather than town 0 itself
+        long[] closest = new long[size];
+        Arrays.fill(closest, Long.MAX_VALUE);
+        int next = 0;
+        if (count > 0) {
+            ShortestPathTree first = router.shortestPathTree(0);
+            for (int v = 0; v < size; v++)
+                if (first.reaches(v) && first.distanceTo(v) > first.distanceTo(next)) next = v;
+        }
+        for (int i = 0; i < count; i++) {
+            chosen[i] = next;
+            ShortestPathTree tree = router.shortestPathTree(next);
+            tables[i] = new int[size];
+            long farthest = -1;
+            for (int v = 0; v < size; v++) {
+                tables[i][v] = tree.distanceTo(v);
+                if (tree.reaches(v)) closest[v] = Math.min(closest[v], tree.distanceTo(v));
+                if (closest[v] > farthest) {
+                    farthest = closest[v];
+                    next = v;
+                }
+            }
+        }
+        return new LandmarkIndex(graph.getVersion(), chosen, tables);
+    }
+
+    /**
+     * @return the version of the graph the tables were computed for
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of landmarks
+     */
+    public int size() {
+        return landmarks.length;
+    }
+
+    /**
+     * @param i the landmark's position in this index
+     * @return the dense town id of the landmark
+     */
+    public int landmarkAt(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * @param i the landmark's position in this index
+     * @param node a dense town id
+     * @return the distance from the landmark to the town, or
+     * Integer.MAX_VALUE if the landmark cannot reach it
+     */
+    public int distance(int i, int node) {
+        return distances[i][node];
+    }
+
+    /**
+     * A lower bound on the road distance between two towns from the
+     * triangle inequality. Landmarks that cannot reach both towns are
+     * skipped.
+     * @param from a dense town id
+     * @param to a dense town id
+     * @return the largest bound any landmark gives, or 0 if none applies
+     */
+    public int lowerBound(int from, int to) {
+        int best = 0;
+        for (int[] table : distances) {
+            int a = table[from];
+            int b = table[to];
+            if (a == Integer.MAX_VALUE || b == Integer.MAX_VALUE) continue;
+            int bound = a > b ? a - b : b - a;
+            if (bound > best) best = bound;
+        }
+        return best;
+    }
+
+    /**
+     * Writes the landmark tables. Towns are written by name so the tables
+     * can be read back against a snapshot whose ids are assigned differently.
+     * @param graph the snapshot the index was built for
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(GraphSnapshot graph, DataOutputStream out) throws IOException {
+        int size = graph.size();
+        out.writeLong(graph.fingerprint());
+        out.writeInt(size);
+        for (int v = 0; v < size; v++) out.writeUTF(graph.townAt(v).getName());
+        out.writeInt(landmarks.length);
+        for (int i = 0; i < landmarks.length; i++) {
+            out.writeInt(landmarks[i]);
+            for (int v = 0; v < size; v++) out.writeInt(distances[i][v]);
+        }
+    }
+
+    /**
+     * Reads landmark tables written by write and maps them onto a snapshot.
+     * @param graph the snapshot to attach the tables to
+     * @param in the stream to read from
+     * @return the landmark index for the snapshot
+     * @throws IOException if the stream cannot be read, or the tables were
+     * written for a graph with different towns or roads
+     */
+    public static LandmarkIndex read(GraphSnapshot graph, DataInputStream in) throws IOException {
+        long fingerprint = in.readLong();
+        int size = in.readInt();
+        if (fingerprint != graph.fingerprint()) throw new IOException("Landmarks were saved for a different graph");
+        if (size != graph.size()) throw new IOException("Landmarks were saved for " + size + " towns, graph has " + graph.size());
+        int[] remap = new int[size];
+        for (int v = 0; v < size; v++) {
+            String name = in.readUTF();
+            remap[v] = graph.idOf(new Town(name));
+            if (remap[v] == -1) throw new IOException("Landmarks refer to unknown town " + name);
+        }
+        int count = in.readInt();
+        int[] chosen = new int[count];
+        int[][] tables = new int[count][size];
+        for (int i = 0; i < count; i++) {
+            chosen[i] = remap[in.readInt()];
+            for (int v = 0; v < size; v++) tables[i][remap[v]] = in.readInt();
+        }
+        return new LandmarkIndex(graph.getVersion(), chosen, tables);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * The purpose of LongMinHeap is to serve as the priority queue for the
+ * shortest path searches in Graph. It stores primitive longs so that no
+ * objects are created per queue entry; a town's tentative distance and id
+ * are packed into one long with pack so the distance is compared first.
+ * 
+ * @author Joshua Gizaw
+ */
+public class LongMinHeap {
+    private long[] heap;
+    private int size;
+
+    public LongMinHeap(int capacity) {
+        heap = new long[Math.max(capacity, 16)];
+        size = 0;
+    }
+
+    /**
+     * Packs a distance and a town id into a single heap entry.
+     * @param distance the tentative distance, which must not be negative
+     * @param node the dense id of the town
+     * @return the packed entry
+     */
+    public static long pack(int distance, int node) {
+        return ((long) distance << 32) | (node & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param entry an entry made by pack
+     * @return the distance stored in the entry
+     */
+    public static int distance(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    /**
+     * @param entry an entry made by pack
+     * @return the town id stored in the entry
+     */
+    public static int node(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Adds an entry to the heap, growing the backing array if needed.
+     * @param value the entry to add
+     */
+    public void add(long value) {
+        if (size == heap.length) {
+            long[] bigger = new long[heap.length * 2];
+            System.arraycopy(heap, 0, bigger, 0, size);
+            heap = bigger;
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= value) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+
+    /**
+     * @return the smallest entry in the heap, without removing it
+     */
+    public long peek() {
+        return heap[0];
+    }
+
+    /**
+     * Removes and returns the smallest entry in the heap.
+     * @return the smallest entry
+     */
+    public long poll() {
+        long result = heap[0];
+        long last = heap[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (last <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return result;
+    }
+
+    /**
+     * @return true if the heap has no entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of entries in the heap
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every entry while keeping the backing array for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,442 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The purpose of MappedGraphStore is to answer queries on a graph saved by
+ * GraphFile without loading it onto the heap. The file is memory mapped
+ * and searched in place: towns are found by binary search over the sorted
+ * name table, and searches walk the mapped adjacency arrays. Towns and
+ * roads are only made for the results a query returns, so they carry no
+ * neighbor links, and a search keeps state only for the towns it reaches.
+ * Opening a store maps the file without reading it, so it does not verify
+ * the checksum. The store is read-only and safe to share between threads.
+ *
+ * @author Joshua Gizaw
+ */
+public class MappedGraphStore implements GraphInterface<Town, Road> {
+    private final int townCount;
+    private final int roadCount;
+    private final IntBuffer townOffsets;
+    private final ByteBuffer townBytes;
+    private final IntBuffer roadOffsets;
+    private final ByteBuffer roadBytes;
+    //Null when the file has no coordinates
+    private final DoubleBuffer xs;
+    private final DoubleBuffer ys;
+    private final IntBuffer sources;
+    private final IntBuffer destinations;
+    private final IntBuffer weights;
+    private final IntBuffer firstArc;
+    private final IntBuffer arcTargets;
+    private final IntBuffer arcWeights;
+    private final IntBuffer arcRoads;
+    private final ThreadLocal<SparseSearchBuffers> visited = ThreadLocal.withInitial(SparseSearchBuffers::new);
+    private volatile Map<Town, Integer> lastDistances;
+
+    private MappedGraphStore(FileChannel channel, ByteBuffer header) throws IOException {
+        int flags = header.getInt(8);
+        townCount = header.getInt(12);
+        roadCount = header.getInt(16);
+        int arcs = header.getInt(20);
+        long position = GraphFile.HEADER_BYTES;
+
+        townOffsets = map(channel, position, 4L * (townCount + 1)).asIntBuffer();
+        position += 4L * (townCount + 1);
+        townBytes = map(channel, position, townOffsets.get(townCount));
+        position += townOffsets.get(townCount);
+        roadOffsets = map(channel, position, 4L * (roadCount + 1)).asIntBuffer();
+        position += 4L * (roadCount + 1);
+        roadBytes = map(channel, position, roadOffsets.get(roadCount));
+        position += roadOffsets.get(roadCount);
+        if ((flags & GraphFile.COORDINATES) != 0) {
+            xs = map(channel, position, 8L * townCount).asDoubleBuffer();
+            position += 8L * townCount;
+            ys = map(channel, position, 8L * townCount).asDoubleBuffer();
+            position += 8L * townCount;
+        } else {
+            xs = null;
+            ys = null;
+        }
+        sources = map(channel, position, 4L * roadCount).asIntBuffer();
+        position += 4L * roadCount;
+        destinations = map(channel, position, 4L * roadCount).asIntBuffer();
+        position += 4L * roadCount;
+        weights = map(channel, position, 4L * roadCount).asIntBuffer();
+        position += 4L * roadCount;
+        firstArc = map(channel, position, 4L * (townCount + 1)).asIntBuffer();
+        position += 4L * (townCount + 1);
+        arcTargets = map(channel, position, 4L * arcs).asIntBuffer();
+        position += 4L * arcs;
+        arcWeights = map(channel, position, 4L * arcs).asIntBuffer();
+        position += 4L * arcs;
+        arcRoads = map(channel, position, 4L * arcs).asIntBuffer();
+    }
+
+    /**
+     * Maps a file written by GraphFile.write.
+     * @param file the file to map
+     * @return the store
+     * @throws IOException if the file cannot be read or is not a graph file
+     */
+    public static MappedGraphStore open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new MappedGraphStore(channel, GraphFile.header(channel, file));
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) throw new IOException("A graph file section is larger than 2 GB");
+        if (position + length > channel.size()) throw new IOException("Graph file ends early");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    /**
+     * @return the number of towns in the store
+     */
+    public int townCount() {
+        return townCount;
+    }
+
+    /**
+     * @return the number of roads in the store
+     */
+    public int roadCount() {
+        return roadCount;
+    }
+
+    /**
+     * Finds a town by name.
+     * @param name the name of the town
+     * @return the town, or null if the store has no town with that name
+     */
+    public Town getTown(String name) {
+        int id = idOf(name);
+        return id == -1 ? null : town(id);
+    }
+
+    @Override
+    public Road getEdge(Town sourceVertex, Town destinationVertex) {
+        if (sourceVertex == null || destinationVertex == null) return null;
+        int source = idOf(sourceVertex.getName());
+        int destination = idOf(destinationVertex.getName());
+        if (source == -1 || destination == -1) return null;
+        int arc = arcBetween(source, destination);
+        return arc == -1 ? null : road(arcRoads.get(arc));
+    }
+
+    @Override
+    public boolean containsEdge(Town sourceVertex, Town destinationVertex) {
+        if (sourceVertex == null || destinationVertex == null) return false;
+        int source = idOf(sourceVertex.getName());
+        int destination = idOf(destinationVertex.getName());
+        return source != -1 && destination != -1 && arcBetween(source, destination) != -1;
+    }
+
+    @Override
+    public boolean containsVertex(Town v) {
+        return v != null && idOf(v.getName()) != -1;
+    }
+
+    /**
+     * Returns a read-only view of the roads, made one at a time as the view
+     * is iterated.
+     */
+    @Override
+    public Set<Road> edgeSet() {
+        return new AbstractSet<Road>() {
+            @Override
+            public Iterator<Road> iterator() {
+                return new Counter<Road>(roadCount) {
+                    @Override
+                    Road make(int road) {
+                        return road(road);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return roadCount;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Road && containsEdge(((Road) o).getSource(), ((Road) o).getDestination());
+            }
+        };
+    }
+
+    /**
+     * @throws IllegalArgumentException if vertex is not found in the store.
+     * @throws NullPointerException if vertex is null.
+     */
+    @Override
+    public Set<Road> edgesOf(Town vertex) {
+        if (vertex == null) throw new NullPointerException("Cannot find a vertex that contains a null");
+        int id = idOf(vertex.getName());
+        if (id == -1) throw new IllegalArgumentException("Vertex does not exist in the graph");
+        HashSet<Road> roads = new HashSet<Road>();
+        for (int arc = firstArc.get(id); arc < firstArc.get(id + 1); arc++) roads.add(road(arcRoads.get(arc)));
+        return roads;
+    }
+
+    /**
+     * Returns a read-only view of the towns, made one at a time in name
+     * order as the view is iterated.
+     */
+    @Override
+    public Set<Town> vertexSet() {
+        return new AbstractSet<Town>() {
+            @Override
+            public Iterator<Town> iterator() {
+                return new Counter<Town>(townCount) {
+                    @Override
+                    Town make(int id) {
+                        return town(id);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return townCount;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Town && containsVertex((Town) o);
+            }
+        };
+    }
+
+    @Override
+    public ArrayList<String> shortestPath(Town sourceVertex, Town destinationVertex) {
+        PathResult path = findPath(sourceVertex, destinationVertex);
+        return path == null ? null : path.toStringList();
+    }
+
+    /**
+     * Finds the shortest path between two towns with Dijkstra's algorithm,
+     * stopping once the destination is settled.
+     * @param sourceVertex starting vertex
+     * @param destinationVertex ending vertex
+     * @return the shortest path, or null if destinationVertex cannot be reached
+     *
+     * @throws IllegalArgumentException if sourceVertex is not found in the store.
+     * @throws NullPointerException if sourceVertex is null.
+     */
+    public PathResult findPath(Town sourceVertex, Town destinationVertex) {
+        if (sourceVertex == null) throw new NullPointerException("Cannot search from a null");
+        int source = idOf(sourceVertex.getName());
+        if (source == -1) throw new IllegalArgumentException("Vertex does not exist in the graph");
+        int target = destinationVertex == null ? -1 : idOf(destinationVertex.getName());
+        if (target == -1) return null;
+
+        SparseSearchBuffers state = visited.get();
+        int distance = search(state, source, target, null);
+        return distance == -1 ? null : buildPath(state, target, distance);
+    }
+
+    /**
+     * Dijkstra's Shortest Path Method.
+     * Computes the distance from sourceVertex to every town it can reach;
+     * the distances can be read back with getLastDistances. The search keeps
+     * state only for the towns it reaches, but on a connected graph that is
+     * every town, so prefer findPath when only one destination is needed.
+     * @param sourceVertex the vertex to find shortest paths from
+     *
+     * @throws IllegalArgumentException if sourceVertex is not found in the store.
+     * @throws NullPointerException if sourceVertex is null.
+     */
+    @Override
+    public void dijkstraShortestPath(Town sourceVertex) {
+        lastDistances = distancesFrom(sourceVertex);
+    }
+
+    /**
+     * @return the distances computed by the last dijkstraShortestPath call
+     * on any thread, or null if there has been none
+     */
+    public Map<Town, Integer> getLastDistances() {
+        return lastDistances;
+    }
+
+    /**
+     * Computes the distance from sourceVertex to every town it can reach.
+     * @param sourceVertex the vertex to find shortest paths from
+     * @return the distance to each reachable town, including sourceVertex,
+     * in order of distance
+     *
+     * @throws IllegalArgumentException if sourceVertex is not found in the store.
+     * @throws NullPointerException if sourceVertex is null.
+     */
+    public Map<Town, Integer> distancesFrom(Town sourceVertex) {
+        if (sourceVertex == null) throw new NullPointerException("Cannot search from a null");
+        int source = idOf(sourceVertex.getName());
+        if (source == -1) throw new IllegalArgumentException("Vertex does not exist in the graph");
+        Map<Town, Integer> distances = new LinkedHashMap<Town, Integer>();
+        search(visited.get(), source, -1, distances);
+        return Collections.unmodifiableMap(distances);
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as the store is read-only
+     */
+    @Override
+    public Road addEdge(Town sourceVertex, Town destinationVertex, int weight, String description) {
+        throw new UnsupportedOperationException("A mapped store is read-only");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as the store is read-only
+     */
+    @Override
+    public boolean addVertex(Town v) {
+        throw new UnsupportedOperationException("A mapped store is read-only");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as the store is read-only
+     */
+    @Override
+    public Road removeEdge(Town sourceVertex, Town destinationVertex, int weight, String description) {
+        throw new UnsupportedOperationException("A mapped store is read-only");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as the store is read-only
+     */
+    @Override
+    public boolean removeVertex(Town v) {
+        throw new UnsupportedOperationException("A mapped store is read-only");
+    }
+
+    /**
+     * Finds a town's id by binary search over the sorted name table.
+     * @return the id, or -1 if there is no such town
+     */
+    private int idOf(String name) {
+        int low = 0;
+        int high = townCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int order = name.compareTo(string(townBytes, townOffsets, mid));
+            if (order == 0) return mid;
+            if (order < 0) high = mid - 1;
+            else low = mid + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from source until target is settled, or
+     * until every reachable town is if target is -1.
+     * @param settled if not null, gets each town and its distance as it is
+     * settled
+     * @return the distance to target, or -1 if it was not reached
+     */
+    private int search(SparseSearchBuffers state, int source, int target, Map<Town, Integer> settled) {
+        state.clear();
+        state.reach(source, 0, -1, -1);
+        state.heap().add(LongMinHeap.pack(0, source));
+        while (!state.heap().isEmpty()) {
+            long entry = state.heap().poll();
+            int node = LongMinHeap.node(entry);
+            int distance = LongMinHeap.distance(entry);
+            int slot = state.find(node);
+            if (state.isSettled(slot) || distance > state.distance(slot)) continue;
+            state.settle(slot);
+            if (settled != null) settled.put(town(node), distance);
+            if (node == target) return distance;
+            for (int arc = firstArc.get(node); arc < firstArc.get(node + 1); arc++) {
+                int next = arcTargets.get(arc);
+                int through = distance + arcWeights.get(arc);
+                if (state.reach(next, through, node, arc)) state.heap().add(LongMinHeap.pack(through, next));
+            }
+        }
+        return -1;
+    }
+
+    private int arcBetween(int source, int destination) {
+        for (int arc = firstArc.get(source); arc < firstArc.get(source + 1); arc++)
+            if (arcTargets.get(arc) == destination) return arc;
+        return -1;
+    }
+
+    private static String string(ByteBuffer bytes, IntBuffer offsets, int index) {
+        int start = offsets.get(index);
+        byte[] value = new byte[offsets.get(index + 1) - start];
+        bytes.get(start, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private Town town(int id) {
+        String name = string(townBytes, townOffsets, id);
+        if (xs == null || Double.isNaN(xs.get(id))) return new Town(name);
+        return new Town(name, xs.get(id), ys.get(id));
+    }
+
+    private Road road(int road) {
+        return new Road(town(sources.get(road)), town(destinations.get(road)), weights.get(road),
+                string(roadBytes, roadOffsets, road));
+    }
+
+    /**
+     * Walks the parent links back from the target of a finished search.
+     */
+    private PathResult buildPath(SparseSearchBuffers state, int target, int totalWeight) {
+        List<Town> towns = new ArrayList<>();
+        List<Road> roads = new ArrayList<>();
+        int node = target;
+        towns.add(town(node));
+        for (int slot = state.find(node); state.parentArc(slot) != -1; slot = state.find(node)) {
+            roads.add(road(arcRoads.get(state.parentArc(slot))));
+            node = state.parent(slot);
+            towns.add(town(node));
+        }
+        Collections.reverse(towns);
+        Collections.reverse(roads);
+        return new PathResult(towns, roads, totalWeight);
+    }
+
+    /**
+     * Iterates over ids 0 to count - 1, making the element for each.
+     */
+    private abstract static class Counter<E> implements Iterator<E> {
+        private final int count;
+        private int next;
+
+        Counter(int count) {
+            this.count = count;
+        }
+
+        abstract E make(int id);
+
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        @Override
+        public E next() {
+            if (next == count) throw new NoSuchElementException();
+            return make(next++);
+        }
+    }
+}
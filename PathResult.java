@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The purpose of PathResult is to hold the outcome of a shortest path
+ * search as structured data: the towns visited in order, the roads taken
+ * between them, and the total weight. Graph and TownGraphManager only turn
+ * it into the "A via Road to B 4 mi" strings when a caller asks for them.
+ * 
+ * @author Joshua Gizaw
+ */
+public class PathResult {
+    private final List<Town> towns;
+    private final List<Road> roads;
+    private final int totalWeight;
+
+    /**
+     * @param towns the towns on the path, starting with the source
+     * @param roads the roads on the path; road i joins town i and town i + 1
+     * @param totalWeight the sum of the road weights
+     */
+    public PathResult(List<Town> towns, List<Road> roads, int totalWeight) {
+        if (towns.size() != roads.size() + 1)
+            throw new IllegalArgumentException("A path needs exactly one more town than roads");
+        this.towns = Collections.unmodifiableList(towns);
+        this.roads = Collections.unmodifiableList(roads);
+        this.totalWeight = totalWeight;
+    }
+
+    /**
+     * @return the towns on the path in travel order, including both ends
+     */
+    public List<Town> getTowns() {
+        return towns;
+    }
+
+    /**
+     * @return the roads on the path in travel order
+     */
+    public List<Road> getRoads() {
+        return roads;
+    }
+
+    /**
+     * @return the sum of the weights of the roads on the path
+     */
+    public int getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * @return the town the path starts at
+     */
+    public Town getSource() {
+        return towns.get(0);
+    }
+
+    /**
+     * @return the town the path ends at
+     */
+    public Town getDestination() {
+        return towns.get(towns.size() - 1);
+    }
+
+    /**
+     * Describes each step of the path in the form "A via Road to B 4 mi".
+     * @return one String per road on the path
+     */
+    public ArrayList<String> toStringList() {
+        ArrayList<String> result = new ArrayList<>(roads.size());
+        for (int i = 0; i < roads.size(); i++) {
+            Road r = roads.get(i);
+            result.add(towns.get(i).getName() + " via " + r.getName() + " to "
+                    + towns.get(i + 1).getName() + " " + r.getWeight() + " mi");
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Path from " + getSource().getName() + " to " + getDestination().getName()
+                + " (" + totalWeight + " mi): " + toStringList();
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The purpose of RangeSearch is to list the towns within a given distance
+ * of a source in order of distance. It is a Dijkstra search that settles
+ * one more town each time the next one is asked for and never queues a
+ * town beyond the bound, so its cost depends on how many towns lie within
+ * the bound rather than on the size of the graph, and a caller that stops
+ * early pays only for the towns it took. The search keeps its own sparse
+ * state and runs over a fixed snapshot, so it may be read at any pace and
+ * from any one thread, even after the graph has changed.
+ * 
+ * @author Joshua Gizaw
+ */
+public class RangeSearch implements Iterator<TownDistance> {
+    private final GraphSnapshot graph;
+    private final int limit;
+    private final SparseSearchBuffers state = new SparseSearchBuffers();
+    private TownDistance next;
+
+    /**
+     * @param graph the snapshot to search
+     * @param source the id of the starting town
+     * @param limit the largest distance to report
+     */
+    public RangeSearch(GraphSnapshot graph, int source, int limit) {
+        this.graph = graph;
+        this.limit = limit;
+        state.clear();
+        if (limit >= 0) {
+            state.reach(source, 0, -1, -1);
+            state.heap().add(LongMinHeap.pack(0, source));
+        }
+        next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public TownDistance next() {
+        if (next == null) throw new NoSuchElementException();
+        TownDistance result = next;
+        next = advance();
+        return result;
+    }
+
+    /**
+     * Settles the next closest town.
+     * @return the town, or null if no more towns lie within the limit
+     */
+    private TownDistance advance() {
+        while (!state.heap().isEmpty()) {
+            long entry = state.heap().poll();
+            int node = LongMinHeap.node(entry);
+            int distance = LongMinHeap.distance(entry);
+            int slot = state.find(node);
+            if (state.isSettled(slot) || distance > state.distance(slot)) continue;
+            state.settle(slot);
+            for (int arc = graph.firstArc(node); arc < graph.endArc(node); arc++) {
+                long through = (long) distance + graph.arcWeight(arc);
+                if (through <= limit && state.reach(graph.arcTarget(arc), (int) through, node, arc))
+                    state.heap().add(LongMinHeap.pack((int) through, graph.arcTarget(arc)));
+            }
+            return new TownDistance(graph.townAt(node), distance);
+        }
+        return null;
+    }
+}
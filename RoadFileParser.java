@@ -0,0 +1,531 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The purpose of RoadFileParser is to load road files for TownGraphManager
+ * quickly. The file is memory mapped and each line is split and parsed
+ * straight from its bytes, so the only Strings made are the road names and
+ * one per distinct town name. Both file formats are read, telling them
+ * apart by their number of fields:
+ * "name,weight;source;destination" and "name;weight;source;destination",
+ * either one optionally followed by ";x,y;x,y" giving the coordinates of
+ * the source and destination. Malformed lines are skipped and reported
+ * with their line numbers.
+ * Files can be passed to a Handler line by line, or parsed in chunks on
+ * all cores into a RoadTable for a bulk import.
+ *
+ * @author Joshua Gizaw
+ */
+public class RoadFileParser {
+
+    /**
+     * Receives the roads of a file in line order.
+     */
+    public interface Handler {
+        /**
+         * Called for each well-formed line.
+         * @param name the road name
+         * @param weight the road length in miles
+         * @param source the name of the source town
+         * @param destination the name of the destination town
+         */
+        void road(String name, int weight, String source, String destination);
+
+        /**
+         * Called before road when the line gives the coordinates of its towns.
+         * @param town the name of the town
+         * @param x the x coordinate (or longitude) of the town
+         * @param y the y coordinate (or latitude) of the town
+         */
+        default void locate(String town, double x, double y) {
+        }
+    }
+
+    //A MappedByteBuffer cannot pass 2 GB, so bigger files are mapped a window at a time
+    private static final long WINDOW = 1L << 30;
+    private static final int MAX_FIELDS = 6;
+    private static final int MAX_REPORTED = 100;
+    //Bulk imports give each core a few chunks to even out the load, but no chunk under 1 MB
+    private static final int CHUNKS_PER_CORE = 4;
+    private static final long MIN_CHUNK = 1 << 20;
+    //Every power of ten up to 1e22 is exact as a double
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    //Null when collecting a chunk for a RoadTable
+    private final Handler handler;
+    private final List<Long> errorLines = new ArrayList<>();
+    private final List<String> errorReasons = new ArrayList<>();
+    private long errorCount;
+    private long lineNumber;
+    private byte[] line = new byte[256];
+    private final int[] starts = new int[MAX_FIELDS];
+    private final int[] ends = new int[MAX_FIELDS];
+    private final double[] coordinates = new double[4];
+    //Towns get dense ids in order of first sighting
+    private String[] townNames = new String[1024];
+    private double[] townX = new double[1024];
+    private double[] townY = new double[1024];
+    private int townCount;
+    //Open addressing table from the bytes of a town name to its id + 1
+    private int[] slots = new int[2048];
+    private byte[][] keys = new byte[2048][];
+    private int[] hashes = new int[2048];
+    //The roads of a chunk
+    private String[] roadNames = new String[1024];
+    private int[] weights = new int[1024];
+    private int[] sources = new int[1024];
+    private int[] destinations = new int[1024];
+    private int roadCount;
+
+    private RoadFileParser(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Reads a road file, passing each well-formed line to the handler.
+     * @param file the road file
+     * @param handler receives the roads and town coordinates
+     * @return a message for each malformed line, such as "line 12: missing
+     * town name", or an empty list if every line was read
+     * @throws IOException if the file cannot be read
+     */
+    public static List<String> parse(File file, Handler handler) throws IOException {
+        RoadFileParser parser = new RoadFileParser(handler);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(WINDOW, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (int) length;
+                //Stop each window after its last full line; the rest starts the next window
+                if (position + length < size) {
+                    while (end > 0 && buffer.get(end - 1) != '\n') end--;
+                    if (end == 0) throw new IOException("Line " + (parser.lineNumber + 1) + " is longer than " + WINDOW + " bytes");
+                }
+                parser.scan(buffer, end);
+                position += end;
+            }
+        }
+        List<String> errors = new ArrayList<>();
+        parser.reportErrors(errors, 0);
+        if (parser.errorCount > MAX_REPORTED) errors.add((parser.errorCount - MAX_REPORTED) + " more malformed lines");
+        return errors;
+    }
+
+    /**
+     * Parses a road file into a table, splitting it at line boundaries into
+     * chunks that are parsed on all cores. Each chunk numbers its own towns,
+     * and the numbering is merged in file order at the end, so the table
+     * holds the same roads, in the same order, as a line by line parse.
+     * @param file the road file
+     * @return the towns and roads of the file with any malformed lines
+     * @throws IOException if the file cannot be read
+     */
+    public static RoadTable parseTable(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            long wanted = Math.min((long) ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_CORE, size / MIN_CHUNK + 1);
+            long[] bounds = chunkBounds(channel, size, (int) Math.max(wanted, size / WINDOW + 1));
+            RoadFileParser[] parsers = new RoadFileParser[bounds.length - 1];
+            try {
+                IntStream.range(0, parsers.length).parallel().forEach(c -> {
+                    RoadFileParser parser = new RoadFileParser(null);
+                    try {
+                        parser.scan(channel.map(FileChannel.MapMode.READ_ONLY, bounds[c], bounds[c + 1] - bounds[c]), (int) (bounds[c + 1] - bounds[c]));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    parsers[c] = parser;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return merge(parsers);
+        }
+    }
+
+    /**
+     * Splits a file into about the given number of chunks, moving each cut
+     * forward to the start of the next line.
+     * @return the chunk boundaries, from 0 up to size
+     */
+    private static long[] chunkBounds(FileChannel channel, long size, int chunks) throws IOException {
+        long[] bounds = new long[chunks + 1];
+        int count = 1;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int c = 1; c < chunks; c++) {
+            long cut = Math.max(size / chunks * c, bounds[count - 1]);
+            //A cut just after a newline already starts a line
+            long position = cut - 1;
+            boolean found = false;
+            while (!found && position < size) {
+                probe.clear();
+                int read = channel.read(probe, position);
+                if (read <= 0) break;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        cut = position + i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) position += read;
+            }
+            if (!found) break;
+            if (cut > bounds[count - 1] && cut < size) bounds[count++] = cut;
+        }
+        bounds[count++] = size;
+        for (int c = 1; c < count; c++)
+            if (bounds[c] - bounds[c - 1] > Integer.MAX_VALUE) throw new IOException("A line is longer than 2 GB");
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Joins the chunks of a parallel parse into one table, renumbering the
+     * towns of each chunk in file order.
+     */
+    private static RoadTable merge(RoadFileParser[] parsers) {
+        int roads = 0;
+        int sightings = 0;
+        for (RoadFileParser parser : parsers) {
+            roads += parser.roadCount;
+            sightings += parser.townCount;
+        }
+        HashMap<String, Integer> ids = new HashMap<>();
+        String[] towns = new String[sightings];
+        double[] x = new double[sightings];
+        double[] y = new double[sightings];
+        String[] names = new String[roads];
+        int[] weights = new int[roads];
+        int[] sources = new int[roads];
+        int[] destinations = new int[roads];
+        List<String> errors = new ArrayList<>();
+        long errorCount = 0;
+        long lineOffset = 0;
+        int road = 0;
+        for (RoadFileParser parser : parsers) {
+            int[] global = new int[parser.townCount];
+            for (int local = 0; local < parser.townCount; local++) {
+                Integer id = ids.putIfAbsent(parser.townNames[local], ids.size());
+                if (id == null) {
+                    id = ids.size() - 1;
+                    towns[id] = parser.townNames[local];
+                    x[id] = Double.NaN;
+                    y[id] = Double.NaN;
+                }
+                global[local] = id;
+                //Later chunks come later in the file, so their coordinates win
+                if (!Double.isNaN(parser.townX[local])) {
+                    x[id] = parser.townX[local];
+                    y[id] = parser.townY[local];
+                }
+            }
+            System.arraycopy(parser.roadNames, 0, names, road, parser.roadCount);
+            System.arraycopy(parser.weights, 0, weights, road, parser.roadCount);
+            for (int i = 0; i < parser.roadCount; i++, road++) {
+                sources[road] = global[parser.sources[i]];
+                destinations[road] = global[parser.destinations[i]];
+            }
+            parser.reportErrors(errors, lineOffset);
+            errorCount += parser.errorCount;
+            lineOffset += parser.lineNumber;
+        }
+        while (errors.size() > MAX_REPORTED) errors.remove(errors.size() - 1);
+        if (errorCount > MAX_REPORTED) errors.add((errorCount - MAX_REPORTED) + " more malformed lines");
+        int townCount = ids.size();
+        return new RoadTable(Arrays.copyOf(towns, townCount), Arrays.copyOf(x, townCount), Arrays.copyOf(y, townCount),
+                names, weights, sources, destinations, errors);
+    }
+
+    /**
+     * Splits a mapped window into lines.
+     * @param buffer the window
+     * @param end the number of bytes of the window to read
+     */
+    private void scan(MappedByteBuffer buffer, int end) {
+        int length = 0;
+        for (int i = 0; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                line(length);
+                length = 0;
+            } else {
+                if (length == line.length) line = Arrays.copyOf(line, length * 2);
+                line[length++] = b;
+            }
+        }
+        //Only the last window can end without a newline
+        if (length > 0) line(length);
+    }
+
+    /**
+     * Parses the line held in the line buffer and passes it to the handler.
+     * @param length the length of the line in bytes
+     */
+    private void line(int length) {
+        lineNumber++;
+        if (length > 0 && line[length - 1] == '\r') length--;
+        if (length == 0) return;
+
+        int fields = 0;
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line[i] == ';') {
+                if (fields == MAX_FIELDS) {
+                    error("more than " + MAX_FIELDS + " fields");
+                    return;
+                }
+                starts[fields] = start;
+                ends[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+        if (fields < 3) {
+            error("expected name,weight;source;destination or name;weight;source;destination");
+            return;
+        }
+
+        int nameEnd, weightStart, weightEnd, first;
+        if (fields % 2 == 1) {
+            nameEnd = indexOf(',', starts[0], ends[0]);
+            if (nameEnd == -1) {
+                error("expected name,weight before the first ';'");
+                return;
+            }
+            weightStart = nameEnd + 1;
+            weightEnd = ends[0];
+            first = 1;
+        } else {
+            nameEnd = ends[0];
+            weightStart = starts[1];
+            weightEnd = ends[1];
+            first = 2;
+        }
+        if (nameEnd == starts[0]) {
+            error("missing road name");
+            return;
+        }
+        int weight = parseWeight(weightStart, weightEnd);
+        if (weight == -1) {
+            error("weight is not a whole number");
+            return;
+        }
+        if (starts[first] == ends[first] || starts[first + 1] == ends[first + 1]) {
+            error("missing town name");
+            return;
+        }
+        boolean located = fields - first == 4;
+        if (located && !(parsePoint(first + 2, 0) && parsePoint(first + 3, 2))) {
+            error("coordinates must be x,y");
+            return;
+        }
+
+        int source = town(starts[first], ends[first]);
+        int destination = town(starts[first + 1], ends[first + 1]);
+        String name = new String(line, starts[0], nameEnd - starts[0], StandardCharsets.UTF_8);
+        if (handler == null) {
+            collect(name, weight, source, destination, located);
+            return;
+        }
+        try {
+            if (located) {
+                handler.locate(townNames[source], coordinates[0], coordinates[1]);
+                handler.locate(townNames[destination], coordinates[2], coordinates[3]);
+            }
+            handler.road(name, weight, townNames[source], townNames[destination]);
+        } catch (RuntimeException e) {
+            error(e.toString());
+        }
+    }
+
+    /**
+     * Appends a road to the chunk being collected.
+     */
+    private void collect(String name, int weight, int source, int destination, boolean located) {
+        if (located) {
+            townX[source] = coordinates[0];
+            townY[source] = coordinates[1];
+            townX[destination] = coordinates[2];
+            townY[destination] = coordinates[3];
+        }
+        if (roadCount == weights.length) {
+            roadNames = Arrays.copyOf(roadNames, roadCount * 2);
+            weights = Arrays.copyOf(weights, roadCount * 2);
+            sources = Arrays.copyOf(sources, roadCount * 2);
+            destinations = Arrays.copyOf(destinations, roadCount * 2);
+        }
+        roadNames[roadCount] = name;
+        weights[roadCount] = weight;
+        sources[roadCount] = source;
+        destinations[roadCount] = destination;
+        roadCount++;
+    }
+
+    private void error(String reason) {
+        if (++errorCount <= MAX_REPORTED) {
+            errorLines.add(lineNumber);
+            errorReasons.add(reason);
+        }
+    }
+
+    /**
+     * Adds the kept error messages to a list.
+     * @param errors the list to add to
+     * @param lineOffset the number of lines in the file before this parser's part
+     */
+    private void reportErrors(List<String> errors, long lineOffset) {
+        for (int i = 0; i < errorLines.size(); i++)
+            errors.add("line " + (lineOffset + errorLines.get(i)) + ": " + errorReasons.get(i));
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (line[i] == c) return i;
+        return -1;
+    }
+
+    /**
+     * @return the weight between from and to, or -1 if it is not a
+     * non-negative int
+     */
+    private int parseWeight(int from, int to) {
+        while (from < to && line[from] == ' ') from++;
+        while (to > from && line[to - 1] == ' ') to--;
+        if (from == to) return -1;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) return -1;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses an "x,y" field into coordinates[offset] and coordinates[offset + 1].
+     * @param field the index of the field
+     * @param offset where to store x
+     * @return false if the field is not two numbers
+     */
+    private boolean parsePoint(int field, int offset) {
+        int comma = indexOf(',', starts[field], ends[field]);
+        if (comma == -1) return false;
+        coordinates[offset] = parseNumber(starts[field], comma);
+        coordinates[offset + 1] = parseNumber(comma + 1, ends[field]);
+        return !Double.isNaN(coordinates[offset]) && !Double.isNaN(coordinates[offset + 1]);
+    }
+
+    /**
+     * Parses a decimal number such as "-77.0365". Numbers with up to 15
+     * digits and 22 decimal places are worked out exactly from the bytes;
+     * anything else goes through Double.parseDouble.
+     * @return the number, or NaN if it is malformed
+     */
+    private double parseNumber(int from, int to) {
+        while (from < to && line[from] == ' ') from++;
+        while (to > from && line[to - 1] == ' ') to--;
+        int i = from;
+        boolean negative = i < to && line[i] == '-';
+        if (i < to && (line[i] == '-' || line[i] == '+')) i++;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            byte b = line[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) scale++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i == to && digits > 0 && digits <= 15 && scale < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(line, from, to - from, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the id of a town name, giving it the next id and making its
+     * String only on the first sighting.
+     */
+    private int town(int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) hash = 31 * hash + line[i];
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            if (hashes[slot] == hash && matches(keys[slot], from, to)) return slots[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        byte[] key = Arrays.copyOfRange(line, from, to);
+        if (townCount == townNames.length) {
+            townNames = Arrays.copyOf(townNames, townCount * 2);
+            townX = Arrays.copyOf(townX, townCount * 2);
+            townY = Arrays.copyOf(townY, townCount * 2);
+        }
+        int id = townCount++;
+        townNames[id] = new String(key, StandardCharsets.UTF_8);
+        townX[id] = Double.NaN;
+        townY[id] = Double.NaN;
+        slots[slot] = id + 1;
+        keys[slot] = key;
+        hashes[slot] = hash;
+        if (townCount * 2 > slots.length) grow();
+        return id;
+    }
+
+    private boolean matches(byte[] key, int from, int to) {
+        if (key.length != to - from) return false;
+        for (int i = 0; i < key.length; i++)
+            if (key[i] != line[from + i]) return false;
+        return true;
+    }
+
+    private void grow() {
+        int[] oldSlots = slots;
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        slots = new int[oldSlots.length * 2];
+        keys = new byte[slots.length][];
+        hashes = new int[slots.length];
+        int mask = slots.length - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0) continue;
+            int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = oldSlots[i];
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The purpose of RoadTable is to hold a parsed road file in flat arrays,
+ * with the towns numbered densely in order of first appearance, so that
+ * Graph can add the whole file in one pass without looking anything up by
+ * name.
+ *
+ * @author Joshua Gizaw
+ */
+public class RoadTable {
+    private final String[] towns;
+    private final double[] x;
+    private final double[] y;
+    private final String[] names;
+    private final int[] weights;
+    private final int[] sources;
+    private final int[] destinations;
+    private final List<String> errors;
+
+    /**
+     * @param towns the town names, by id
+     * @param x the x coordinate of each town, or NaN if the file gave none
+     * @param y the y coordinate of each town, or NaN if the file gave none
+     * @param names the road names, in file order
+     * @param weights the road weights
+     * @param sources the id of the source town of each road
+     * @param destinations the id of the destination town of each road
+     * @param errors the messages for the malformed lines that were skipped
+     */
+    public RoadTable(String[] towns, double[] x, double[] y, String[] names, int[] weights,
+            int[] sources, int[] destinations, List<String> errors) {
+        this.towns = towns;
+        this.x = x;
+        this.y = y;
+        this.names = names;
+        this.weights = weights;
+        this.sources = sources;
+        this.destinations = destinations;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return the number of distinct towns
+     */
+    public int townCount() {
+        return towns.length;
+    }
+
+    /**
+     * @param id a town id
+     * @return the name of the town
+     */
+    public String townName(int id) {
+        return towns[id];
+    }
+
+    /**
+     * @param id a town id
+     * @return true if the file gave coordinates for the town
+     */
+    public boolean hasCoordinates(int id) {
+        return !Double.isNaN(x[id]);
+    }
+
+    /**
+     * @param id a town id
+     * @return the last x coordinate the file gave for the town, or NaN
+     */
+    public double townX(int id) {
+        return x[id];
+    }
+
+    /**
+     * @param id a town id
+     * @return the last y coordinate the file gave for the town, or NaN
+     */
+    public double townY(int id) {
+        return y[id];
+    }
+
+    /**
+     * @return the number of roads, counting any repeated town pairs
+     */
+    public int roadCount() {
+        return names.length;
+    }
+
+    /**
+     * @param road a road index, in file order
+     * @return the road name
+     */
+    public String roadName(int road) {
+        return names[road];
+    }
+
+    /**
+     * @param road a road index
+     * @return the road weight
+     */
+    public int roadWeight(int road) {
+        return weights[road];
+    }
+
+    /**
+     * @param road a road index
+     * @return the id of the source town
+     */
+    public int roadSource(int road) {
+        return sources[road];
+    }
+
+    /**
+     * @param road a road index
+     * @return the id of the destination town
+     */
+    public int roadDestination(int road) {
+        return destinations[road];
+    }
+
+    /**
+     * @return a message with the line number of each malformed line skipped
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
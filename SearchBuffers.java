@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/**
+ * The purpose of SearchBuffers is to hold the working arrays of one
+ * shortest path search over a GraphSnapshot so they can be reused from
+ * one query to the next. Rather than refilling the arrays before every
+ * search, each entry is stamped with the search it was written by, so a
+ * reset costs O(1) and a search only pays for the towns it touches.
+ * 
+ * @author Joshua Gizaw
+ */
+public class SearchBuffers {
+    private final int[] distance;
+    private final int[] parent;
+    private final int[] parentRoad;
+    private final int[] reached;
+    private final int[] settled;
+    private final LongMinHeap heap;
+    private int stamp;
+    private int settledCount;
+
+    /**
+     * @param size the number of towns in the snapshot being searched
+     */
+    public SearchBuffers(int size) {
+        distance = new int[size];
+        parent = new int[size];
+        parentRoad = new int[size];
+        reached = new int[size];
+        settled = new int[size];
+        heap = new LongMinHeap(16);
+        stamp = 0;
+    }
+
+    /**
+     * Forgets the previous search so the buffers can be used for a new one.
+     */
+    public void reset() {
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            stamp = 1;
+        }
+        heap.clear();
+        settledCount = 0;
+    }
+
+    /**
+     * @return the number of towns these buffers can hold
+     */
+    public int capacity() {
+        return distance.length;
+    }
+
+    /**
+     * @return the frontier of the current search
+     */
+    public LongMinHeap heap() {
+        return heap;
+    }
+
+    /**
+     * @param node a dense town id
+     * @return the tentative distance of the town, or Integer.MAX_VALUE if
+     * the current search has not reached it
+     */
+    public int distance(int node) {
+        return reached[node] == stamp ? distance[node] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Records a new tentative distance for a town and queues it.
+     * @param node the town reached
+     * @param dist its tentative distance
+     * @param from the town it was reached from, or -1 for a start town
+     * @param road the id of the road used, or -1 for a start town
+     */
+    public void reach(int node, int dist, int from, int road) {
+        reach(node, dist, from, road, dist);
+    }
+
+    /**
+     * Records a new tentative distance for a town and queues it under a
+     * different priority, as goal-directed searches do.
+     * @param node the town reached
+     * @param dist its tentative distance
+     * @param from the town it was reached from, or -1 for a start town
+     * @param road the id of the road used, or -1 for a start town
+     * @param key the priority to queue the town with
+     */
+    public void reach(int node, int dist, int from, int road, int key) {
+        reached[node] = stamp;
+        distance[node] = dist;
+        parent[node] = from;
+        parentRoad[node] = road;
+        heap.add(LongMinHeap.pack(key, node));
+    }
+
+    /**
+     * @param node a dense town id
+     * @return true if the current search has settled the town
+     */
+    public boolean isSettled(int node) {
+        return settled[node] == stamp;
+    }
+
+    /**
+     * Marks a town as settled by the current search.
+     * @param node a dense town id
+     */
+    public void settle(int node) {
+        settled[node] = stamp;
+        settledCount++;
+    }
+
+    /**
+     * @return the number of towns settled by the current search
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * @return the parent links written by the current search; only the
+     * entries of reached towns are meaningful
+     */
+    public int[] parents() {
+        return parent;
+    }
+
+    /**
+     * @return the parent road ids written by the current search; only the
+     * entries of reached towns are meaningful
+     */
+    public int[] parentRoads() {
+        return parentRoad;
+    }
+}
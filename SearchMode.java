@@ -0,0 +1,29 @@
+/**
+ * The purpose of SearchMode is to name the algorithms that Graph and
+ * TownGraphManager can use to answer a point-to-point shortest path query.
+ * Every mode returns a shortest path; they differ only in how much of the
+ * graph they have to look at to find it.
+ * 
+ * @author Joshua Gizaw
+ */
+public enum SearchMode {
+    /** Plain Dijkstra from the source, stopping once the destination is settled. */
+    DIJKSTRA,
+    /** Dijkstra from both ends at once, stopping once the two searches meet. */
+    BIDIRECTIONAL,
+    /**
+     * Dijkstra guided by the straight-line distance to the destination.
+     * Falls back to DIJKSTRA when any town has no coordinates.
+     */
+    ASTAR,
+    /**
+     * A* guided by landmark distance tables (see LandmarkIndex). Falls back
+     * to BIDIRECTIONAL when no landmarks are built for the current graph.
+     */
+    ALT,
+    /**
+     * Upward searches over a contraction hierarchy (see ContractionHierarchy).
+     * Falls back to BIDIRECTIONAL when no hierarchy is built for the current graph.
+     */
+    CONTRACTION_HIERARCHY
+}
@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+/**
+ * The purpose of ShortestPathTree is to hold the full result of a single
+ * source search over a GraphSnapshot in primitive arrays: the distance of
+ * every town from the source, and the town and road each was reached by.
+ * 
+ * @author Joshua Gizaw
+ */
+public class ShortestPathTree {
+    private final GraphSnapshot graph;
+    private final int source;
+    private final int[] distance;
+    private final int[] parent;
+    private final int[] parentRoad;
+
+    /**
+     * @param graph the snapshot the tree was computed over
+     * @param source the id of the source town
+     * @param distance the distance of each town, Integer.MAX_VALUE if unreachable
+     * @param parent the previous town on the path to each town, -1 for none
+     * @param parentRoad the road used to reach each town, -1 for none
+     */
+    public ShortestPathTree(GraphSnapshot graph, int source, int[] distance, int[] parent, int[] parentRoad) {
+        this.graph = graph;
+        this.source = source;
+        this.distance = distance;
+        this.parent = parent;
+        this.parentRoad = parentRoad;
+    }
+
+    /**
+     * @return the snapshot the tree was computed over
+     */
+    public GraphSnapshot getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the id of the source town
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * @param node a dense town id
+     * @return the distance of the town from the source, or Integer.MAX_VALUE
+     * if it cannot be reached
+     */
+    public int distanceTo(int node) {
+        return distance[node];
+    }
+
+    /**
+     * @param node a dense town id
+     * @return true if the town can be reached from the source
+     */
+    public boolean reaches(int node) {
+        return distance[node] != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param node a dense town id
+     * @return the previous town on the shortest path to the town, or -1
+     */
+    public int parentOf(int node) {
+        return parent[node];
+    }
+
+    /**
+     * @param node a dense town id
+     * @return the id of the road the town was reached by, or -1
+     */
+    public int parentRoadOf(int node) {
+        return parentRoad[node];
+    }
+
+    /**
+     * @param node a dense town id
+     * @return the shortest path from the source to the town, or null if it
+     * cannot be reached
+     */
+    public PathResult pathTo(int node) {
+        if (!reaches(node)) return null;
+        return graph.buildPath(node, parent, parentRoad, distance[node]);
+    }
+
+    /**
+     * Returns this tree updated for a change in the weight of one road,
+     * without searching the whole graph again. If the road got shorter, a
+     * search spreads out from the end it brings closer and stops wherever
+     * distances no longer improve. If it got longer and lies on the tree,
+     * only the towns below it in the tree can move: they are cut off, each
+     * is offered the best distance through a neighbor outside the cut-off
+     * part, and they are then settled among themselves. Otherwise the tree
+     * is unchanged and is only moved onto the new snapshot.
+     * @param updated the snapshot with the new weight, with the same town
+     * and road ids as this tree's snapshot
+     * @param road the id of the changed road
+     * @param oldWeight the weight of the road before the change
+     * @return the tree over the updated snapshot
+     */
+    public ShortestPathTree repair(GraphSnapshot updated, int road, int oldWeight) {
+        Road changed = updated.roadAt(road);
+        int u = updated.idOf(changed.getSource());
+        int v = updated.idOf(changed.getDestination());
+        int weight = changed.getWeight();
+        if (u == v || weight == oldWeight) return new ShortestPathTree(updated, source, distance, parent, parentRoad);
+        if (weight < oldWeight) {
+            if (!shortens(u, v, weight) && !shortens(v, u, weight))
+                return new ShortestPathTree(updated, source, distance, parent, parentRoad);
+            int[] d = distance.clone();
+            int[] p = parent.clone();
+            int[] pr = parentRoad.clone();
+            LongMinHeap heap = new LongMinHeap(16);
+            if (shortens(u, v, weight)) relax(u, v, weight, road, d, p, pr, heap);
+            else relax(v, u, weight, road, d, p, pr, heap);
+            settle(updated, d, p, pr, heap, null);
+            return new ShortestPathTree(updated, source, d, p, pr);
+        }
+
+        int child = parent[v] == u && parentRoad[v] == road ? v : parent[u] == v && parentRoad[u] == road ? u : -1;
+        if (child == -1) return new ShortestPathTree(updated, source, distance, parent, parentRoad);
+        int[] d = distance.clone();
+        int[] p = parent.clone();
+        int[] pr = parentRoad.clone();
+        // Collect the subtree below the road by following parent links downward
+        boolean[] cut = new boolean[d.length];
+        int[] subtree = new int[16];
+        int count = 0;
+        subtree[count++] = child;
+        cut[child] = true;
+        for (int i = 0; i < count; i++) {
+            int node = subtree[i];
+            for (int arc = updated.firstArc(node); arc < updated.endArc(node); arc++) {
+                int next = updated.arcTarget(arc);
+                if (!cut[next] && p[next] == node && pr[next] == updated.arcRoad(arc)) {
+                    if (count == subtree.length) subtree = Arrays.copyOf(subtree, count * 2);
+                    subtree[count++] = next;
+                    cut[next] = true;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int node = subtree[i];
+            d[node] = Integer.MAX_VALUE;
+            p[node] = -1;
+            pr[node] = -1;
+        }
+        LongMinHeap heap = new LongMinHeap(count);
+        for (int i = 0; i < count; i++) {
+            int node = subtree[i];
+            for (int arc = updated.firstArc(node); arc < updated.endArc(node); arc++) {
+                int next = updated.arcTarget(arc);
+                if (!cut[next]) relax(next, node, updated.arcWeight(arc), updated.arcRoad(arc), d, p, pr, null);
+            }
+            if (d[node] != Integer.MAX_VALUE) heap.add(LongMinHeap.pack(d[node], node));
+        }
+        settle(updated, d, p, pr, heap, cut);
+        return new ShortestPathTree(updated, source, d, p, pr);
+    }
+
+    /**
+     * @return true if going from one end of the road to the other at the
+     * given weight beats the tree's distance to the other end
+     */
+    private boolean shortens(int from, int to, int weight) {
+        return distance[from] != Integer.MAX_VALUE && (long) distance[from] + weight < distance[to];
+    }
+
+    /**
+     * Moves to through from if that is shorter, queueing to if a heap is given.
+     */
+    private static void relax(int from, int to, int weight, int road, int[] d, int[] p, int[] pr, LongMinHeap heap) {
+        if (d[from] == Integer.MAX_VALUE || (long) d[from] + weight >= d[to]) return;
+        d[to] = d[from] + weight;
+        p[to] = from;
+        pr[to] = road;
+        if (heap != null) heap.add(LongMinHeap.pack(d[to], to));
+    }
+
+    /**
+     * Runs Dijkstra from the queued towns, only relaxing into towns marked
+     * in within, or into any town if within is null.
+     */
+    private static void settle(GraphSnapshot graph, int[] d, int[] p, int[] pr, LongMinHeap heap, boolean[] within) {
+        while (!heap.isEmpty()) {
+            long entry = heap.poll();
+            int node = LongMinHeap.node(entry);
+            if (LongMinHeap.distance(entry) > d[node]) continue;
+            for (int arc = graph.firstArc(node); arc < graph.endArc(node); arc++) {
+                int next = graph.arcTarget(arc);
+                if (within == null || within[next]) relax(node, next, graph.arcWeight(arc), graph.arcRoad(arc), d, p, pr, heap);
+            }
+        }
+    }
+}
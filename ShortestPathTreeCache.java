@@ -0,0 +1,159 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * The purpose of ShortestPathTreeCache is to keep the shortest path trees
+ * of the most recently queried source towns, so that repeated queries from
+ * the same town are answered by walking a stored tree instead of searching
+ * again. It holds at most a fixed number of trees and evicts the least
+ * recently used one first. Every tree is tied to the snapshot it was
+ * computed over; the first lookup on a newer snapshot drops them all,
+ * unless the change was a new road weight, which the trees are repaired for.
+ * Lookups on an older snapshot, such as from queries still running on a
+ * version that copy-on-write has replaced, miss without dropping anything,
+ * so one cache can be shared by every version of a graph.
+ * 
+ * @author Joshua Gizaw
+ */
+public class ShortestPathTreeCache {
+    private final int capacity;
+    private final LinkedHashMap<Integer, ShortestPathTree> trees;
+    private GraphSnapshot graph;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private long repairs;
+
+    /**
+     * @param capacity the largest number of trees to keep
+     */
+    public ShortestPathTreeCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Cache capacity must be at least 1");
+        this.capacity = capacity;
+        trees = new LinkedHashMap<Integer, ShortestPathTree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ShortestPathTree> eldest) {
+                if (size() <= ShortestPathTreeCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Looks up the tree of a source town.
+     * @param source the dense id of the source town
+     * @param snapshot the snapshot the source id belongs to
+     * @return the cached tree, or null if there is none over this snapshot
+     */
+    public synchronized ShortestPathTree get(int source, GraphSnapshot snapshot) {
+        ShortestPathTree tree = follow(snapshot) ? trees.get(source) : null;
+        if (tree == null) misses++;
+        else hits++;
+        return tree;
+    }
+
+    /**
+     * Stores a tree, evicting the least recently used tree if the cache is
+     * full. A tree over an older snapshot than the cache's is not stored.
+     * @param tree the tree to store
+     */
+    public synchronized void put(ShortestPathTree tree) {
+        if (follow(tree.getGraph())) trees.put(tree.getSource(), tree);
+    }
+
+    /**
+     * Moves every tree to a new snapshot of the graph by repairing it,
+     * rather than dropping them all as the first lookup on the new snapshot
+     * would.
+     * @param from the snapshot the trees must be over; if they are over
+     * another, nothing is repaired
+     * @param to the new snapshot
+     * @param repair returns a tree's replacement over the new snapshot
+     */
+    public synchronized void repair(GraphSnapshot from, GraphSnapshot to, UnaryOperator<ShortestPathTree> repair) {
+        if (graph != from) return;
+        for (Map.Entry<Integer, ShortestPathTree> entry : trees.entrySet()) entry.setValue(repair.apply(entry.getValue()));
+        repairs += trees.size();
+        graph = to;
+    }
+
+    /**
+     * Drops every tree.
+     */
+    public synchronized void clear() {
+        if (!trees.isEmpty()) invalidations++;
+        trees.clear();
+    }
+
+    /**
+     * Moves the cache to a newer snapshot, dropping its trees.
+     * @return true if the cache now holds trees over snapshot, false if
+     * snapshot is not newer than the one the trees are over
+     */
+    private boolean follow(GraphSnapshot snapshot) {
+        if (snapshot == graph) return true;
+        if (graph != null && snapshot.getVersion() <= graph.getVersion()) return false;
+        clear();
+        graph = snapshot;
+        return true;
+    }
+
+    /**
+     * @return the largest number of trees kept
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of trees currently kept
+     */
+    public synchronized int size() {
+        return trees.size();
+    }
+
+    /**
+     * @return the number of lookups that found a tree
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found no tree
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of trees dropped to make room for newer ones
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of times the cache was emptied because the graph changed
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the number of trees repaired in place after a road's weight changed
+     */
+    public synchronized long getRepairs() {
+        return repairs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ShortestPathTreeCache: " + trees.size() + "/" + capacity + " trees, " + hits + " hits, "
+                + misses + " misses, " + evictions + " evictions, " + invalidations + " invalidations, "
+                + repairs + " repairs";
+    }
+}
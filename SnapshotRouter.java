@@ -0,0 +1,364 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The purpose of SnapshotRouter is to answer shortest path queries over a
+ * GraphSnapshot. It keeps one set of SearchBuffers and reuses them for
+ * every query, so a search allocates nothing until a path is handed back.
+ * A router is not safe for use by more than one thread at a time.
+ * 
+ * @author Joshua Gizaw
+ */
+public class SnapshotRouter {
+    private final GraphSnapshot graph;
+    private final SearchBuffers buffers;
+    private SearchBuffers backward;
+    private LandmarkIndex landmarks;
+    private ContractionHierarchy hierarchy;
+    private boolean validating;
+    private int lastSettled;
+
+    /**
+     * @param graph the snapshot to route over
+     */
+    public SnapshotRouter(GraphSnapshot graph) {
+        this.graph = graph;
+        this.buffers = new SearchBuffers(graph.size());
+    }
+
+    /**
+     * @return the snapshot this router searches
+     */
+    public GraphSnapshot getGraph() {
+        return graph;
+    }
+
+    /**
+     * Sets the landmark tables used by ALT searches. Tables computed for a
+     * different version of the graph are ignored.
+     * @param landmarks the landmark tables, or null for none
+     */
+    public void setLandmarks(LandmarkIndex landmarks) {
+        this.landmarks = landmarks != null && landmarks.getVersion() == graph.getVersion() ? landmarks : null;
+    }
+
+    /**
+     * Sets the contraction hierarchy used by CONTRACTION_HIERARCHY searches.
+     * A hierarchy built for a different version of the graph is ignored.
+     * @param hierarchy the hierarchy, or null for none
+     */
+    public void setHierarchy(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy != null && hierarchy.getVersion() == graph.getVersion() ? hierarchy : null;
+    }
+
+    /**
+     * Turns on cross-checking of every contraction hierarchy answer against
+     * plain Dijkstra. This is slow and meant for testing new preprocessing.
+     * @param validating true to cross-check
+     */
+    public void setValidating(boolean validating) {
+        this.validating = validating;
+    }
+
+    /**
+     * @return the number of towns settled by the last query
+     */
+    public int lastSettledCount() {
+        return lastSettled;
+    }
+
+    /**
+     * Finds the shortest path between two towns, stopping as soon as the
+     * destination is settled.
+     * @param source the id of the starting town
+     * @param target the id of the ending town
+     * @return the shortest path, or null if target cannot be reached
+     */
+    public PathResult shortestPath(int source, int target) {
+        return shortestPath(source, target, SearchMode.DIJKSTRA);
+    }
+
+    /**
+     * Finds the shortest path between two towns with the given algorithm.
+     * @param source the id of the starting town
+     * @param target the id of the ending town
+     * @param mode the algorithm to use
+     * @return the shortest path, or null if target cannot be reached
+     */
+    public PathResult shortestPath(int source, int target, SearchMode mode) {
+        if (mode == SearchMode.CONTRACTION_HIERARCHY) {
+            if (hierarchy != null) return hierarchyPath(source, target);
+            mode = SearchMode.BIDIRECTIONAL;
+        }
+        if (mode == SearchMode.ALT) {
+            if (landmarks != null) return aStar(source, target, landmarks);
+            mode = SearchMode.BIDIRECTIONAL;
+        }
+        if (mode == SearchMode.BIDIRECTIONAL) return bidirectional(source, target);
+        if (mode == SearchMode.ASTAR && graph.hasCoordinates()) return aStar(source, target, null);
+        search(source, target);
+        lastSettled = buffers.settledCount();
+        int dist = buffers.distance(target);
+        if (dist == Integer.MAX_VALUE) return null;
+        return graph.buildPath(target, buffers.parents(), buffers.parentRoads(), dist);
+    }
+
+    /**
+     * Computes the distance from the source to every town.
+     * @param source the id of the starting town
+     * @return the full shortest path tree of the source
+     */
+    public ShortestPathTree shortestPathTree(int source) {
+        search(source, -1);
+        lastSettled = buffers.settledCount();
+        int size = graph.size();
+        int[] distance = new int[size];
+        int[] parent = new int[size];
+        int[] parentRoad = new int[size];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        Arrays.fill(parent, -1);
+        Arrays.fill(parentRoad, -1);
+        int[] parents = buffers.parents();
+        int[] parentRoads = buffers.parentRoads();
+        for (int i = 0; i < size; i++) {
+            int dist = buffers.distance(i);
+            if (dist != Integer.MAX_VALUE) {
+                distance[i] = dist;
+                parent[i] = parents[i];
+                parentRoad[i] = parentRoads[i];
+            }
+        }
+        return new ShortestPathTree(graph, source, distance, parent, parentRoad);
+    }
+
+    /**
+     * Finds the shortest paths from one source to several targets with a
+     * single search, which stops once every target is settled.
+     * @param source the id of the starting town
+     * @param targets the ids of the ending towns; repeats are allowed
+     * @return the path to each target in the same order, null where a
+     * target cannot be reached
+     */
+    public PathResult[] shortestPaths(int source, int[] targets) {
+        buffers.reset();
+        buffers.reach(source, 0, -1, -1);
+        int[] wanted = Arrays.stream(targets).distinct().sorted().toArray();
+        int remaining = wanted.length;
+        LongMinHeap heap = buffers.heap();
+        while (!heap.isEmpty() && remaining > 0) {
+            long entry = heap.poll();
+            int current = LongMinHeap.node(entry);
+            if (buffers.isSettled(current)) continue;
+            buffers.settle(current);
+            if (Arrays.binarySearch(wanted, current) >= 0) remaining--;
+
+            int dist = LongMinHeap.distance(entry);
+            for (int arc = graph.firstArc(current), end = graph.endArc(current); arc < end; arc++) {
+                int next = graph.arcTarget(arc);
+                int candidate = dist + graph.arcWeight(arc);
+                if (candidate < buffers.distance(next) && !buffers.isSettled(next))
+                    buffers.reach(next, candidate, current, graph.arcRoad(arc));
+            }
+        }
+        lastSettled = buffers.settledCount();
+        PathResult[] paths = new PathResult[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            int dist = buffers.distance(targets[i]);
+            if (dist != Integer.MAX_VALUE)
+                paths[i] = graph.buildPath(targets[i], buffers.parents(), buffers.parentRoads(), dist);
+        }
+        return paths;
+    }
+
+    /**
+     * Finds the towns closest to the source that pass a test, stopping as
+     * soon as k of them are settled. The source itself counts if it passes.
+     * Only the result list is allocated; the search reuses this router's
+     * buffers.
+     * @param source the id of the starting town
+     * @param k the largest number of towns to return
+     * @param wanted the test a town must pass to be counted
+     * @return the matching towns and their distances, closest first; fewer
+     * than k if not enough matching towns can be reached
+     */
+    public List<TownDistance> nearest(int source, int k, Predicate<Town> wanted) {
+        List<TownDistance> found = new ArrayList<>(Math.max(0, Math.min(k, 64)));
+        buffers.reset();
+        if (k > 0) buffers.reach(source, 0, -1, -1);
+        LongMinHeap heap = buffers.heap();
+        while (!heap.isEmpty()) {
+            long entry = heap.poll();
+            int current = LongMinHeap.node(entry);
+            if (buffers.isSettled(current)) continue;
+            buffers.settle(current);
+            int dist = LongMinHeap.distance(entry);
+            if (wanted.test(graph.townAt(current))) {
+                found.add(new TownDistance(graph.townAt(current), dist));
+                if (found.size() == k) break;
+            }
+
+            for (int arc = graph.firstArc(current), end = graph.endArc(current); arc < end; arc++) {
+                int next = graph.arcTarget(arc);
+                int candidate = dist + graph.arcWeight(arc);
+                if (candidate < buffers.distance(next) && !buffers.isSettled(next))
+                    buffers.reach(next, candidate, current, graph.arcRoad(arc));
+            }
+        }
+        lastSettled = buffers.settledCount();
+        return found;
+    }
+
+    /**
+     * Writes the distance from the source to every town into out, without
+     * keeping the tree. Unreachable towns get Integer.MAX_VALUE.
+     * @param source the id of the starting town
+     * @param out the array to write into
+     * @param offset the index in out that town 0's distance goes to
+     */
+    public void distancesFrom(int source, int[] out, int offset) {
+        search(source, -1);
+        lastSettled = buffers.settledCount();
+        for (int i = 0, size = graph.size(); i < size; i++) out[offset + i] = buffers.distance(i);
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from source until target is settled, or
+     * until every reachable town is settled if target is -1.
+     */
+    private void search(int source, int target) {
+        buffers.reset();
+        buffers.reach(source, 0, -1, -1);
+        LongMinHeap heap = buffers.heap();
+        while (!heap.isEmpty()) {
+            long entry = heap.poll();
+            int current = LongMinHeap.node(entry);
+            if (buffers.isSettled(current)) continue;
+            buffers.settle(current);
+            if (current == target) return;
+
+            int dist = LongMinHeap.distance(entry);
+            for (int arc = graph.firstArc(current), end = graph.endArc(current); arc < end; arc++) {
+                int next = graph.arcTarget(arc);
+                int candidate = dist + graph.arcWeight(arc);
+                if (candidate < buffers.distance(next) && !buffers.isSettled(next))
+                    buffers.reach(next, candidate, current, graph.arcRoad(arc));
+            }
+        }
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from both ends, always growing the side whose
+     * frontier is closer. Every time an arc touches a town the other side has
+     * reached, the best known source-to-target distance is updated; once the
+     * two frontier minimums add up to at least that distance, no shorter
+     * path can exist.
+     */
+    private PathResult bidirectional(int source, int target) {
+        if (backward == null) backward = new SearchBuffers(graph.size());
+        SearchBuffers forward = buffers;
+        forward.reset();
+        backward.reset();
+        forward.reach(source, 0, -1, -1);
+        backward.reach(target, 0, -1, -1);
+        int best = source == target ? 0 : Integer.MAX_VALUE;
+        int meet = source == target ? source : -1;
+
+        while (!forward.heap().isEmpty() && !backward.heap().isEmpty()) {
+            long topForward = forward.heap().peek();
+            long topBackward = backward.heap().peek();
+            if ((long) LongMinHeap.distance(topForward) + LongMinHeap.distance(topBackward) >= best) break;
+
+            boolean growForward = LongMinHeap.distance(topForward) <= LongMinHeap.distance(topBackward);
+            SearchBuffers side = growForward ? forward : backward;
+            SearchBuffers other = growForward ? backward : forward;
+            long entry = side.heap().poll();
+            int current = LongMinHeap.node(entry);
+            if (side.isSettled(current)) continue;
+            side.settle(current);
+
+            int dist = LongMinHeap.distance(entry);
+            for (int arc = graph.firstArc(current), end = graph.endArc(current); arc < end; arc++) {
+                int next = graph.arcTarget(arc);
+                int candidate = dist + graph.arcWeight(arc);
+                if (candidate < side.distance(next) && !side.isSettled(next))
+                    side.reach(next, candidate, current, graph.arcRoad(arc));
+                int otherDist = other.distance(next);
+                if (otherDist != Integer.MAX_VALUE && (long) side.distance(next) + otherDist < best) {
+                    best = side.distance(next) + otherDist;
+                    meet = next;
+                }
+            }
+        }
+        lastSettled = forward.settledCount() + backward.settledCount();
+        if (meet == -1) return null;
+
+        // The forward parents lead from meet back to the source and the
+        // backward parents lead from meet on to the target
+        PathResult head = graph.buildPath(meet, forward.parents(), forward.parentRoads(), forward.distance(meet));
+        ArrayList<Town> towns = new ArrayList<>(head.getTowns());
+        ArrayList<Road> roads = new ArrayList<>(head.getRoads());
+        int[] parents = backward.parents();
+        int[] parentRoads = backward.parentRoads();
+        for (int current = meet; parents[current] != -1; current = parents[current]) {
+            roads.add(graph.roadAt(parentRoads[current]));
+            towns.add(graph.townAt(parents[current]));
+        }
+        return new PathResult(towns, roads, best);
+    }
+
+    /**
+     * Runs A* from source to target, queueing each town by its distance plus
+     * a lower bound on its distance to the target: the landmark bound if
+     * landmarks are given, otherwise the straight-line bound. Both bounds are
+     * consistent, so a town's distance is final once it is settled, as in
+     * Dijkstra.
+     */
+    private PathResult aStar(int source, int target, LandmarkIndex landmarks) {
+        buffers.reset();
+        buffers.reach(source, 0, -1, -1, bound(source, target, landmarks));
+        LongMinHeap heap = buffers.heap();
+        while (!heap.isEmpty()) {
+            int current = LongMinHeap.node(heap.poll());
+            if (buffers.isSettled(current)) continue;
+            buffers.settle(current);
+            if (current == target) break;
+
+            int dist = buffers.distance(current);
+            for (int arc = graph.firstArc(current), end = graph.endArc(current); arc < end; arc++) {
+                int next = graph.arcTarget(arc);
+                int candidate = dist + graph.arcWeight(arc);
+                if (candidate < buffers.distance(next) && !buffers.isSettled(next))
+                    buffers.reach(next, candidate, current, graph.arcRoad(arc),
+                            candidate + bound(next, target, landmarks));
+            }
+        }
+        lastSettled = buffers.settledCount();
+        int dist = buffers.distance(target);
+        if (dist == Integer.MAX_VALUE) return null;
+        return graph.buildPath(target, buffers.parents(), buffers.parentRoads(), dist);
+    }
+
+    private int bound(int from, int to, LandmarkIndex landmarks) {
+        return landmarks != null ? landmarks.lowerBound(from, to) : graph.straightLineBound(from, to);
+    }
+
+    private PathResult hierarchyPath(int source, int target) {
+        if (backward == null) backward = new SearchBuffers(graph.size());
+        PathResult result = hierarchy.shortestPath(source, target, buffers, backward);
+        lastSettled = buffers.settledCount() + backward.settledCount();
+        if (validating) {
+            search(source, target);
+            int expected = buffers.distance(target);
+            int actual = result == null ? Integer.MAX_VALUE : result.getTotalWeight();
+            int summed = 0;
+            if (result != null) for (Road r : result.getRoads()) summed += r.getWeight();
+            if (expected != actual || (result != null && summed != actual))
+                throw new IllegalStateException("Contraction hierarchy gave " + actual + " from "
+                        + graph.townAt(source).getName() + " to " + graph.townAt(target).getName()
+                        + " but Dijkstra gave " + expected);
+        }
+        return result;
+    }
+}
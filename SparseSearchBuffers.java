@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+/**
+ * The purpose of SparseSearchBuffers is to hold the state of one shortest
+ * path search only for the towns it reaches, in an open addressing table
+ * from town id to slot. Unlike SearchBuffers, nothing is sized to the
+ * whole graph, so a search that stays near its source costs memory and
+ * time in proportion to the towns it touches. The arrays are indexed by
+ * the slot that find returns.
+ *
+ * @author Joshua Gizaw
+ */
+class SparseSearchBuffers {
+    private final LongMinHeap heap = new LongMinHeap(64);
+    //Town id + 1, or 0 for an empty slot
+    private int[] keys = new int[256];
+    private int[] distance = new int[256];
+    private int[] parent = new int[256];
+    private int[] parentArc = new int[256];
+    private boolean[] settled = new boolean[256];
+    private int size;
+
+    /**
+     * Forgets the previous search so the buffers can be used for a new one.
+     */
+    void clear() {
+        heap.clear();
+        //A big search leaves a big table behind, so drop it rather than clear it
+        if (keys.length > 1 << 16) resize(256);
+        else Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    /**
+     * @return the frontier of the current search
+     */
+    LongMinHeap heap() {
+        return heap;
+    }
+
+    /**
+     * @return the slot of node, which must have been reached
+     */
+    int find(int node) {
+        int mask = keys.length - 1;
+        int slot = home(node, mask);
+        while (keys[slot] != node + 1) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Records a path to node if it is shorter than the best known.
+     * @return true if node was improved
+     */
+    boolean reach(int node, int dist, int from, int arc) {
+        int mask = keys.length - 1;
+        int slot = home(node, mask);
+        while (keys[slot] != 0 && keys[slot] != node + 1) slot = (slot + 1) & mask;
+        if (keys[slot] == 0) {
+            keys[slot] = node + 1;
+            settled[slot] = false;
+            size++;
+        } else if (settled[slot] || dist >= distance[slot]) {
+            return false;
+        }
+        distance[slot] = dist;
+        parent[slot] = from;
+        parentArc[slot] = arc;
+        if (size * 2 > keys.length) resize(keys.length * 2);
+        return true;
+    }
+
+    /**
+     * @param slot a slot returned by find
+     * @return the tentative distance of the town in the slot
+     */
+    int distance(int slot) {
+        return distance[slot];
+    }
+
+    /**
+     * @param slot a slot returned by find
+     * @return the town the one in the slot was reached from, or -1 for the
+     * start town
+     */
+    int parent(int slot) {
+        return parent[slot];
+    }
+
+    /**
+     * @param slot a slot returned by find
+     * @return the arc the town in the slot was reached by, or -1 for the
+     * start town
+     */
+    int parentArc(int slot) {
+        return parentArc[slot];
+    }
+
+    /**
+     * @param slot a slot returned by find
+     * @return true if the current search has settled the town in the slot
+     */
+    boolean isSettled(int slot) {
+        return settled[slot];
+    }
+
+    /**
+     * Marks the town in a slot as settled by the current search.
+     * @param slot a slot returned by find
+     */
+    void settle(int slot) {
+        settled[slot] = true;
+    }
+
+    private static int home(int node, int mask) {
+        int hash = node * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldDistance = distance;
+        int[] oldParent = parent;
+        int[] oldParentArc = parentArc;
+        boolean[] oldSettled = settled;
+        keys = new int[capacity];
+        distance = new int[capacity];
+        parent = new int[capacity];
+        parentArc = new int[capacity];
+        settled = new boolean[capacity];
+        if (capacity < oldKeys.length) return;
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int node = oldKeys[i] - 1;
+            int slot = home(node, mask);
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            distance[slot] = oldDistance[i];
+            parent[slot] = oldParent[i];
+            parentArc[slot] = oldParentArc[i];
+            settled[slot] = oldSettled[i];
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * The purpose of TownDistance is to pair a town with its road distance
+ * from the source of a search, as returned by range and nearest town
+ * queries.
+ * 
+ * @author Joshua Gizaw
+ */
+public class TownDistance {
+    private final Town town;
+    private final int distance;
+
+    /**
+     * @param town the town reached
+     * @param distance its road distance from the source
+     */
+    public TownDistance(Town town, int distance) {
+        this.town = town;
+        this.distance = distance;
+    }
+
+    /**
+     * @return the town reached
+     */
+    public Town getTown() {
+        return town;
+    }
+
+    /**
+     * @return the road distance of the town from the source
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return the town and distance in the form "Town_2 4 mi"
+     */
+    @Override
+    public String toString() {
+        return town.getName() + " " + distance + " mi";
+    }
+}
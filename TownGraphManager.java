@@ -1,223 +1,1305 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Set;
-import java.util.Iterator;
-import java.util.Scanner;
-
-/**
- * The purpose of TownGraphManager is to serve as the main utility class
- * for the manager program, which uses the methods and constructors of
- * Graph to achieve functionality.
- * 
- * @author Joshua Gizaw
- */
-public class TownGraphManager implements TownGraphManagerInterface {
-
-    private Graph graph = new Graph();
-
-    /**
-     * Adds a road with 2 towns and a road name.
-     * @param town1 name of town 1
-     * @param town2 name of town 2
-     * @param weight weight of the road
-     * @param roadName name of road
-     * @return true if the road was added successfully
-     */
-    @Override
-    public boolean addRoad(String town1, String town2, int weight, String roadName) {
-        Town source = new Town(town1);
-        Town destination = new Town(town2);
-        graph.addVertex(source);
-        graph.addVertex(destination);
-        Road result = graph.addEdge(source, destination, weight, roadName);
-        return result != null;
-    }
-
-    /**
-     * Returns the name of the road that both towns are connected through.
-     * @param town1 name of town 1
-     * @param town2 name of town 2
-     * @return name of road if town 1 and town2 are connected, returns null if not
-     */
-    @Override
-    public String getRoad(String town1, String town2) {
-        Road result = graph.getEdge(new Town(town1), new Town(town2));
-        return result != null ? result.getName() : null;
-    }
-
-    /**
-     * Adds a town to the graph.
-     * @param v the town's name
-     * @return true if the town was successfully added, false if not
-     */
-    @Override
-    public boolean addTown(String v) {
-        return graph.addVertex(new Town(v));
-    }
-
-    /**
-     * Gets a town with a given name.
-     * @param name the town's name
-     * @return the Town specified by the name, or null if town does not exist
-     */
-    @Override
-    public Town getTown(String name) {
-        Set<Town> vertices = graph.vertexSet();
-        Iterator<Town> iterator = vertices.iterator();
-        Town target = new Town(name);
-        while (iterator.hasNext()) {
-            Town current = iterator.next();
-            if (current.equals(target)) return current;
-        }
-        return null;
-    }
-
-    /**
-     * Determines if a town is already in the graph.
-     * @param v the town's name
-     * @return true if the town is in the graph, false if not
-     */
-    @Override
-    public boolean containsTown(String v) {
-        return graph.containsVertex(new Town(v));
-    }
-
-    /**
-     * Determines if a road is in the graph.
-     * @param town1 name of town 1
-     * @param town2 name of town 2
-     * @return true if the road is in the graph, false if not
-     */
-    @Override
-    public boolean containsRoadConnection(String town1, String town2) {
-        Town source = new Town(town1);
-        Town destination = new Town(town2);
-        return graph.containsEdge(source, destination);
-    }
-
-    /**
-     * Creates an arraylist of all road titles in sorted order by road name.
-     * @return an arraylist of all road titles in sorted order by road name
-     */
-    @Override
-    public ArrayList<String> allRoads() {
-        Set<Road> roads = graph.edgeSet();
-        ArrayList<String> result = new ArrayList<>();
-        for (Road r : roads) result.add(r.getName());
-        Collections.sort(result);
-        return result;
-    }
-
-    /**
-     * Deletes a road from the graph.
-     * @param town1 name of town 1
-     * @param town2 name of town 2
-     * @param roadName the road name
-     * @return true if the road was successfully deleted, false if not
-     */
-    @Override
-    public boolean deleteRoadConnection(String town1, String town2, String roadName) {
-        Town source = new Town(town1);
-        Town destination = new Town(town2);
-        Road target = graph.getEdge(source, destination);
-        if (target == null) return false;
-        graph.removeEdge(source, destination, target.getWeight(), roadName);
-        return true;
-    }
-
-    /**
-     * Deletes a town from the graph.
-     * @param v name of town
-     * @return true if the town was successfully deleted, false if not
-     */
-    @Override
-    public boolean deleteTown(String v) {
-        return graph.removeVertex(new Town(v));
-    }
-
-    /**
-     * Creates an arraylist of all towns in alphabetical order.
-     * @return an arraylist of all towns in alphabetical order
-     */
-    @Override
-    public ArrayList<String> allTowns() {
-        Set<Town> towns = graph.vertexSet();
-        ArrayList<String> result = new ArrayList<>();
-        for (Town t : towns) result.add(t.getName());
-        Collections.sort(result);
-        return result;
-    }
-
-    /**
-     * Returns the shortest path from town 1 to town 2.
-     * @param town1 name of town 1
-     * @param town2 name of town 2
-     * @return an ArrayList of roads connecting the two towns, null if no path exists
-     */
-    @Override
-    public ArrayList<String> getPath(String town1, String town2) {
-        Town source = new Town(town1);
-        Town destination = new Town(town2);
-        if (graph.containsVertex(source) && graph.containsVertex(destination)) {
-            ArrayList<String> result = graph.shortestPath(source, destination);
-            return result != null ? result : new ArrayList<>();
-        }
-        return new ArrayList<>();
-    }
-
-    /**
-     * Populates the graph with the roads provided in a file.
-     * The file extension must be included in the file name.
-     * @param fileName the file name
-     */
-    public void readFile(String fileName) {
-        try (Scanner inFile = new Scanner(new File(fileName))) {
-            while (inFile.hasNext()) {
-                String currentLine = inFile.nextLine();
-                String[] parts = currentLine.split(";");
-                String name = parts[0].substring(0, parts[0].indexOf(','));
-                int weight = Integer.parseInt(parts[0].substring(parts[0].indexOf(',') + 1));
-                String source = parts[1];
-                String destination = parts[2];
-
-                Town sourceTown = new Town(source);
-                Town destinationTown = new Town(destination);
-                graph.addVertex(sourceTown);
-                graph.addVertex(destinationTown);
-                graph.addEdge(sourceTown, destinationTown, weight, name);
-            }
-        } catch (Exception e) {
-            System.out.println("Error in readFile");
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Populates the graph with the roads provided in a file.
-     * @param selectedFile the selected file
-     * @throws FileNotFoundException if the file is not found
-     * @throws IOException if an I/O error occurs
-     */
-    public void populateTownGraph(File selectedFile) throws FileNotFoundException, IOException {
-        try (Scanner inFile = new Scanner(selectedFile)) {
-            while (inFile.hasNextLine()) {
-                String currentLine = inFile.nextLine();
-                String[] roadData = currentLine.split(";");
-                String roadName = roadData[0];
-                int weight = Integer.parseInt(roadData[1]);
-                String source = roadData[2];
-                String destination = roadData[3];
-
-                addTown(source);
-                addTown(destination);
-                addRoad(source, destination, weight, roadName);
-            }
-        } catch (Exception e) {
-            System.out.println("Error in populateTownGraph");
-            e.printStackTrace();
-        }
-    }
-}
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * The purpose of TownGraphManager is to serve as the main utility class
+ * for the manager program, which uses the methods and constructors of
+ * Graph to achieve functionality.
+ * 
+ * @author Joshua Gizaw
+ */
+public class TownGraphManager implements TownGraphManagerInterface {
+
+    /**
+     * How a manager may be shared between threads.
+     */
+    public enum Concurrency {
+        /** Used from a single thread, with no locking. */
+        NONE,
+        /** Queries share a read lock; edits take the write lock and wait for running queries. */
+        LOCKING,
+        /**
+         * Each edit is made on a copy of the graph that is then published in
+         * one step. Queries never wait, and each one runs against the version
+         * that was current when it started.
+         */
+        COPY_ON_WRITE
+    }
+
+    //In copy-on-write mode, the last published version
+    private volatile Graph graph = new Graph();
+    private int landmarkCount = 0;
+    private ExecutorService background;
+    private final Concurrency concurrency;
+    //Set only in locking mode
+    private final ReentrantReadWriteLock lock;
+    //Set only in copy-on-write mode; serializes the writers
+    private final ReentrantLock writer;
+    //The version being built by the thread holding writer
+    private Graph draft;
+    private volatile List<String> loadErrors = Collections.emptyList();
+    //Set only in durable mode
+    private volatile WriteAheadLog log;
+    private File checkpointFile;
+    private long compactBytes;
+
+    /**
+     * Creates a manager for use from a single thread.
+     */
+    public TownGraphManager() {
+        this(Concurrency.NONE);
+    }
+
+    /**
+     * Creates a manager. A thread-safe manager lets any number of threads
+     * query it at once, while edits wait for running queries to finish and
+     * hold off new ones until they are done.
+     * @param threadSafe true to guard every method with a read/write lock
+     */
+    public TownGraphManager(boolean threadSafe) {
+        this(threadSafe ? Concurrency.LOCKING : Concurrency.NONE);
+    }
+
+    /**
+     * Creates a manager that may be shared between threads as given. In
+     * copy-on-write mode each version shares the town and road maps with
+     * the one before and copies only the parts an edit changes, and the
+     * path cache carries over from version to version.
+     * @param concurrency how the manager may be shared between threads
+     */
+    public TownGraphManager(Concurrency concurrency) {
+        this.concurrency = concurrency;
+        lock = concurrency == Concurrency.LOCKING ? new ReentrantReadWriteLock() : null;
+        writer = concurrency == Concurrency.COPY_ON_WRITE ? new ReentrantLock() : null;
+    }
+
+    /**
+     * @return true if the manager was created thread-safe
+     */
+    public boolean isThreadSafe() {
+        return concurrency != Concurrency.NONE;
+    }
+
+    /**
+     * @return how the manager may be shared between threads
+     */
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Adds a road with 2 towns and a road name.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param weight weight of the road
+     * @param roadName name of road
+     * @return true if the road was added successfully
+     */
+    @Override
+    public boolean addRoad(String town1, String town2, int weight, String roadName) {
+        long sequence = 0;
+        WriteAheadLog.Record record = encode(() -> WriteAheadLog.Record.addRoad(town1, town2, weight, roadName));
+        lockWrite();
+        try {
+            Graph graph = current();
+            boolean newSource = graph.getTown(town1) == null;
+            boolean newDestination = graph.getTown(town2) == null;
+            Road result = graph.addEdge(intern(town1), intern(town2), weight, roadName);
+            if (result != null) sequence = append(record, () -> {
+                graph.removeEdge(result.getSource(), result.getDestination(), -1, result.getName());
+                if (newSource) graph.removeVertex(graph.getTown(town1));
+                if (newDestination) graph.removeVertex(graph.getTown(town2));
+            });
+            return result != null;
+        } finally {
+            unlockWrite();
+            commit(sequence);
+        }
+    }
+
+    /**
+     * Returns the name of the road that both towns are connected through.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @return name of road if town 1 and town2 are connected, returns null if not
+     */
+    @Override
+    public String getRoad(String town1, String town2) {
+        lockRead();
+        try {
+            Graph version = current();
+            Road result = version.getEdge(version.getTown(town1), version.getTown(town2));
+            return result != null ? result.getName() : null;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Gives a road a new weight, such as from a live traffic update. The
+     * path cache is repaired for the new weight rather than emptied, so
+     * cached paths from busy towns stay warm.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param roadName the road name
+     * @param weight the new weight
+     * @return true if the weight changed, false if the road was not found
+     * or already had that weight
+     * @throws IllegalArgumentException if weight is negative
+     */
+    public boolean setRoadWeight(String town1, String town2, String roadName, int weight) {
+        long sequence = 0;
+        WriteAheadLog.Record record = encode(() -> WriteAheadLog.Record.setWeight(town1, town2, roadName, weight));
+        lockWrite();
+        try {
+            Graph version = current();
+            Town source = version.getTown(town1);
+            Town destination = version.getTown(town2);
+            Road road = version.getEdge(source, destination);
+            if (road == null || !road.getName().equals(roadName) || road.getWeight() == weight) return false;
+            version.updateWeight(source, destination, weight);
+            sequence = append(record, () -> version.updateWeight(source, destination, road.getWeight()));
+            return true;
+        } finally {
+            unlockWrite();
+            commit(sequence);
+        }
+    }
+
+    /**
+     * Adds a town to the graph.
+     * @param v the town's name
+     * @return true if the town was successfully added, false if not
+     */
+    @Override
+    public boolean addTown(String v) {
+        long sequence = 0;
+        WriteAheadLog.Record record = encode(() -> WriteAheadLog.Record.addTown(v));
+        lockWrite();
+        try {
+            Graph graph = current();
+            if (graph.getTown(v) != null || !graph.addVertex(new Town(v))) return false;
+            sequence = append(record, () -> graph.removeVertex(graph.getTown(v)));
+            return true;
+        } finally {
+            unlockWrite();
+            commit(sequence);
+        }
+    }
+
+    /**
+     * Adds a town with a location to the graph. If the town already exists,
+     * its location is updated instead.
+     * @param v the town's name
+     * @param x the x coordinate (or longitude) of the town
+     * @param y the y coordinate (or latitude) of the town
+     * @return true if the town was added, false if it already existed
+     */
+    public boolean addTown(String v, double x, double y) {
+        long sequence = 0;
+        WriteAheadLog.Record record = encode(() -> WriteAheadLog.Record.locateTown(v, x, y));
+        lockWrite();
+        try {
+            Graph graph = current();
+            Town town = graph.getTown(v);
+            if (town == null) {
+                graph.addVertex(new Town(v, x, y));
+                sequence = append(record, () -> graph.removeVertex(graph.getTown(v)));
+                return true;
+            }
+            if (town.getX() == x && town.getY() == y) return false;
+            double oldX = town.getX(), oldY = town.getY();
+            graph.setCoordinates(town, x, y);
+            sequence = append(record, () -> graph.setCoordinates(graph.getTown(v), oldX, oldY));
+            return false;
+        } finally {
+            unlockWrite();
+            commit(sequence);
+        }
+    }
+
+    /**
+     * Gets a town with a given name.
+     * @param name the town's name
+     * @return the Town specified by the name, or null if town does not exist
+     */
+    @Override
+    public Town getTown(String name) {
+        lockRead();
+        try {
+            return current().getTown(name);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Determines if a town is already in the graph.
+     * @param v the town's name
+     * @return true if the town is in the graph, false if not
+     */
+    @Override
+    public boolean containsTown(String v) {
+        lockRead();
+        try {
+            return current().getTown(v) != null;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Determines if a road is in the graph.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @return true if the road is in the graph, false if not
+     */
+    @Override
+    public boolean containsRoadConnection(String town1, String town2) {
+        lockRead();
+        try {
+            Graph version = current();
+            Town source = version.getTown(town1);
+            Town destination = version.getTown(town2);
+            return source != null && destination != null && version.containsEdge(source, destination);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Creates an arraylist of all road titles in sorted order by road name.
+     * @return an arraylist of all road titles in sorted order by road name
+     */
+    @Override
+    public ArrayList<String> allRoads() {
+        lockRead();
+        try {
+            Set<Road> roads = current().edgeSet();
+            ArrayList<String> result = new ArrayList<>();
+            for (Road r : roads) result.add(r.getName());
+            Collections.sort(result);
+            return result;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Deletes a road from the graph.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param roadName the road name
+     * @return true if the road was successfully deleted, false if not
+     */
+    @Override
+    public boolean deleteRoadConnection(String town1, String town2, String roadName) {
+        long sequence = 0;
+        WriteAheadLog.Record record = encode(() -> WriteAheadLog.Record.deleteRoad(town1, town2, roadName));
+        lockWrite();
+        try {
+            Graph graph = current();
+            Town source = graph.getTown(town1);
+            Town destination = graph.getTown(town2);
+            Road target = graph.getEdge(source, destination);
+            if (target == null) return false;
+            if (graph.removeEdge(source, destination, target.getWeight(), roadName) != null)
+                sequence = append(record, () -> graph.addEdge(source, destination, target.getWeight(), target.getName()));
+            return true;
+        } finally {
+            unlockWrite();
+            commit(sequence);
+        }
+    }
+
+    /**
+     * Deletes a town from the graph.
+     * @param v name of town
+     * @return true if the town was successfully deleted, false if not
+     */
+    @Override
+    public boolean deleteTown(String v) {
+        long sequence = 0;
+        WriteAheadLog.Record record = encode(() -> WriteAheadLog.Record.deleteTown(v));
+        lockWrite();
+        try {
+            Graph graph = current();
+            Town town = graph.getTown(v);
+            if (town == null) return false;
+            Runnable restore = restorer(graph, town);
+            graph.removeVertex(town);
+            sequence = append(record, restore);
+            return true;
+        } finally {
+            unlockWrite();
+            commit(sequence);
+        }
+    }
+
+    /**
+     * Creates an arraylist of all towns in alphabetical order.
+     * @return an arraylist of all towns in alphabetical order
+     */
+    @Override
+    public ArrayList<String> allTowns() {
+        lockRead();
+        try {
+            Set<Town> towns = current().vertexSet();
+            ArrayList<String> result = new ArrayList<>();
+            for (Town t : towns) result.add(t.getName());
+            Collections.sort(result);
+            return result;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Returns the shortest path from town 1 to town 2.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @return an ArrayList of roads connecting the two towns, null if no path exists
+     */
+    @Override
+    public ArrayList<String> getPath(String town1, String town2) {
+        lockRead();
+        try {
+            return getPath(town1, town2, current().getSearchMode());
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Returns the shortest path from town 1 to town 2 using the given search algorithm.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param mode the search algorithm to use
+     * @return an ArrayList of roads connecting the two towns, empty if no path exists
+     */
+    public ArrayList<String> getPath(String town1, String town2, SearchMode mode) {
+        lockRead();
+        try {
+            Graph version = current();
+            Town source = version.getTown(town1);
+            Town destination = version.getTown(town2);
+            if (source != null && destination != null) {
+                PathResult result = version.findPath(source, destination, mode);
+                return result != null ? result.toStringList() : new ArrayList<>();
+            }
+            return new ArrayList<>();
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Returns up to k loopless routes from town 1 to town 2, shortest first,
+     * so that alternatives to getPath can be offered.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param k the largest number of routes to return
+     * @return the routes in order of total weight, each an ArrayList of roads
+     * in the form getPath uses; empty if no path exists
+     */
+    public ArrayList<ArrayList<String>> getAlternativePaths(String town1, String town2, int k) {
+        lockRead();
+        try {
+            Graph version = current();
+            Town source = version.getTown(town1);
+            Town destination = version.getTown(town2);
+            ArrayList<ArrayList<String>> routes = new ArrayList<>();
+            if (source != null && destination != null) {
+                for (PathResult path : version.kShortestPaths(source, destination, k)) routes.add(path.toStringList());
+            }
+            return routes;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Lists the towns within a road distance of a town, closest first,
+     * starting with the town itself. The stream is lazy and runs over the
+     * graph as it was when this was called, so it may be read after the
+     * lock is released; taking only the first few towns stops the search
+     * early.
+     * @param town the town's name
+     * @param maxWeight the largest distance to include
+     * @return the towns and their distances in distance order, empty if
+     * the town does not exist
+     */
+    public Stream<TownDistance> townsWithin(String town, int maxWeight) {
+        lockRead();
+        try {
+            Graph version = current();
+            Town source = version.getTown(town);
+            return source != null ? version.townsWithin(source, maxWeight) : Stream.empty();
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Finds the towns closest to a town that pass a test, such as the
+     * nearest service towns. The search stops once k matching towns are
+     * found.
+     * @param town the town's name
+     * @param k the largest number of towns to return
+     * @param predicate the test a town must pass to be counted
+     * @return the matching towns and their distances, closest first, empty
+     * if the town does not exist
+     */
+    public List<TownDistance> nearestTowns(String town, int k, Predicate<Town> predicate) {
+        lockRead();
+        try {
+            Graph version = current();
+            Town source = version.getTown(town);
+            return source != null ? version.nearestTowns(source, k, predicate) : new ArrayList<TownDistance>();
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Determines if a path joins two towns, without searching.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @return true if both towns exist and a path joins them
+     */
+    public boolean isConnected(String town1, String town2) {
+        lockRead();
+        try {
+            Graph version = current();
+            return version.isConnected(version.getTown(town1), version.getTown(town2));
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Lists the towns of each connected component, for spotting towns that
+     * cannot be reached from the rest of the graph.
+     * @return the town names of each component in alphabetical order, with
+     * the largest components first
+     */
+    public ArrayList<ArrayList<String>> getComponents() {
+        lockRead();
+        try {
+            ArrayList<ArrayList<String>> result = new ArrayList<>();
+            for (Set<Town> component : current().components()) {
+                ArrayList<String> names = new ArrayList<>(component.size());
+                for (Town t : component) names.add(t.getName());
+                Collections.sort(names);
+                result.add(names);
+            }
+            return result;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Returns the shortest paths for a batch of (town 1, town 2) pairs. Each
+     * distinct town 1 is searched only once, and the searches run on all cores.
+     * @param pairs the (town 1, town 2) name pairs
+     * @return the path for each pair in input order, each in the same form as
+     * getPath and empty if no path exists
+     */
+    public ArrayList<ArrayList<String>> getPaths(List<? extends Map.Entry<String, String>> pairs) {
+        lockRead();
+        try {
+            Graph version = current();
+            ArrayList<Map.Entry<Town, Town>> queries = new ArrayList<>(pairs.size());
+            for (Map.Entry<String, String> pair : pairs)
+                queries.add(new AbstractMap.SimpleEntry<>(version.getTown(pair.getKey()), version.getTown(pair.getValue())));
+            ArrayList<ArrayList<String>> result = new ArrayList<>(pairs.size());
+            for (PathResult path : version.findPaths(queries))
+                result.add(path != null ? path.toStringList() : new ArrayList<>());
+            return result;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Populates the graph with the roads provided in a file.
+     * The file extension must be included in the file name.
+     * Each line is "name,weight;source;destination" or
+     * "name;weight;source;destination", optionally followed by ";x,y;x,y"
+     * giving the coordinates of the source and destination. Malformed lines
+     * are skipped and listed by getLoadErrors.
+     * @param fileName the file name
+     */
+    public void readFile(String fileName) {
+        try {
+            load(new File(fileName));
+        } catch (IOException e) {
+            System.out.println("Error in readFile");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Populates the graph with the roads provided in a file, in either of
+     * the formats read by readFile. Malformed lines are skipped and listed
+     * by getLoadErrors.
+     * @param selectedFile the selected file
+     * @throws FileNotFoundException if the file is not found
+     * @throws IOException if an I/O error occurs
+     */
+    public void populateTownGraph(File selectedFile) throws FileNotFoundException, IOException {
+        load(selectedFile);
+    }
+
+    /**
+     * Imports a large road file in bulk. The file is split into chunks that
+     * are parsed on all cores, and the graph is then built from the parsed
+     * roads in a single pass, skipping the per-road checks of addRoad. The
+     * file may use either of the formats read by readFile, and malformed
+     * lines are skipped and listed by getLoadErrors. Queries keep running
+     * while the file is parsed.
+     * @param file the road file
+     * @return the number of roads added
+     * @throws IOException if the file cannot be read
+     */
+    public int bulkImport(File file) throws IOException {
+        RoadTable table = RoadFileParser.parseTable(file);
+        int added;
+        lockWrite();
+        try {
+            added = current().addAll(table);
+            loadErrors = table.getErrors();
+        } finally {
+            unlockWrite();
+        }
+        if (log != null) checkpoint();
+        return added;
+    }
+
+    /**
+     * Saves the graph to a binary file that loadSnapshot reads back far
+     * faster than a road file can be parsed.
+     * @param file the file to write
+     * @param checksum true to store a checksum that loadSnapshot verifies
+     * @throws IOException if the file cannot be written
+     */
+    public void saveSnapshot(File file, boolean checksum) throws IOException {
+        lockRead();
+        try {
+            GraphFile.write(current().snapshot(), file, checksum);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Adds the towns and roads saved by saveSnapshot to the graph. Queries
+     * keep running while the file is read.
+     * @param file the file to read
+     * @return the number of roads added
+     * @throws IOException if the file cannot be read, is not a snapshot, or
+     * fails its checksum
+     */
+    public int loadSnapshot(File file) throws IOException {
+        RoadTable table = GraphFile.read(file);
+        int added;
+        lockWrite();
+        try {
+            added = current().addAll(table);
+        } finally {
+            unlockWrite();
+        }
+        if (log != null) checkpoint();
+        return added;
+    }
+
+    /**
+     * Applies a file of road changes as one batch. Each line is one record:
+     * "+name;weight;source;destination" opens a road, adding its towns if
+     * needed; "-name;source;destination" closes the road of that name
+     * between the towns; and "~name;weight;source;destination" gives that
+     * road a new weight. Blank lines and lines starting with '#' are
+     * ignored. The file is read before the graph is locked, and the changes
+     * are then applied together, so in copy-on-write mode queries see all
+     * of them or none. Records that match nothing to change are counted as
+     * skipped, and malformed ones are listed in the report.
+     * @param file the change file
+     * @return the counts and timing of the batch
+     * @throws IOException if the file cannot be read
+     */
+    public ChangeReport applyChanges(File file) throws IOException {
+        long start = System.nanoTime();
+        GraphBatch batch = new GraphBatch();
+        List<String> errors = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            for (int number = 1; (line = in.readLine()) != null; number++) {
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                if (!parseChange(line, batch))
+                    errors.add("line " + number + ": expected +name;weight;source;destination, "
+                            + "-name;source;destination or ~name;weight;source;destination");
+            }
+        }
+        return apply(batch, errors, start);
+    }
+
+    /**
+     * Applies a batch of edits atomically. The edits are made in order under
+     * one write lock and the graph's version is bumped once, so in
+     * copy-on-write mode queries see all of them or none, and the snapshot,
+     * path cache and landmark or hierarchy preprocessing are invalidated
+     * once for the whole batch. In durable mode every edit is logged and
+     * the batch is forced to disk once. If the batch fails partway, such as
+     * when the log cannot be written, none of its edits are kept: the
+     * copy-on-write draft is dropped, or in the other modes the edits made
+     * are undone before the lock is released. Road edits that change nothing, such
+     * as deleting a road that does not exist, are counted as skipped, as
+     * are town edits that change nothing; town edits that do change the
+     * graph are not counted.
+     * @param batch the edits to apply
+     * @return the counts and timing of the batch
+     */
+    public ChangeReport apply(GraphBatch batch) {
+        return apply(batch, new ArrayList<String>(), System.nanoTime());
+    }
+
+    private ChangeReport apply(GraphBatch batch, List<String> errors, long start) {
+        int added = 0, removed = 0, reweighted = 0, skipped = 0;
+        long sequence = 0;
+        //Every edit is encoded before any is made, so one that cannot be encoded changes nothing
+        WriteAheadLog.Record[] encoded = encode(batch);
+        lockWrite();
+        try {
+            Graph graph = current();
+            List<GraphBatch.Edit> edits = batch.edits();
+            //The log records of the edits made, appended together once every edit has been made
+            List<WriteAheadLog.Record> records = new ArrayList<>();
+            //Undoes the edits made, newest first, if the batch fails
+            ArrayDeque<Runnable> undo = new ArrayDeque<>();
+            graph.beginBatch();
+            try {
+                for (int i = 0; i < edits.size(); i++) {
+                    GraphBatch.Edit edit = edits.get(i);
+                    WriteAheadLog.Record record = encoded != null ? encoded[i] : null;
+                    switch (edit.op) {
+                        case ADD_TOWN:
+                            if (graph.getTown(edit.town) == null && graph.addVertex(new Town(edit.town))) {
+                                if (record != null) records.add(record);
+                                undo.push(() -> graph.removeVertex(graph.getTown(edit.town)));
+                            } else {
+                                skipped++;
+                            }
+                            break;
+                        case LOCATE_TOWN: {
+                            Town town = graph.getTown(edit.town);
+                            if (town != null && town.getX() == edit.x && town.getY() == edit.y) {
+                                skipped++;
+                                break;
+                            }
+                            if (town == null) {
+                                graph.addVertex(new Town(edit.town, edit.x, edit.y));
+                                undo.push(() -> graph.removeVertex(graph.getTown(edit.town)));
+                            } else {
+                                double x = town.getX(), y = town.getY();
+                                graph.setCoordinates(town, edit.x, edit.y);
+                                undo.push(() -> graph.setCoordinates(graph.getTown(edit.town), x, y));
+                            }
+                            if (record != null) records.add(record);
+                            break;
+                        }
+                        case DELETE_TOWN: {
+                            Town town = graph.getTown(edit.town);
+                            if (town == null) {
+                                skipped++;
+                                break;
+                            }
+                            undo.push(restorer(graph, town));
+                            graph.removeVertex(town);
+                            if (record != null) records.add(record);
+                            break;
+                        }
+                        case ADD_ROAD: {
+                            boolean newSource = graph.getTown(edit.town) == null;
+                            boolean newDestination = graph.getTown(edit.other) == null;
+                            Road road = graph.addEdge(intern(edit.town), intern(edit.other), edit.weight, edit.road);
+                            if (road != null) {
+                                if (record != null) records.add(record);
+                                added++;
+                            } else {
+                                skipped++;
+                            }
+                            undo.push(() -> {
+                                if (road != null) graph.removeEdge(road.getSource(), road.getDestination(), -1, road.getName());
+                                if (newSource) graph.removeVertex(graph.getTown(edit.town));
+                                if (newDestination) graph.removeVertex(graph.getTown(edit.other));
+                            });
+                            break;
+                        }
+                        default: {
+                            Town source = graph.getTown(edit.town);
+                            Town destination = graph.getTown(edit.other);
+                            Road road = graph.getEdge(source, destination);
+                            if (road == null || !road.getName().equals(edit.road)
+                                    || (edit.op == GraphBatch.Op.SET_WEIGHT && road.getWeight() == edit.weight)) {
+                                skipped++;
+                            } else if (edit.op == GraphBatch.Op.DELETE_ROAD) {
+                                graph.removeEdge(source, destination, -1, edit.road);
+                                if (record != null) records.add(record);
+                                undo.push(() -> graph.addEdge(source, destination, road.getWeight(), road.getName()));
+                                removed++;
+                            } else {
+                                graph.updateWeight(source, destination, edit.weight);
+                                if (record != null) records.add(record);
+                                undo.push(() -> graph.updateWeight(source, destination, road.getWeight()));
+                                reweighted++;
+                            }
+                        }
+                    }
+                }
+                //The records go into the log together or not at all, so a batch that fails
+                //here leaves none of its records to be written
+                if (!records.isEmpty()) sequence = append(records);
+            } catch (RuntimeException | Error e) {
+                try {
+                    rollback(undo);
+                } catch (RuntimeException | Error f) {
+                    e.addSuppressed(f);
+                }
+                throw e;
+            } finally {
+                graph.endBatch();
+            }
+        } finally {
+            unlockWrite();
+            commit(sequence);
+        }
+        return new ChangeReport(added, removed, reweighted, skipped, errors, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the log record of each edit in a batch, or null if there is no log
+     * @throws UncheckedIOException if an edit cannot be encoded
+     */
+    private WriteAheadLog.Record[] encode(GraphBatch batch) {
+        if (log == null) return null;
+        List<GraphBatch.Edit> edits = batch.edits();
+        WriteAheadLog.Record[] encoded = new WriteAheadLog.Record[edits.size()];
+        try {
+            for (int i = 0; i < encoded.length; i++) {
+                GraphBatch.Edit edit = edits.get(i);
+                //Deleting or reweighting a road without a name is skipped, so it has no record
+                if (edit.road == null && (edit.op == GraphBatch.Op.DELETE_ROAD || edit.op == GraphBatch.Op.SET_WEIGHT))
+                    continue;
+                switch (edit.op) {
+                    case ADD_TOWN:
+                        encoded[i] = WriteAheadLog.Record.addTown(edit.town);
+                        break;
+                    case LOCATE_TOWN:
+                        encoded[i] = WriteAheadLog.Record.locateTown(edit.town, edit.x, edit.y);
+                        break;
+                    case DELETE_TOWN:
+                        encoded[i] = WriteAheadLog.Record.deleteTown(edit.town);
+                        break;
+                    case ADD_ROAD:
+                        encoded[i] = WriteAheadLog.Record.addRoad(edit.town, edit.other, edit.weight, edit.road);
+                        break;
+                    case DELETE_ROAD:
+                        encoded[i] = WriteAheadLog.Record.deleteRoad(edit.town, edit.other, edit.road);
+                        break;
+                    default:
+                        encoded[i] = WriteAheadLog.Record.setWeight(edit.town, edit.other, edit.road, edit.weight);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return encoded;
+    }
+
+    /**
+     * Takes back the edits of a failed batch. In copy-on-write mode the
+     * draft is dropped rather than published; otherwise the edits are
+     * undone in place, newest first, before the write lock is released.
+     * @param undo undoes each edit made, newest first
+     */
+    private void rollback(ArrayDeque<Runnable> undo) {
+        if (writer != null && writer.getHoldCount() == 1) draft = null;
+        else while (!undo.isEmpty()) undo.pop().run();
+    }
+
+    /**
+     * Makes edits survive a crash. The graph is first recovered: the
+     * snapshot file is loaded if it exists, and the edits in the log file
+     * are replayed on top of it. From then on, addTown, addRoad,
+     * deleteRoadConnection, deleteTown, setRoadWeight, applyChanges and
+     * apply append each edit to the log and return only once it is on
+     * disk, with edits from concurrent threads forced to disk together.
+     * readFile, populateTownGraph, bulkImport and loadSnapshot instead
+     * write a new snapshot when they finish. Whenever the log grows past
+     * the given size it is compacted: the graph is written to a new
+     * snapshot and the log is emptied. Call this once, before any other
+     * edits.
+     * @param snapshot the snapshot file, written with a checksum
+     * @param logFile the log file
+     * @param compactBytes the log size in bytes that triggers compaction
+     * @throws IOException if the snapshot or log cannot be read
+     */
+    public void enableDurability(File snapshot, File logFile, long compactBytes) throws IOException {
+        if (log != null) throw new IllegalStateException("Durability is already enabled");
+        if (snapshot.exists()) loadSnapshot(snapshot);
+        WriteAheadLog recovered = WriteAheadLog.open(logFile, new WriteAheadLog.Replay() {
+            @Override
+            public void addTown(String name) {
+                TownGraphManager.this.addTown(name);
+            }
+
+            @Override
+            public void locateTown(String name, double x, double y) {
+                TownGraphManager.this.addTown(name, x, y);
+            }
+
+            @Override
+            public void addRoad(String source, String destination, int weight, String name) {
+                TownGraphManager.this.addRoad(source, destination, weight, name);
+            }
+
+            @Override
+            public void deleteRoad(String source, String destination, String name) {
+                deleteRoadConnection(source, destination, name);
+            }
+
+            @Override
+            public void deleteTown(String name) {
+                TownGraphManager.this.deleteTown(name);
+            }
+
+            @Override
+            public void setWeight(String source, String destination, String name, int weight) {
+                setRoadWeight(source, destination, name, weight);
+            }
+        });
+        checkpointFile = snapshot;
+        this.compactBytes = compactBytes;
+        log = recovered;
+        checkpoint(false);
+    }
+
+    /**
+     * Writes the graph to a new snapshot and empties the log. The snapshot
+     * is written to a temporary file and then renamed over the old one, so
+     * a crash leaves either the old snapshot and log or the new snapshot.
+     * A crash between the rename and emptying the log leaves the new
+     * snapshot with the old log, which recovers the same graph because
+     * replaying an edit already in the snapshot changes nothing.
+     * @throws IOException if the snapshot or log cannot be written
+     * @throws IllegalStateException if durability is not enabled
+     */
+    public void checkpoint() throws IOException {
+        checkpoint(true);
+    }
+
+    /**
+     * Syncs any edits still buffered and closes the log. Edits after this
+     * are no longer logged.
+     * @throws IOException if the log cannot be written
+     */
+    public void disableDurability() throws IOException {
+        lockWrite();
+        try {
+            if (log == null) return;
+            log.close();
+            log = null;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * @return the write-ahead log, or null if durability is not enabled
+     */
+    public WriteAheadLog getWriteAheadLog() {
+        return log;
+    }
+
+    /**
+     * @return a message with the line number of each malformed line skipped
+     * by the last readFile, populateTownGraph or bulkImport call
+     */
+    public List<String> getLoadErrors() {
+        return loadErrors;
+    }
+
+    /**
+     * Adds the roads of a file to the graph. Malformed lines are skipped and
+     * reported through getLoadErrors.
+     * @param file the road file
+     * @throws IOException if the file cannot be read
+     */
+    private void load(File file) throws IOException {
+        lockWrite();
+        try {
+            loadErrors = Collections.unmodifiableList(RoadFileParser.parse(file, new RoadFileParser.Handler() {
+                @Override
+                public void road(String name, int weight, String source, String destination) {
+                    current().addEdge(intern(source), intern(destination), weight, name);
+                }
+
+                @Override
+                public void locate(String town, double x, double y) {
+                    Town stored = intern(town);
+                    if (stored.getX() != x || stored.getY() != y) current().setCoordinates(stored, x, y);
+                }
+            }));
+        } finally {
+            unlockWrite();
+        }
+        if (log != null) checkpoint();
+    }
+
+    /**
+     * Returns the stored town with the given name, adding it first if the
+     * graph does not have it yet.
+     * @param name the town's name
+     * @return the town stored in the graph
+     */
+    private Town intern(String name) {
+        Town town = current().getTown(name);
+        if (town == null) {
+            town = new Town(name);
+            current().addVertex(town);
+        }
+        return town;
+    }
+
+    /**
+     * Encodes an edit for the log, before it is made, so an edit that
+     * cannot be logged fails without changing anything.
+     * @param encoder encodes the edit
+     * @return the record, or null if durability is not enabled
+     */
+    private WriteAheadLog.Record encode(Encoder encoder) {
+        if (log == null) return null;
+        try {
+            return encoder.encode();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the record of an edit just made. Called with the write lock
+     * held, so the log holds the edits in the order they were made. If the
+     * log has failed, the edit is taken back before the lock is released,
+     * as a failed batch is.
+     * @param record the record, or null if durability is not enabled
+     * @param undo undoes the edit in place
+     * @return the sequence number to pass to commit, or 0 if there is no log
+     */
+    private long append(WriteAheadLog.Record record, Runnable undo) {
+        if (record == null) return 0;
+        try {
+            return append(Collections.singletonList(record));
+        } catch (UncheckedIOException e) {
+            ArrayDeque<Runnable> undone = new ArrayDeque<>();
+            undone.push(undo);
+            rollback(undone);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends records together, if durability is enabled.
+     * @return the sequence number to pass to commit, or 0 if there is no log
+     */
+    private long append(List<WriteAheadLog.Record> records) {
+        WriteAheadLog wal = log;
+        if (wal == null) return 0;
+        try {
+            return wal.appendAll(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return a step that adds a town about to be deleted back, with its
+     * location and roads
+     */
+    private static Runnable restorer(Graph graph, Town town) {
+        Set<Road> roads = graph.edgesOf(town);
+        String name = town.getName();
+        double x = town.getX(), y = town.getY();
+        return () -> {
+            graph.addVertex(new Town(name, x, y));
+            for (Road road : roads) graph.addEdge(road.getSource(), road.getDestination(), road.getWeight(), road.getName());
+        };
+    }
+
+    /**
+     * Waits until an edit is on disk, then compacts the log if it has grown
+     * too large. Called after the write lock is released, so that writers
+     * waiting here are forced to disk as one group.
+     * @param sequence the number returned by record, or 0 to do nothing
+     */
+    private void commit(long sequence) {
+        WriteAheadLog wal = log;
+        if (sequence == 0 || wal == null) return;
+        try {
+            wal.sync(sequence);
+            if (wal.size() > compactBytes) checkpoint(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param always false to skip compaction unless the log is still too
+     * large once the write lock is held
+     */
+    private void checkpoint(boolean always) throws IOException {
+        lockWrite();
+        try {
+            WriteAheadLog wal = log;
+            if (wal == null) throw new IllegalStateException("Durability is not enabled");
+            if (!always && wal.size() <= compactBytes) return;
+            File temporary = new File(checkpointFile.getPath() + ".tmp");
+            GraphFile.write(current().snapshot(), temporary, true);
+            Files.move(temporary.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            wal.truncate();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Builds landmark tables for the current graph and switches getPath to
+     * ALT searches. After edits, the tables go stale and getPath falls back
+     * to bidirectional Dijkstra until rebuildLandmarksInBackground finishes.
+     * @param count the number of landmark towns to pick
+     */
+    public void enableLandmarks(int count) {
+        lockWrite();
+        try {
+            landmarkCount = count;
+            current().buildLandmarks(count);
+            current().setSearchMode(SearchMode.ALT);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Rebuilds the landmark tables for the current graph on a background
+     * thread, using the count given to enableLandmarks. Queries keep running
+     * meanwhile and pick the tables up once they are installed. If the graph
+     * changed while they were built, they are not installed.
+     * @return a Future holding the new tables
+     */
+    public Future<LandmarkIndex> rebuildLandmarksInBackground() {
+        if (background == null) {
+            background = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "landmark-rebuild");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        GraphSnapshot frozen;
+        int count;
+        lockRead();
+        try {
+            frozen = current().snapshot();
+            count = landmarkCount;
+        } finally {
+            unlockRead();
+        }
+        return background.submit(() -> {
+            LandmarkIndex index = LandmarkIndex.build(frozen, count);
+            long fingerprint = frozen.fingerprint();
+            //Installed under the write lock, so a copy-on-write draft made meanwhile cannot publish over the tables
+            lockWrite();
+            try {
+                if (current().snapshot().fingerprint() == fingerprint) current().installLandmarks(index);
+            } finally {
+                unlockWrite();
+            }
+            return index;
+        });
+    }
+
+    /**
+     * Builds a contraction hierarchy for the current graph, using all cores
+     * for the initial ordering, and switches getPath to hierarchy searches.
+     * After edits, getPath falls back to bidirectional Dijkstra until the
+     * hierarchy is built again.
+     */
+    public void enableContractionHierarchy() {
+        lockWrite();
+        try {
+            current().buildHierarchy(true);
+            current().setSearchMode(SearchMode.CONTRACTION_HIERARCHY);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Caches the shortest path trees of the most recently used source towns,
+     * so getPath calls from busy towns skip the search.
+     * setRoadWeight repairs the cached trees; other edits empty the cache.
+     * @param capacity the largest number of trees to keep, or 0 to turn caching off
+     */
+    public void enablePathCache(int capacity) {
+        lockWrite();
+        try {
+            current().setTreeCacheCapacity(capacity);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * @return the path cache with its hit, miss and eviction counts, or null
+     * if caching is off
+     */
+    public ShortestPathTreeCache getPathCache() {
+        return current().getTreeCache();
+    }
+
+    /**
+     * Saves the current landmark tables to a file.
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     * @throws IllegalStateException if no tables exist for the current graph
+     */
+    public void saveLandmarks(File file) throws IOException {
+        lockRead();
+        try {
+            Graph version = current();
+            if (!version.hasCurrentLandmarks()) throw new IllegalStateException("No landmarks for the current graph");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                version.getLandmarks().write(version.snapshot(), out);
+            }
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Loads landmark tables saved by saveLandmarks for a graph with the same
+     * towns and switches getPath to ALT searches.
+     * @param file the file to read
+     * @throws IOException if the file cannot be read or does not match the graph
+     */
+    public void loadLandmarks(File file) throws IOException {
+        lockWrite();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            LandmarkIndex index = LandmarkIndex.read(current().snapshot(), in);
+            landmarkCount = index.size();
+            current().installLandmarks(index);
+            current().setSearchMode(SearchMode.ALT);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    private void lockRead() {
+        if (lock != null) lock.readLock().lock();
+    }
+
+    private void unlockRead() {
+        if (lock != null) lock.readLock().unlock();
+    }
+
+    private void lockWrite() {
+        if (lock != null) lock.writeLock().lock();
+        if (writer != null) {
+            writer.lock();
+            if (writer.getHoldCount() == 1) draft = graph.copy();
+        }
+    }
+
+    private void unlockWrite() {
+        if (lock != null) lock.writeLock().unlock();
+        if (writer != null) {
+            if (writer.getHoldCount() == 1) {
+                //A draft dropped by rollback is not published
+                if (draft != null) graph = draft;
+                draft = null;
+            }
+            writer.unlock();
+        }
+    }
+
+    /**
+     * @return the draft while the calling thread is editing in copy-on-write
+     * mode, otherwise the graph
+     */
+    private Graph current() {
+        return writer != null && writer.isHeldByCurrentThread() ? draft : graph;
+    }
+
+    /**
+     * Encodes one edit for the write-ahead log.
+     */
+    private interface Encoder {
+        WriteAheadLog.Record encode() throws IOException;
+    }
+
+    /**
+     * Adds one record of a change file to a batch.
+     * @param line a non-empty line of a change file
+     * @param batch the batch to add to
+     * @return false if the line is malformed
+     */
+    private static boolean parseChange(String line, GraphBatch batch) {
+        char op = line.charAt(0);
+        if (op != '+' && op != '-' && op != '~') return false;
+        String[] fields = line.substring(1).split(";", -1);
+        if (op == '-' && fields.length == 3) {
+            if (fields[1].isEmpty() || fields[2].isEmpty()) return false;
+            batch.deleteRoad(fields[1], fields[2], fields[0]);
+            return true;
+        }
+        if (fields.length != 4 || fields[0].isEmpty() || fields[2].isEmpty() || fields[3].isEmpty()) return false;
+        int weight;
+        try {
+            weight = Integer.parseInt(fields[1].trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (weight < 0) return false;
+        if (op == '+') batch.addRoad(fields[2], fields[3], weight, fields[0]);
+        else if (op == '~') batch.setWeight(fields[2], fields[3], fields[0], weight);
+        else return false;
+        return true;
+    }
+}
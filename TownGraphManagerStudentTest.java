@@ -1,154 +1,729 @@
-import static org.junit.Assert.*;
-
-import java.util.ArrayList;
-import org.junit.After;
-import org.junit.Before;
-import org.junit.Test;
-
-public class TownGraphManagerStudentTest {
-    private TownGraphManagerInterface townGraphManager;
-    private String[] towns;
-
-    @Before
-    public void setUp() throws Exception {
-        townGraphManager = new TownGraphManager();
-        towns = new String[12];
-
-        for (int i = 1; i < 12; i++) {
-            towns[i] = "Town_" + i;
-            townGraphManager.addTown(towns[i]);
-        }
-
-        townGraphManager.addRoad(towns[1], towns[2], 2, "Road_1");
-        townGraphManager.addRoad(towns[1], towns[3], 4, "Road_2");
-        townGraphManager.addRoad(towns[1], towns[5], 6, "Road_3");
-        townGraphManager.addRoad(towns[3], towns[7], 1, "Road_4");
-        townGraphManager.addRoad(towns[3], towns[8], 2, "Road_5");
-        townGraphManager.addRoad(towns[4], towns[8], 3, "Road_6");
-        townGraphManager.addRoad(towns[6], towns[9], 3, "Road_7");
-        townGraphManager.addRoad(towns[9], towns[10], 4, "Road_8");
-        townGraphManager.addRoad(towns[8], towns[10], 2, "Road_9");
-        townGraphManager.addRoad(towns[5], towns[10], 5, "Road_10");
-        townGraphManager.addRoad(towns[10], towns[11], 3, "Road_11");
-        townGraphManager.addRoad(towns[2], towns[11], 6, "Road_12");
-    }
-
-    @After
-    public void tearDown() throws Exception {
-        townGraphManager = null;
-    }
-
-    @Test
-    public void testAddRoad() {
-        ArrayList<String> roads = townGraphManager.allRoads();
-        assertEquals("Road_1", roads.get(0));
-        assertEquals("Road_10", roads.get(1));
-        assertEquals("Road_11", roads.get(2));
-        assertEquals("Road_12", roads.get(3));
-        townGraphManager.addRoad(towns[4], towns[11], 1, "Road_13");
-        roads = townGraphManager.allRoads();
-        assertEquals("Road_1", roads.get(0));
-        assertEquals("Road_10", roads.get(1));
-        assertEquals("Road_11", roads.get(2));
-        assertEquals("Road_12", roads.get(3));
-        assertEquals("Road_13", roads.get(4));
-    }
-
-    @Test
-    public void testGetRoad() {
-        assertEquals("Road_12", townGraphManager.getRoad(towns[2], towns[11]));
-        assertEquals("Road_4", townGraphManager.getRoad(towns[3], towns[7]));
-    }
-
-    @Test
-    public void testAddTown() {
-        assertFalse(townGraphManager.containsTown("Town_12"));
-        townGraphManager.addTown("Town_12");
-        assertTrue(townGraphManager.containsTown("Town_12"));
-    }
-
-    @Test
-    public void testDisjointGraph() {
-        assertFalse(townGraphManager.containsTown("Town_12"));
-        townGraphManager.addTown("Town_12");
-        ArrayList<String> path = townGraphManager.getPath(towns[1], "Town_12");
-        assertFalse(path.size() > 0);
-    }
-
-    @Test
-    public void testContainsTown() {
-        assertTrue(townGraphManager.containsTown("Town_2"));
-        assertFalse(townGraphManager.containsTown("Town_12"));
-    }
-
-    @Test
-    public void testContainsRoadConnection() {
-        assertTrue(townGraphManager.containsRoadConnection(towns[2], towns[11]));
-        assertFalse(townGraphManager.containsRoadConnection(towns[3], towns[5]));
-    }
-
-    @Test
-    public void testAllRoads() {
-        ArrayList<String> roads = townGraphManager.allRoads();
-        assertEquals("Road_1", roads.get(0));
-        assertEquals("Road_10", roads.get(1));
-        assertEquals("Road_11", roads.get(2));
-        assertEquals("Road_8", roads.get(10));
-        assertEquals("Road_9", roads.get(11));
-    }
-
-    @Test
-    public void testDeleteRoadConnection() {
-        assertTrue(townGraphManager.containsRoadConnection(towns[2], towns[11]));
-        townGraphManager.deleteRoadConnection(towns[2], towns[11], "Road_12");
-        assertFalse(townGraphManager.containsRoadConnection(towns[2], towns[11]));
-    }
-
-    @Test
-    public void testDeleteTown() {
-        assertTrue(townGraphManager.containsTown("Town_2"));
-        townGraphManager.deleteTown("Town_2");
-        assertFalse(townGraphManager.containsTown("Town_2"));
-    }
-
-    @Test
-    public void testAllTowns() {
-        ArrayList<String> townsList = townGraphManager.allTowns();
-        assertEquals("Town_1", townsList.get(0));
-        assertEquals("Town_10", townsList.get(1));
-        assertEquals("Town_11", townsList.get(2));
-        assertEquals("Town_2", townsList.get(3));
-        assertEquals("Town_8", townsList.get(9));
-    }
-
-    @Test
-    public void testGetPath() {
-        ArrayList<String> path = townGraphManager.getPath(towns[1], towns[11]);
-        assertNotNull(path);
-        assertTrue(path.size() > 0);
-        assertEquals("Town_1 via Road_1 to Town_2 2 mi", path.get(0).trim());
-        assertEquals("Town_2 via Road_12 to Town_11 6 mi", path.get(1).trim());
-    }
-
-    @Test
-    public void testGetPathA() {
-        ArrayList<String> path = townGraphManager.getPath(towns[1], towns[10]);
-        assertNotNull(path);
-        assertTrue(path.size() > 0);
-        assertEquals("Town_1 via Road_2 to Town_3 4 mi", path.get(0).trim());
-        assertEquals("Town_3 via Road_5 to Town_8 2 mi", path.get(1).trim());
-        assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(2).trim());
-    }
-
-    @Test
-    public void testGetPathB() {
-        ArrayList<String> path = townGraphManager.getPath(towns[1], towns[6]);
-        assertNotNull(path);
-        assertTrue(path.size() > 0);
-        assertEquals("Town_1 via Road_2 to Town_3 4 mi", path.get(0).trim());
-        assertEquals("Town_3 via Road_5 to Town_8 2 mi", path.get(1).trim());
-        assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(2).trim());
-        assertEquals("Town_10 via Road_8 to Town_9 4 mi", path.get(3).trim());
-        assertEquals("Town_9 via Road_7 to Town_6 3 mi", path.get(4).trim());
-    }
-}
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TownGraphManagerStudentTest {
+    private TownGraphManagerInterface townGraphManager;
+    private String[] towns;
+
+    @Before
+    public void setUp() throws Exception {
+        townGraphManager = new TownGraphManager();
+        towns = new String[12];
+
+        for (int i = 1; i < 12; i++) {
+            towns[i] = "Town_" + i;
+            townGraphManager.addTown(towns[i]);
+        }
+
+        townGraphManager.addRoad(towns[1], towns[2], 2, "Road_1");
+        townGraphManager.addRoad(towns[1], towns[3], 4, "Road_2");
+        townGraphManager.addRoad(towns[1], towns[5], 6, "Road_3");
+        townGraphManager.addRoad(towns[3], towns[7], 1, "Road_4");
+        townGraphManager.addRoad(towns[3], towns[8], 2, "Road_5");
+        townGraphManager.addRoad(towns[4], towns[8], 3, "Road_6");
+        townGraphManager.addRoad(towns[6], towns[9], 3, "Road_7");
+        townGraphManager.addRoad(towns[9], towns[10], 4, "Road_8");
+        townGraphManager.addRoad(towns[8], towns[10], 2, "Road_9");
+        townGraphManager.addRoad(towns[5], towns[10], 5, "Road_10");
+        townGraphManager.addRoad(towns[10], towns[11], 3, "Road_11");
+        townGraphManager.addRoad(towns[2], towns[11], 6, "Road_12");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        townGraphManager = null;
+    }
+
+    @Test
+    public void testAddRoad() {
+        ArrayList<String> roads = townGraphManager.allRoads();
+        assertEquals("Road_1", roads.get(0));
+        assertEquals("Road_10", roads.get(1));
+        assertEquals("Road_11", roads.get(2));
+        assertEquals("Road_12", roads.get(3));
+        townGraphManager.addRoad(towns[4], towns[11], 1, "Road_13");
+        roads = townGraphManager.allRoads();
+        assertEquals("Road_1", roads.get(0));
+        assertEquals("Road_10", roads.get(1));
+        assertEquals("Road_11", roads.get(2));
+        assertEquals("Road_12", roads.get(3));
+        assertEquals("Road_13", roads.get(4));
+    }
+
+    @Test
+    public void testGetRoad() {
+        assertEquals("Road_12", townGraphManager.getRoad(towns[2], towns[11]));
+        assertEquals("Road_4", townGraphManager.getRoad(towns[3], towns[7]));
+    }
+
+    @Test
+    public void testAddTown() {
+        assertFalse(townGraphManager.containsTown("Town_12"));
+        townGraphManager.addTown("Town_12");
+        assertTrue(townGraphManager.containsTown("Town_12"));
+    }
+
+    @Test
+    public void testDisjointGraph() {
+        assertFalse(townGraphManager.containsTown("Town_12"));
+        townGraphManager.addTown("Town_12");
+        ArrayList<String> path = townGraphManager.getPath(towns[1], "Town_12");
+        assertFalse(path.size() > 0);
+    }
+
+    @Test
+    public void testTownsWithin() {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        List<String> near = new ArrayList<>();
+        manager.townsWithin(towns[1], 5).forEach(t -> near.add(t.toString()));
+        assertEquals("[Town_1 0 mi, Town_2 2 mi, Town_3 4 mi, Town_7 5 mi]", near.toString());
+        assertEquals(0, manager.townsWithin("Town_12", 5).count());
+    }
+
+    @Test
+    public void testNearestTowns() {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        Set<String> depots = new HashSet<>(Arrays.asList("Town_4", "Town_6", "Town_9", "Town_11"));
+        List<TownDistance> nearest = manager.nearestTowns(towns[1], 2, t -> depots.contains(t.getName()));
+        assertEquals("[Town_11 8 mi, Town_4 9 mi]", nearest.toString());
+        assertTrue(manager.nearestTowns("Town_12", 2, t -> true).isEmpty());
+    }
+
+    @Test
+    public void testAlternativePaths() {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        ArrayList<ArrayList<String>> routes = manager.getAlternativePaths(towns[1], towns[11], 3);
+        assertEquals(3, routes.size());
+        assertEquals(manager.getPath(towns[1], towns[11]), routes.get(0));
+        assertEquals(4, routes.get(1).size());
+        assertEquals(3, routes.get(2).size());
+        assertTrue(manager.getAlternativePaths(towns[1], "Town_12", 3).isEmpty());
+    }
+
+    @Test
+    public void testComponents() {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        manager.addRoad("Town_12", "Town_13", 1, "Road_13");
+        assertTrue(manager.isConnected(towns[1], towns[6]));
+        assertFalse(manager.isConnected(towns[1], "Town_12"));
+        assertFalse(manager.isConnected(towns[1], "Town_14"));
+        assertTrue(manager.getPath(towns[1], "Town_13").isEmpty());
+        ArrayList<ArrayList<String>> components = manager.getComponents();
+        assertEquals(2, components.size());
+        assertEquals(11, components.get(0).size());
+        assertEquals("[Town_12, Town_13]", components.get(1).toString());
+    }
+
+    @Test
+    public void testContainsTown() {
+        assertTrue(townGraphManager.containsTown("Town_2"));
+        assertFalse(townGraphManager.containsTown("Town_12"));
+    }
+
+    @Test
+    public void testContainsRoadConnection() {
+        assertTrue(townGraphManager.containsRoadConnection(towns[2], towns[11]));
+        assertFalse(townGraphManager.containsRoadConnection(towns[3], towns[5]));
+    }
+
+    @Test
+    public void testAllRoads() {
+        ArrayList<String> roads = townGraphManager.allRoads();
+        assertEquals("Road_1", roads.get(0));
+        assertEquals("Road_10", roads.get(1));
+        assertEquals("Road_11", roads.get(2));
+        assertEquals("Road_8", roads.get(10));
+        assertEquals("Road_9", roads.get(11));
+    }
+
+    @Test
+    public void testDeleteRoadConnection() {
+        assertTrue(townGraphManager.containsRoadConnection(towns[2], towns[11]));
+        townGraphManager.deleteRoadConnection(towns[2], towns[11], "Road_12");
+        assertFalse(townGraphManager.containsRoadConnection(towns[2], towns[11]));
+    }
+
+    @Test
+    public void testDeleteTown() {
+        assertTrue(townGraphManager.containsTown("Town_2"));
+        townGraphManager.deleteTown("Town_2");
+        assertFalse(townGraphManager.containsTown("Town_2"));
+    }
+
+    @Test
+    public void testAllTowns() {
+        ArrayList<String> townsList = townGraphManager.allTowns();
+        assertEquals("Town_1", townsList.get(0));
+        assertEquals("Town_10", townsList.get(1));
+        assertEquals("Town_11", townsList.get(2));
+        assertEquals("Town_2", townsList.get(3));
+        assertEquals("Town_8", townsList.get(9));
+    }
+
+    @Test
+    public void testGetPath() {
+        ArrayList<String> path = townGraphManager.getPath(towns[1], towns[11]);
+        assertNotNull(path);
+        assertTrue(path.size() > 0);
+        assertEquals("Town_1 via Road_1 to Town_2 2 mi", path.get(0).trim());
+        assertEquals("Town_2 via Road_12 to Town_11 6 mi", path.get(1).trim());
+    }
+
+    @Test
+    public void testGetPathA() {
+        ArrayList<String> path = townGraphManager.getPath(towns[1], towns[10]);
+        assertNotNull(path);
+        assertTrue(path.size() > 0);
+        assertEquals("Town_1 via Road_2 to Town_3 4 mi", path.get(0).trim());
+        assertEquals("Town_3 via Road_5 to Town_8 2 mi", path.get(1).trim());
+        assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(2).trim());
+    }
+
+    @Test
+    public void testGetPathB() {
+        ArrayList<String> path = townGraphManager.getPath(towns[1], towns[6]);
+        assertNotNull(path);
+        assertTrue(path.size() > 0);
+        assertEquals("Town_1 via Road_2 to Town_3 4 mi", path.get(0).trim());
+        assertEquals("Town_3 via Road_5 to Town_8 2 mi", path.get(1).trim());
+        assertEquals("Town_8 via Road_9 to Town_10 2 mi", path.get(2).trim());
+        assertEquals("Town_10 via Road_8 to Town_9 4 mi", path.get(3).trim());
+        assertEquals("Town_9 via Road_7 to Town_6 3 mi", path.get(4).trim());
+    }
+
+    @Test
+    public void testPopulateTownGraphWithCoordinates() throws Exception {
+        File file = File.createTempFile("roads", ".txt");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("North;5;A;B;0,0;3,4");
+            out.println("South;6;B;C;3,4;3,10");
+            out.println("Bypass;20;A;C;0,0;3,10");
+        }
+        TownGraphManager manager = new TownGraphManager();
+        manager.populateTownGraph(file);
+        assertTrue(manager.getTown("C").hasCoordinates());
+        assertEquals(10, manager.getTown("C").getY(), 0);
+        ArrayList<String> path = manager.getPath("A", "C", SearchMode.ASTAR);
+        assertEquals(2, path.size());
+        assertEquals("B via South to C 6 mi", path.get(1));
+    }
+
+    @Test
+    public void testReadFileReportsMalformedLines() throws Exception {
+        File file = File.createTempFile("roads", ".txt");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.print("North,5;A;B\r\n");
+            out.print("South;6;B;C;3.5,-4;1e2,10\n");
+            out.print("\n");
+            out.print("West;x;C;D\n");
+            out.print("East;7;C\n");
+            out.print("Ring;8;;D\n");
+            out.print("Spur,9;C;D;1,2;oops\n");
+            out.print("Last;4;C;D");
+        }
+        TownGraphManager manager = new TownGraphManager();
+        manager.readFile(file.getPath());
+        assertEquals("North", manager.getRoad("A", "B"));
+        assertEquals("South", manager.getRoad("B", "C"));
+        assertEquals("Last", manager.getRoad("C", "D"));
+        assertEquals(3.5, manager.getTown("B").getX(), 0);
+        assertEquals(100, manager.getTown("C").getX(), 0);
+        assertFalse(manager.getTown("A").hasCoordinates());
+
+        List<String> errors = manager.getLoadErrors();
+        assertEquals(4, errors.size());
+        assertTrue(errors.get(0).startsWith("line 4:"));
+        assertTrue(errors.get(1).startsWith("line 5:"));
+        assertTrue(errors.get(2).startsWith("line 6:"));
+        assertTrue(errors.get(3).startsWith("line 7:"));
+    }
+
+    @Test
+    public void testBulkImportMatchesPopulate() throws Exception {
+        File file = File.createTempFile("roads", ".txt");
+        file.deleteOnExit();
+        Random random = new Random(15);
+        try (PrintWriter out = new PrintWriter(file)) {
+            for (int i = 0; i < 60000; i++) {
+                int a = random.nextInt(3000), b = random.nextInt(3000);
+                if (i % 1000 == 999) out.println("Broken_" + i + ";x;T" + a + ";T" + b);
+                else if (i % 7 == 0) out.println("Road_" + i + "," + random.nextInt(50) + ";T" + a + ";T" + b + ";" + a + ",0;" + b + ".5,1");
+                else out.println("Road_" + i + ";" + random.nextInt(50) + ";T" + a + ";T" + b);
+            }
+        }
+        TownGraphManager expected = new TownGraphManager();
+        expected.addRoad("T1", "T2", 1, "Existing");
+        expected.populateTownGraph(file);
+        TownGraphManager manager = new TownGraphManager();
+        manager.addRoad("T1", "T2", 1, "Existing");
+        int added = manager.bulkImport(file);
+
+        assertEquals(expected.getLoadErrors(), manager.getLoadErrors());
+        assertEquals(60, manager.getLoadErrors().size());
+        assertEquals(expected.allTowns(), manager.allTowns());
+        assertEquals(expected.allRoads(), manager.allRoads());
+        assertEquals(expected.allRoads().size() - 1, added);
+        assertEquals("Existing", manager.getRoad("T1", "T2"));
+        for (int i = 0; i < 50; i++) {
+            String a = "T" + random.nextInt(3000), b = "T" + random.nextInt(3000);
+            assertEquals(expected.getRoad(a, b), manager.getRoad(a, b));
+            assertEquals(expected.getPath(a, b), manager.getPath(a, b));
+            assertEquals(expected.getTown(a).getX(), manager.getTown(a).getX(), 0);
+        }
+    }
+
+    @Test
+    public void testSnapshotFile() throws Exception {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        manager.addTown("Town_12", 3, -4.5);
+        manager.addRoad(towns[11], "Town_12", 7, "Road_\u00e9");
+        File file = File.createTempFile("graph", ".bin");
+        file.deleteOnExit();
+        manager.saveSnapshot(file, true);
+
+        TownGraphManager loaded = new TownGraphManager();
+        assertEquals(13, loaded.loadSnapshot(file));
+        assertEquals(manager.allTowns(), loaded.allTowns());
+        assertEquals(manager.allRoads(), loaded.allRoads());
+        assertEquals(-4.5, loaded.getTown("Town_12").getY(), 0);
+        assertFalse(loaded.getTown(towns[1]).hasCoordinates());
+        for (int i = 1; i < 12; i++)
+            assertEquals(manager.getPath(towns[i], "Town_12"), loaded.getPath(towns[i], "Town_12"));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 1);
+        }
+        try {
+            new TownGraphManager().loadSnapshot(file);
+            fail("A damaged snapshot should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        manager.saveSnapshot(file, false);
+        assertEquals(13, new TownGraphManager().loadSnapshot(file));
+    }
+
+    @Test
+    public void testApplyChanges() throws Exception {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        manager.enablePathCache(4);
+        assertEquals(2, manager.getPath(towns[1], towns[11]).size());
+        File file = File.createTempFile("changes", ".txt");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("# hourly changes");
+            out.println("+Road_13;1;Town_1;Town_11");
+            out.println("+Road_14;4;Town_11;Town_12");
+            out.println("+Road_15;4;Town_1;Town_2");
+            out.println("-Road_3;Town_5;Town_1");
+            out.println("-Road_9;Town_8;Town_9");
+            out.println("~Road_12;1;Town_2;Town_11");
+            out.println("~Road_11;3;Town_10;Town_11");
+            out.println("~Road_8;many;Town_9;Town_10");
+            out.println("");
+            out.println("*Road_1;Town_1;Town_2");
+        }
+        ChangeReport report = manager.applyChanges(file);
+        assertEquals(2, report.getAdded());
+        assertEquals(1, report.getRemoved());
+        assertEquals(1, report.getReweighted());
+        assertEquals(3, report.getSkipped());
+        assertEquals(2, report.getErrors().size());
+        assertTrue(report.getErrors().get(0).startsWith("line 9:"));
+        assertTrue(report.getErrors().get(1).startsWith("line 11:"));
+        assertTrue(report.toString().startsWith("2 added, 1 removed, 1 reweighted, 3 skipped, 2 malformed in "));
+
+        assertNull(manager.getRoad(towns[1], towns[5]));
+        assertEquals("Road_14", manager.getRoad(towns[11], "Town_12"));
+        assertEquals("Road_1", manager.getRoad(towns[1], towns[2]));
+        assertEquals("Town_1 via Road_13 to Town_11 1 mi", manager.getPath(towns[1], towns[11]).get(0));
+        assertEquals("Town_11 via Road_12 to Town_2 1 mi", manager.getPath(towns[11], towns[2]).get(0));
+    }
+
+    @Test
+    public void testApplyBatch() {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        manager.enablePathCache(4);
+        assertEquals(2, manager.getPath(towns[1], towns[11]).size());
+        GraphBatch batch = new GraphBatch();
+        for (int i = 0; i < 100; i++) batch.addRoad("Batch_" + i, "Batch_" + (i + 1), 1, "Batch_Road_" + i);
+        batch.addRoad(towns[1], "Batch_0", 1, "Batch_Start")
+                .addTown("Lone", 3, 4)
+                .addTown(towns[2])
+                .deleteRoad(towns[8], towns[10], "Road_9")
+                .deleteRoad(towns[8], towns[10], "Road_9")
+                .setWeight(towns[2], towns[11], "Road_12", 1)
+                .deleteTown("Batch_100");
+        ChangeReport report = manager.apply(batch);
+        assertEquals(101, report.getAdded());
+        assertEquals(1, report.getRemoved());
+        assertEquals(1, report.getReweighted());
+        assertEquals(2, report.getSkipped());
+        assertTrue(report.getErrors().isEmpty());
+
+        //The whole batch empties the path cache once
+        assertEquals(2, manager.getPath(towns[1], towns[11]).size());
+        assertEquals(1, manager.getPathCache().getInvalidations());
+        assertEquals(100, manager.getPath(towns[1], "Batch_99").size());
+        assertNull(manager.getTown("Batch_100"));
+        assertEquals(4, manager.getTown("Lone").getY(), 0);
+        assertFalse(manager.containsRoadConnection(towns[8], towns[10]));
+        assertEquals("Town_11 via Road_12 to Town_2 1 mi", manager.getPath(towns[11], towns[2]).get(0));
+        try {
+            batch.addRoad(towns[1], towns[2], -1, "Negative");
+            fail("A negative weight should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsRolledBack() throws Exception {
+        for (TownGraphManager.Concurrency mode : TownGraphManager.Concurrency.values()) {
+            File snapshot = File.createTempFile("graph", ".bin");
+            File log = File.createTempFile("graph", ".log");
+            snapshot.delete();
+            log.delete();
+            snapshot.deleteOnExit();
+            log.deleteOnExit();
+
+            TownGraphManager manager = new TownGraphManager(mode);
+            manager.enableDurability(snapshot, log, Long.MAX_VALUE);
+            manager.addRoad("A", "B", 5, "AB");
+            manager.addRoad("B", "C", 3, "BC");
+            manager.addTown("D", 1, 2);
+
+            //Closing the log under the manager makes the next force fail, and every append after it
+            manager.getWriteAheadLog().close();
+            try {
+                manager.addTown("E");
+                fail("Expected the log to fail");
+            } catch (java.io.UncheckedIOException expected) {
+            }
+            String before = manager.allRoads() + " " + manager.allTowns() + " " + manager.getPath("A", "C");
+
+            GraphBatch batch = new GraphBatch().addRoad("C", "F", 1, "CF").deleteRoad("A", "B", "AB")
+                    .setWeight("B", "C", "BC", 9).addTown("D", 7, 7).deleteTown("B").addTown("G");
+            try {
+                manager.apply(batch);
+                fail("Expected the batch to fail in " + mode);
+            } catch (java.io.UncheckedIOException expected) {
+            }
+            assertEquals(mode.toString(), before,
+                    manager.allRoads() + " " + manager.allTowns() + " " + manager.getPath("A", "C"));
+            assertEquals(1, manager.getTown("D").getX(), 0);
+            assertEquals(2, manager.getTown("B").getNeighbors().size());
+
+            //A single edit that cannot be logged is taken back too
+            List<Runnable> edits = Arrays.asList(() -> manager.addRoad("C", "F", 1, "CF"),
+                    () -> manager.deleteRoadConnection("A", "B", "AB"), () -> manager.setRoadWeight("B", "C", "BC", 9),
+                    () -> manager.addTown("D", 7, 7), () -> manager.deleteTown("B"), () -> manager.addTown("G"));
+            for (Runnable edit : edits) {
+                try {
+                    edit.run();
+                    fail("Expected the edit to fail in " + mode);
+                } catch (java.io.UncheckedIOException expected) {
+                }
+                assertEquals(mode.toString(), before,
+                        manager.allRoads() + " " + manager.allTowns() + " " + manager.getPath("A", "C"));
+            }
+            assertEquals(1, manager.getTown("D").getX(), 0);
+            assertEquals(2, manager.getTown("B").getNeighbors().size());
+        }
+    }
+
+    @Test
+    public void testUnloggableBatchChangesNothing() throws Exception {
+        File snapshot = File.createTempFile("graph", ".bin");
+        File log = File.createTempFile("graph", ".log");
+        snapshot.delete();
+        log.delete();
+        snapshot.deleteOnExit();
+        log.deleteOnExit();
+
+        TownGraphManager manager = new TownGraphManager(TownGraphManager.Concurrency.COPY_ON_WRITE);
+        manager.enableDurability(snapshot, log, Long.MAX_VALUE);
+        char[] name = new char[70000];
+        Arrays.fill(name, 'x');
+        GraphBatch batch = new GraphBatch().addRoad("A", "B", 1, "AB").addRoad("B", "C", 2, "BC")
+                .addTown(new String(name));
+        try {
+            manager.apply(batch);
+            fail("Expected the long name to fail");
+        } catch (java.io.UncheckedIOException expected) {
+        }
+        assertTrue(manager.allTowns().isEmpty());
+        manager.addRoad("C", "D", 3, "CD");
+        manager.disableDurability();
+
+        TownGraphManager reopened = new TownGraphManager();
+        reopened.enableDurability(snapshot, log, Long.MAX_VALUE);
+        assertEquals(Arrays.asList("C", "D"), reopened.allTowns());
+        reopened.disableDurability();
+    }
+
+    @Test
+    public void testWriteAheadLog() throws Exception {
+        File snapshot = File.createTempFile("graph", ".bin");
+        File log = File.createTempFile("graph", ".log");
+        snapshot.delete();
+        log.delete();
+        snapshot.deleteOnExit();
+        log.deleteOnExit();
+
+        TownGraphManager manager = new TownGraphManager(true);
+        manager.enableDurability(snapshot, log, Long.MAX_VALUE);
+        manager.addTown("A", 1, 2);
+        manager.addRoad("A", "B", 5, "AB");
+        manager.addRoad("B", "C", 3, "BC");
+        manager.addRoad("C", "D", 1, "CD");
+        manager.deleteRoadConnection("C", "D", "CD");
+        manager.addTown("E");
+        manager.deleteTown("D");
+        assertTrue(manager.setRoadWeight("A", "B", "AB", 7));
+        assertFalse(manager.setRoadWeight("A", "B", "BA", 8));
+
+        //Moving a town to where it already is writes nothing
+        long size = manager.getWriteAheadLog().size();
+        long syncs = manager.getWriteAheadLog().getSyncCount();
+        assertFalse(manager.addTown("A", 1, 2));
+        assertEquals(size, manager.getWriteAheadLog().size());
+        assertEquals(syncs, manager.getWriteAheadLog().getSyncCount());
+
+        //Writers on many threads share the forces to disk
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 25; i++) manager.addRoad("W" + id, "W" + id + "_" + i, i, "W" + id + "_" + i);
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) writer.join();
+        assertTrue(manager.getWriteAheadLog().getSyncCount() <= 107);
+
+        //Recover from the log alone, as if the first manager had crashed
+        TownGraphManager recovered = new TownGraphManager();
+        recovered.enableDurability(snapshot, log, Long.MAX_VALUE);
+        assertFalse(snapshot.exists());
+        assertEquals(manager.allTowns(), recovered.allTowns());
+        assertEquals(manager.allRoads(), recovered.allRoads());
+        assertEquals(2, recovered.getTown("A").getY(), 0);
+        assertEquals("A via AB to B 7 mi", recovered.getPath("A", "B").get(0));
+        assertEquals(102, recovered.allRoads().size());
+        recovered.disableDurability();
+
+        //A record torn by a crash is dropped
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.seek(file.length());
+            file.write(new byte[] {0, 0, 0, 40, 3, 0});
+        }
+        recovered = new TownGraphManager();
+        recovered.enableDurability(snapshot, log, Long.MAX_VALUE);
+        assertEquals(manager.allRoads(), recovered.allRoads());
+
+        //After a checkpoint the snapshot holds everything and the log is empty
+        recovered.checkpoint();
+        recovered.addRoad("A", "E", 2, "AE");
+        recovered.disableDurability();
+        assertTrue(snapshot.exists());
+        TownGraphManager reopened = new TownGraphManager(TownGraphManager.Concurrency.COPY_ON_WRITE);
+        reopened.enableDurability(snapshot, log, 200);
+        assertEquals("AE", reopened.getRoad("A", "E"));
+        assertEquals(103, reopened.allRoads().size());
+
+        //The log is compacted once it grows past the limit
+        for (int i = 0; i < 20; i++) reopened.addRoad("E", "F" + i, i, "EF" + i);
+        assertTrue(log.length() <= 200);
+        reopened.disableDurability();
+        manager.disableDurability();
+        TownGraphManager compacted = new TownGraphManager();
+        compacted.enableDurability(snapshot, log, 200);
+        assertEquals(reopened.allRoads(), compacted.allRoads());
+        compacted.disableDurability();
+    }
+
+    @Test
+    public void testLandmarks() throws Exception {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        manager.enableLandmarks(3);
+        assertEquals("Town_9 via Road_7 to Town_6 3 mi", manager.getPath(towns[1], towns[6]).get(4));
+
+        File file = File.createTempFile("landmarks", ".bin");
+        file.deleteOnExit();
+        manager.saveLandmarks(file);
+        manager.addRoad(towns[4], towns[6], 1, "Road_13");
+        manager.rebuildLandmarksInBackground().get();
+        assertEquals("Town_4 via Road_13 to Town_6 1 mi", manager.getPath(towns[4], towns[9]).get(0));
+        try {
+            manager.loadLandmarks(file);
+            fail("Landmarks saved before Road_13 was added should not load");
+        } catch (IOException e) {
+            // expected
+        }
+
+        manager.deleteRoadConnection(towns[4], towns[6], "Road_13");
+        manager.loadLandmarks(file);
+        assertEquals(5, manager.getPath(towns[1], towns[6]).size());
+
+        //Copy-on-write versions get the rebuilt tables too
+        TownGraphManager cow = new TownGraphManager(TownGraphManager.Concurrency.COPY_ON_WRITE);
+        cow.addRoad("A", "B", 5, "AB");
+        cow.addRoad("B", "C", 3, "BC");
+        cow.enableLandmarks(2);
+        cow.addRoad("A", "C", 1, "AC");
+        cow.rebuildLandmarksInBackground().get();
+        cow.saveLandmarks(file);
+    }
+
+    @Test
+    public void testPathCache() {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        manager.enablePathCache(2);
+        ShortestPathTreeCache cache = manager.getPathCache();
+        assertEquals(5, manager.getPath(towns[1], towns[6]).size());
+        assertEquals(3, manager.getPath(towns[1], towns[10]).size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        manager.getPath(towns[2], towns[6]);
+        manager.getPath(towns[3], towns[6]);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+
+        manager.addRoad(towns[1], towns[6], 1, "Road_13");
+        assertEquals("Town_1 via Road_13 to Town_6 1 mi", manager.getPath(towns[1], towns[6]).get(0));
+        assertEquals(1, cache.getInvalidations());
+        assertTrue(manager.getPath(towns[1], "Town_12").isEmpty());
+    }
+
+    @Test
+    public void testGetPaths() {
+        TownGraphManager manager = (TownGraphManager) townGraphManager;
+        manager.addTown("Town_12");
+        List<Map.Entry<String, String>> pairs = new ArrayList<>();
+        for (int i = 1; i < 12; i++) {
+            pairs.add(new AbstractMap.SimpleEntry<>(towns[i], towns[12 - i]));
+            pairs.add(new AbstractMap.SimpleEntry<>(towns[1], towns[i]));
+        }
+        pairs.add(new AbstractMap.SimpleEntry<>(towns[1], "Town_12"));
+        pairs.add(new AbstractMap.SimpleEntry<>("Nowhere", towns[1]));
+
+        ArrayList<ArrayList<String>> paths = manager.getPaths(pairs);
+        assertEquals(pairs.size(), paths.size());
+        for (int i = 0; i < pairs.size(); i++)
+            assertEquals(manager.getPath(pairs.get(i).getKey(), pairs.get(i).getValue()), paths.get(i));
+        assertEquals(5, paths.get(11).size());
+    }
+
+    @Test
+    public void testCanonicalTowns() {
+        Town stored = townGraphManager.getTown(towns[1]);
+        assertSame(stored, townGraphManager.getTown(towns[1]));
+        assertNull(townGraphManager.getTown("Town_12"));
+        assertTrue(stored.getNeighbors().contains(townGraphManager.getTown(towns[2])));
+        assertEquals(3, stored.getNeighbors().size());
+        for (Town neighbor : stored.getNeighbors())
+            assertSame(neighbor, townGraphManager.getTown(neighbor.getName()));
+
+        assertFalse(townGraphManager.addTown(towns[1]));
+        assertSame(stored, townGraphManager.getTown(towns[1]));
+        assertTrue(townGraphManager.deleteTown(towns[2]));
+        assertFalse(stored.getNeighbors().contains(new Town(towns[2])));
+        assertTrue(townGraphManager.deleteRoadConnection(towns[1], towns[3], "Road_2"));
+        assertEquals(1, stored.getNeighbors().size());
+        assertFalse(townGraphManager.containsRoadConnection(towns[1], "Town_12"));
+        assertNull(townGraphManager.getRoad("Town_12", towns[1]));
+        assertFalse(townGraphManager.deleteRoadConnection("Town_12", towns[1], "Road_1"));
+    }
+
+    @Test
+    public void testConcurrentReadsDuringWrites() throws Exception {
+        TownGraphManager manager = new TownGraphManager(true);
+        assertTrue(manager.isThreadSafe());
+        checkReadsDuringWrites(manager);
+    }
+
+    @Test
+    public void testCopyOnWriteReadsDuringWrites() throws Exception {
+        TownGraphManager manager = new TownGraphManager(TownGraphManager.Concurrency.COPY_ON_WRITE);
+        assertTrue(manager.isThreadSafe());
+        checkReadsDuringWrites(manager);
+        manager.addTown("Town_12", 1, 2);
+        assertEquals(1, manager.getTown("Town_12").getX(), 0);
+        assertTrue(manager.deleteTown("Town_12"));
+        assertEquals(11, manager.allTowns().size());
+    }
+
+    @Test
+    public void testCopyOnWriteKeepsPathCache() {
+        TownGraphManager manager = new TownGraphManager(TownGraphManager.Concurrency.COPY_ON_WRITE);
+        for (int i = 1; i < 11; i++) manager.addRoad(towns[i], towns[i + 1], 2, "Road_" + i);
+        manager.enablePathCache(4);
+        ShortestPathTreeCache cache = manager.getPathCache();
+        assertEquals(10, manager.getPath(towns[1], towns[11]).size());
+        assertTrue(manager.setRoadWeight(towns[5], towns[6], "Road_5", 7));
+        assertSame(cache, manager.getPathCache());
+        assertEquals("Town_5 via Road_5 to Town_6 7 mi", manager.getPath(towns[1], towns[11]).get(4));
+        assertEquals(1, cache.getRepairs());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getInvalidations());
+    }
+
+    private void checkReadsDuringWrites(TownGraphManager manager) throws Exception {
+        for (int i = 1; i < 12; i++) manager.addTown(towns[i]);
+        for (int i = 1; i < 11; i++) manager.addRoad(towns[i], towns[i + 1], 2, "Road_" + i);
+        manager.addRoad(towns[1], towns[6], 3, "Bypass");
+        manager.addRoad(towns[6], towns[11], 4, "Highway");
+
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        ArrayList<String> path = manager.getPath(towns[1], towns[11]);
+                        if (path.size() != 1 && path.size() != 2) throw new AssertionError("Torn path " + path);
+                        String road = manager.getRoad(towns[1], towns[11]);
+                        if (road != null && !road.equals("Shortcut")) throw new AssertionError("Torn road " + road);
+                        if (!manager.containsTown(towns[11])) throw new AssertionError("Lost town");
+                        if (manager.allTowns().size() != 11) throw new AssertionError("Lost towns");
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+            readers[r].start();
+        }
+        for (int i = 0; i < 500; i++) {
+            manager.addRoad(towns[1], towns[11], 1, "Shortcut");
+            manager.deleteRoadConnection(towns[1], towns[11], "Shortcut");
+        }
+        for (Thread reader : readers) reader.join();
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(2, manager.getPath(towns[1], towns[11]).size());
+    }
+}
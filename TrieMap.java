@@ -0,0 +1,348 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The purpose of TrieMap is to be a hash map that can be copied in O(1),
+ * so that each version of a copy-on-write Graph shares every entry it did
+ * not change with the version before it. Entries sit in a hash array mapped
+ * trie: each node covers five bits of the hash and keeps a bitmap of the
+ * slots it uses, so a lookup visits at most seven small nodes. A copy
+ * shares the root with the original. After that, a change copies the nodes
+ * on the path to its entry the first time either map changes them, and
+ * changes the nodes a map has copied since in place.
+ *
+ * Keys must not be null. The views are read-only; change the map through
+ * put and remove.
+ *
+ * @author Joshua Gizaw
+ */
+class TrieMap<K, V> extends AbstractMap<K, V> {
+    private Node root;
+    private int size;
+    //Nodes made by this map since it was last copied carry this token and may be changed in place
+    private Object owner = new Object();
+    //The value put or remove replaced, and whether there was one
+    private V previous;
+    private boolean found;
+
+    TrieMap() {
+        root = new Node(owner, 0, new Object[0]);
+    }
+
+    private TrieMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return a copy that can be changed without affecting this map, and
+     * the other way around
+     */
+    TrieMap<K, V> copy() {
+        owner = new Object();
+        return new TrieMap<K, V>(root, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public V get(Object key) {
+        Leaf<K, V> leaf = find(key);
+        return leaf == null ? null : leaf.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null) throw new NullPointerException("Key cannot be null");
+        previous = null;
+        found = false;
+        root = put(root, 0, hash(key), key, value);
+        return previous;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (key == null) return null;
+        previous = null;
+        found = false;
+        root = remove(root, 0, hash(key), key);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        root = new Node(owner, 0, new Object[0]);
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> find(Object key) {
+        if (key == null) return null;
+        int h = hash(key);
+        Node node = root;
+        for (int shift = 0; ; shift += 5) {
+            int bit = 1 << ((h >>> shift) & 31);
+            if ((node.bitmap & bit) == 0) return null;
+            Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+                continue;
+            }
+            for (Leaf<K, V> leaf = (Leaf<K, V>) slot; leaf != null; leaf = leaf.next)
+                if (leaf.hash == h && key.equals(leaf.key)) return leaf;
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node put(Node node, int shift, int h, K key, V value) {
+        int bit = 1 << ((h >>> shift) & 31);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            size++;
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, index);
+            slots[index] = new Leaf<K, V>(key, value, h, null);
+            System.arraycopy(node.slots, index, slots, index + 1, node.slots.length - index);
+            return edit(node, node.bitmap | bit, slots);
+        }
+        Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof Node) {
+            replacement = put((Node) slot, shift + 5, h, key, value);
+        } else {
+            Leaf<K, V> chain = (Leaf<K, V>) slot;
+            if (chain.hash != h) {
+                size++;
+                replacement = split(chain, new Leaf<K, V>(key, value, h, null), shift + 5);
+            } else {
+                Leaf<K, V> rest = without(chain, key);
+                if (found) {
+                    if (previous == value) return node;
+                } else {
+                    size++;
+                }
+                replacement = new Leaf<K, V>(key, value, h, rest);
+            }
+        }
+        if (replacement == slot) return node;
+        Node edited = edit(node, node.bitmap, null);
+        edited.slots[index] = replacement;
+        return edited;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node remove(Node node, int shift, int h, Object key) {
+        int bit = 1 << ((h >>> shift) & 31);
+        if ((node.bitmap & bit) == 0) return node;
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof Node) {
+            Node child = remove((Node) slot, shift + 5, h, key);
+            if (child == slot) return node;
+            //A node left with one entry is replaced by that entry
+            if (child.bitmap == 0) replacement = null;
+            else if (child.slots.length == 1 && child.slots[0] instanceof Leaf) replacement = child.slots[0];
+            else replacement = child;
+        } else {
+            Leaf<K, V> chain = (Leaf<K, V>) slot;
+            if (chain.hash != h) return node;
+            replacement = without(chain, key);
+            if (!found) return node;
+            size--;
+        }
+        if (replacement != null) {
+            Node edited = edit(node, node.bitmap, null);
+            edited.slots[index] = replacement;
+            return edited;
+        }
+        Object[] slots = new Object[node.slots.length - 1];
+        System.arraycopy(node.slots, 0, slots, 0, index);
+        System.arraycopy(node.slots, index + 1, slots, index, slots.length - index);
+        return edit(node, node.bitmap & ~bit, slots);
+    }
+
+    /**
+     * Returns a node with the given bitmap and slots, changing node itself if
+     * this map owns it.
+     * @param slots the new slots, or null to keep a copy of node's
+     */
+    private Node edit(Node node, int bitmap, Object[] slots) {
+        if (node.owner != owner) return new Node(owner, bitmap, slots != null ? slots : node.slots.clone());
+        node.bitmap = bitmap;
+        if (slots != null) node.slots = slots;
+        return node;
+    }
+
+    /**
+     * @return a node holding two leaves whose hashes differ, as deep as
+     * needed to tell the hashes apart
+     */
+    private Node split(Leaf<K, V> a, Leaf<K, V> b, int shift) {
+        int ia = (a.hash >>> shift) & 31;
+        int ib = (b.hash >>> shift) & 31;
+        if (ia == ib) return new Node(owner, 1 << ia, new Object[] { split(a, b, shift + 5) });
+        return new Node(owner, (1 << ia) | (1 << ib), ia < ib ? new Object[] { a, b } : new Object[] { b, a });
+    }
+
+    /**
+     * Returns a chain of leaves with equal hashes without the leaf of key,
+     * setting found and previous if it was there.
+     */
+    private Leaf<K, V> without(Leaf<K, V> chain, Object key) {
+        if (chain == null) return null;
+        if (key.equals(chain.key)) {
+            found = true;
+            previous = chain.value;
+            return chain.next;
+        }
+        Leaf<K, V> rest = without(chain.next, key);
+        return rest == chain.next ? chain : new Leaf<K, V>(chain.key, chain.value, chain.hash, rest);
+    }
+
+    /**
+     * A node of the trie. Each slot holds a Leaf or a Node.
+     */
+    private static final class Node {
+        final Object owner;
+        int bitmap;
+        Object[] slots;
+
+        Node(Object owner, int bitmap, Object[] slots) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * One entry, linked to the other entries with the same hash.
+     */
+    private static final class Leaf<K, V> implements Map.Entry<K, V> {
+        final K key;
+        final V value;
+        final int hash;
+        final Leaf<K, V> next;
+
+        Leaf(K key, V value, int hash, Leaf<K, V> next) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.next = next;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException("Use put to change a TrieMap");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return key.equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+    }
+
+    /**
+     * Walks the trie depth first. The trie is at most seven nodes deep
+     * below the root.
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Node[] nodes = new Node[8];
+        private final int[] positions = new int[8];
+        private int depth;
+        private Leaf<K, V> next;
+
+        EntryIterator() {
+            nodes[0] = root;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            if (next != null && next.next != null) {
+                next = next.next;
+                return;
+            }
+            next = null;
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                if (positions[depth] == node.slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = node.slots[positions[depth]++];
+                if (slot instanceof Node) {
+                    nodes[++depth] = (Node) slot;
+                    positions[depth] = 0;
+                } else {
+                    next = (Leaf<K, V>) slot;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) throw new NoSuchElementException();
+            Leaf<K, V> entry = next;
+            advance();
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The purpose of WriteAheadLog is to make edits to a graph survive a crash
+ * by appending each one to a file before it is reported as done. Each
+ * record is an op byte and its fields, framed by its length and a CRC32,
+ * so a record torn by a crash is recognized and dropped on recovery.
+ * Records are appended to a buffer in the order the edits were made, and
+ * sync writes the buffer and forces it to disk. Writers that call sync
+ * while another writer's force is running wait for it and are then forced
+ * together, so under many writers each force covers a whole group of
+ * records.
+ *
+ * @author Joshua Gizaw
+ */
+public class WriteAheadLog {
+    private static final int MAGIC = 0x57414C31;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final byte ADD_TOWN = 1;
+    private static final byte LOCATE_TOWN = 2;
+    private static final byte ADD_ROAD = 3;
+    private static final byte DELETE_ROAD = 4;
+    private static final byte DELETE_TOWN = 5;
+    private static final byte SET_WEIGHT = 6;
+
+    /**
+     * Receives the edits read back from a log, in the order they were made.
+     */
+    public interface Replay {
+        void addTown(String name);
+
+        void locateTown(String name, double x, double y);
+
+        void addRoad(String source, String destination, int weight, String name);
+
+        void deleteRoad(String source, String destination, String name);
+
+        void deleteTown(String name);
+
+        void setWeight(String source, String destination, String name, int weight);
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition forced = lock.newCondition();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    //Sequence numbers of the last record appended and the last one on disk
+    private long appended;
+    private long durable;
+    private boolean forcing;
+    private IOException failure;
+    private long size;
+    private long syncCount;
+
+    private WriteAheadLog(File file, FileChannel channel, long size) {
+        this.file = file;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    /**
+     * Opens a log, creating it if needed, and replays the records it holds.
+     * Reading stops at the first torn or damaged record, and the file is
+     * cut back to the last good one so new records follow it.
+     * @param file the log file
+     * @param replay receives each record read back
+     * @return the log, ready for new records
+     * @throws IOException if the file cannot be opened or is not a log
+     */
+    public static WriteAheadLog open(File file, Replay replay) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(FORMAT_VERSION);
+                header.flip();
+                channel.truncate(0);
+                while (header.hasRemaining()) channel.write(header, header.position());
+                channel.force(true);
+                return new WriteAheadLog(file, channel, HEADER_BYTES);
+            }
+            ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (contents.getInt(0) != MAGIC) throw new IOException(file + " is not a write-ahead log");
+            if (contents.getInt(4) != FORMAT_VERSION)
+                throw new IOException(file + " is log format " + contents.getInt(4) + ", expected " + FORMAT_VERSION);
+            long end = replay(contents, replay);
+            if (end < channel.size()) {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            return new WriteAheadLog(file, channel, end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the position after the last whole record
+     */
+    private static long replay(ByteBuffer contents, Replay replay) throws IOException {
+        CRC32 check = new CRC32();
+        int position = HEADER_BYTES;
+        while (contents.limit() - position >= 8) {
+            int length = contents.getInt(position);
+            if (length <= 0 || length > contents.limit() - position - 8) break;
+            byte[] body = new byte[length];
+            contents.get(position + 4, body);
+            check.reset();
+            check.update(body);
+            if ((int) check.getValue() != contents.getInt(position + 4 + length)) break;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            switch (in.readByte()) {
+                case ADD_TOWN:
+                    replay.addTown(in.readUTF());
+                    break;
+                case LOCATE_TOWN:
+                    replay.locateTown(in.readUTF(), in.readDouble(), in.readDouble());
+                    break;
+                case ADD_ROAD:
+                    replay.addRoad(in.readUTF(), in.readUTF(), in.readInt(), in.readUTF());
+                    break;
+                case DELETE_ROAD:
+                    replay.deleteRoad(in.readUTF(), in.readUTF(), in.readUTF());
+                    break;
+                case DELETE_TOWN:
+                    replay.deleteTown(in.readUTF());
+                    break;
+                case SET_WEIGHT:
+                    replay.setWeight(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt());
+                    break;
+                default:
+                    throw new IOException("Unknown record in write-ahead log at byte " + position);
+            }
+            position += length + 8;
+        }
+        return position;
+    }
+
+    /**
+     * One edit, encoded and ready to append. Encoding is separate from
+     * appending so that an edit that cannot be encoded, such as one with a
+     * name too long to write, fails before the graph or the log is changed.
+     */
+    public static final class Record {
+        private final byte[] body;
+
+        private Record(byte[] body) {
+            this.body = body;
+        }
+
+        /**
+         * @return a record that adds a town
+         */
+        public static Record addTown(String name) throws IOException {
+            return encode(ADD_TOWN, name, null, null, 0, 0, 0);
+        }
+
+        /**
+         * @return a record that adds a town with a location, or moves a town
+         */
+        public static Record locateTown(String name, double x, double y) throws IOException {
+            return encode(LOCATE_TOWN, name, null, null, 0, x, y);
+        }
+
+        /**
+         * @return a record that adds a road
+         */
+        public static Record addRoad(String source, String destination, int weight, String name) throws IOException {
+            return encode(ADD_ROAD, source, destination, name, weight, 0, 0);
+        }
+
+        /**
+         * @return a record that deletes a road
+         */
+        public static Record deleteRoad(String source, String destination, String name) throws IOException {
+            return encode(DELETE_ROAD, source, destination, name, 0, 0, 0);
+        }
+
+        /**
+         * @return a record that deletes a town
+         */
+        public static Record deleteTown(String name) throws IOException {
+            return encode(DELETE_TOWN, name, null, null, 0, 0, 0);
+        }
+
+        /**
+         * @return a record that gives a road a new weight
+         */
+        public static Record setWeight(String source, String destination, String name, int weight) throws IOException {
+            return encode(SET_WEIGHT, source, destination, name, weight, 0, 0);
+        }
+
+        private static Record encode(byte op, String first, String second, String name, int weight, double x, double y)
+                throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream body = new DataOutputStream(bytes);
+            body.writeByte(op);
+            body.writeUTF(first);
+            if (op == LOCATE_TOWN) {
+                body.writeDouble(x);
+                body.writeDouble(y);
+            } else if (op == ADD_ROAD || op == DELETE_ROAD) {
+                body.writeUTF(second);
+                if (op == ADD_ROAD) body.writeInt(weight);
+                body.writeUTF(name);
+            } else if (op == SET_WEIGHT) {
+                body.writeUTF(second);
+                body.writeUTF(name);
+                body.writeInt(weight);
+            }
+            return new Record(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Appends one record to the log buffer.
+     * @return the sequence number to pass to sync
+     * @throws IOException if the log has failed
+     */
+    public long append(Record record) throws IOException {
+        return appendAll(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends records to the log buffer under one hold of the lock, so they
+     * are appended together or, if the log has failed, not at all, and no
+     * other writer's records come between them.
+     * @param records the records, in the order the edits were made
+     * @return the sequence number of the last record, to pass to sync
+     * @throws IOException if the log has failed
+     */
+    public long appendAll(List<Record> records) throws IOException {
+        lock.lock();
+        try {
+            if (failure != null) throw new IOException("Write-ahead log " + file + " failed", failure);
+            //Writing to the in-memory buffer cannot fail, so the records go in whole
+            DataOutputStream out = new DataOutputStream(pending);
+            for (Record record : records) {
+                crc.reset();
+                crc.update(record.body);
+                out.writeInt(record.body.length);
+                out.write(record.body);
+                out.writeInt((int) crc.getValue());
+                size += record.body.length + 8;
+                appended++;
+            }
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number is on disk. If
+     * no force is running, the caller writes and forces every record
+     * appended so far; otherwise it waits for the running force and, if its
+     * record was appended after that force began, joins the next group.
+     * @param sequence a number returned by one of the append methods
+     * @throws IOException if the log could not be written
+     */
+    public void sync(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) throw new IOException("Write-ahead log " + file + " failed", failure);
+                if (forcing) {
+                    forced.awaitUninterruptibly();
+                    continue;
+                }
+                forcing = true;
+                ByteArrayOutputStream batch = pending;
+                pending = spare;
+                spare = batch;
+                long through = appended;
+                lock.unlock();
+                IOException error = null;
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                    while (buffer.hasRemaining()) channel.write(buffer, channel.size());
+                    channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                }
+                batch.reset();
+                forcing = false;
+                if (error == null) {
+                    durable = through;
+                    syncCount++;
+                } else {
+                    failure = error;
+                }
+                forced.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk.
+     * @throws IOException if the log could not be written
+     */
+    public void syncAll() throws IOException {
+        long sequence;
+        lock.lock();
+        try {
+            sequence = appended;
+        } finally {
+            lock.unlock();
+        }
+        sync(sequence);
+    }
+
+    /**
+     * Empties the log once its records are covered by a snapshot. The caller
+     * must keep new records from being appended until this returns.
+     * @throws IOException if the log could not be written
+     */
+    public void truncate() throws IOException {
+        syncAll();
+        lock.lock();
+        try {
+            channel.truncate(HEADER_BYTES);
+            channel.force(true);
+            size = HEADER_BYTES;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the length of the log in bytes, counting records not yet synced
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of forces so far, each covering one group of records
+     */
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs any buffered records and closes the file.
+     * @throws IOException if the log could not be written
+     */
+    public void close() throws IOException {
+        try {
+            syncAll();
+        } finally {
+            channel.close();
+        }
+    }
+}